@@ -0,0 +1,92 @@
+package com.jeffrpowell.dosbackup.benchmarks;
+
+import com.jeffrpowell.dosbackup.BackupEngine;
+import com.jeffrpowell.dosbackup.BackupOptions;
+import com.jeffrpowell.dosbackup.BackupResult;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A full copy-everything run of {@link BackupEngine} into an empty destination. The "files" and "bytes" counters
+ * give copy throughput; the destination is cleared outside the measured region before every run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CopyBenchmark {
+
+    @Param({"TINY_FILES", "DEEP", "WIDE", "HUGE"})
+    public SyntheticTree.Shape shape;
+
+    @Param({"true", "false"})
+    public boolean smallFileFastPath;
+
+    @Param({"true", "false"})
+    public boolean chunkedLargeFiles;
+
+    private Path workDir;
+    private Path source;
+    private Path destination;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+
+        public long files;
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void createTree() throws IOException {
+        workDir = Files.createTempDirectory("dosbackup-copy");
+        source = workDir.resolve("source");
+        destination = workDir.resolve("destination");
+        SyntheticTree.generate(shape, source);
+    }
+
+    @Setup(Level.Invocation)
+    public void clearDestination() throws IOException {
+        SyntheticTree.delete(destination);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteTree() throws IOException {
+        SyntheticTree.delete(workDir);
+    }
+
+    @Benchmark
+    public BackupResult copy(Counters counters) throws IOException {
+        BackupOptions options = new BackupOptions();
+        options.setBackupAllFiles(true);
+        if (!smallFileFastPath) {
+            options.setSmallFileThreshold(0);
+        }
+        if (!chunkedLargeFiles) {
+            options.setLargeFileThreshold(Long.MAX_VALUE);
+        }
+        BackupResult result = new BackupEngine(Set.of(source), destination, options).run();
+        counters.files += result.getFinalProgress().getFilesMoved();
+        counters.bytes += result.getFinalProgress().getBytesCopied();
+        return result;
+    }
+}
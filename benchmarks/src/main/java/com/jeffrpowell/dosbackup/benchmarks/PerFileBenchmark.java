@@ -0,0 +1,102 @@
+package com.jeffrpowell.dosbackup.benchmarks;
+
+import com.jeffrpowell.dosbackup.BackupOptions;
+import com.jeffrpowell.dosbackup.BackupStats;
+import com.jeffrpowell.dosbackup.FileCopier;
+import com.jeffrpowell.dosbackup.Progress;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Fixed per-file costs: one small-file copy, destination path resolution and progress bookkeeping.
+ * Run with {@code -prof gc} to see the allocation rate of each stage.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PerFileBenchmark {
+
+    @Param({"1024", "16384", "65536"})
+    public int fileSize;
+
+    @Param({"true", "false"})
+    public boolean smallFileFastPath;
+
+    private Path workDir;
+    private Path source;
+    private Path destination;
+    private FileCopier copier;
+    private BackupStats stats;
+    private Progress lastProgress;
+    private Path destinationRoot;
+    private Path destinationDir;
+    private Path deepSource;
+
+    @Setup(Level.Trial)
+    public void createFile() throws IOException {
+        workDir = Files.createTempDirectory("dosbackup-perfile");
+        source = workDir.resolve("source.dat");
+        destination = workDir.resolve("destination.dat");
+        Files.write(source, new byte[fileSize]);
+        BackupOptions options = new BackupOptions();
+        if (!smallFileFastPath) {
+            options.setSmallFileThreshold(0);
+        }
+        copier = new FileCopier(options);
+        stats = new BackupStats();
+        destinationRoot = Paths.get("/backup/destination");
+        deepSource = Paths.get("/home/user/projects/dosbackup/src/main/java/com/jeffrpowell/dosbackup/FileForkAction.java");
+        Path sourceDir = deepSource.getParent();
+        destinationDir = destinationRoot.resolve(sourceDir.subpath(0, sourceDir.getNameCount()));
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFile() throws IOException {
+        SyntheticTree.delete(workDir);
+    }
+
+    @Benchmark
+    public Path copyOneFile() throws IOException {
+        copier.copy(source, destination, fileSize);
+        return destination;
+    }
+
+    @Benchmark
+    public Path resolveDestinationByDirectory() {
+        //what FileForkAction does per file: resolve the name against its directory's destination
+        return destinationDir.resolve(deepSource.getFileName());
+    }
+
+    @Benchmark
+    public Path resolveDestinationByString() {
+        //the old makeDestinationPath, kept as a baseline
+        return Paths.get(destinationRoot.toString(), deepSource.subpath(0, deepSource.getNameCount()).toString());
+    }
+
+    @Benchmark
+    public Progress recordProgress() {
+        stats.fileMoved();
+        stats.bytesCopied(fileSize);
+        lastProgress = stats.snapshot(1, lastProgress);
+        return lastProgress;
+    }
+}
@@ -0,0 +1,89 @@
+package com.jeffrpowell.dosbackup.benchmarks;
+
+import com.jeffrpowell.dosbackup.BackupEngine;
+import com.jeffrpowell.dosbackup.BackupOptions;
+import com.jeffrpowell.dosbackup.BackupStats;
+import com.jeffrpowell.dosbackup.FileForkAction;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scan rate of {@link FileForkAction} with a no-op file action, with and without diffing against a destination
+ * copy. The "files" counter is the scan rate in files per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScanBenchmark {
+
+    @Param({"TINY_FILES", "DEEP", "WIDE"})
+    public SyntheticTree.Shape shape;
+
+    @Param({"false", "true"})
+    public boolean mirror;
+
+    private Path workDir;
+    private Path source;
+    private Path destination;
+    private ForkJoinPool pool;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+
+        public long files;
+    }
+
+    @Setup(Level.Trial)
+    public void createTree() throws IOException {
+        workDir = Files.createTempDirectory("dosbackup-scan");
+        source = workDir.resolve("source");
+        destination = workDir.resolve("destination");
+        SyntheticTree.generate(shape, source);
+        if (mirror) {
+            BackupOptions options = new BackupOptions();
+            options.setBackupAllFiles(true);
+            new BackupEngine(Set.of(source), destination, options).run();
+        }
+        pool = new ForkJoinPool();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteTree() throws IOException {
+        pool.shutdown();
+        SyntheticTree.delete(workDir);
+    }
+
+    @Benchmark
+    public long scan(Counters counters) {
+        LongAdder seen = new LongAdder();
+        Path mirrorRoot = destination.resolve(source.subpath(0, source.getNameCount()));
+        pool.invoke(new FileForkAction<Void>(source, List.of(mirrorRoot), mirror,
+            (file, attributes, target, missing, config) -> seen.increment(), null, null, null, new BackupStats(), null, null, null));
+        counters.files += seen.sum();
+        return seen.sum();
+    }
+}
@@ -0,0 +1,98 @@
+package com.jeffrpowell.dosbackup.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+
+/**
+ * Generates the source trees the benchmarks run against. Content is pseudo-random from a fixed seed so every run
+ * copies the same bytes.
+ */
+public final class SyntheticTree {
+
+    public enum Shape {
+        /** 50 directories of 200 files at 1 KiB each */
+        TINY_FILES(50, 200, 1024, 1),
+        /** A 64-level chain of directories with 10 files of 4 KiB at every level */
+        DEEP(1, 10, 4096, 64),
+        /** One directory holding 20,000 files of 512 bytes */
+        WIDE(1, 20_000, 512, 1),
+        /** One directory holding 4 files of 64 MiB */
+        HUGE(1, 4, 64 * 1024 * 1024, 1);
+
+        private final int directories;
+        private final int filesPerDirectory;
+        private final int fileSize;
+        private final int depth;
+
+        private Shape(int directories, int filesPerDirectory, int fileSize, int depth) {
+            this.directories = directories;
+            this.filesPerDirectory = filesPerDirectory;
+            this.fileSize = fileSize;
+            this.depth = depth;
+        }
+
+        public long getFileCount() {
+            return (long) directories * filesPerDirectory * depth;
+        }
+
+        public long getByteCount() {
+            return getFileCount() * fileSize;
+        }
+    }
+
+    private SyntheticTree() {
+    }
+
+    public static void generate(Shape shape, Path root) throws IOException {
+        Random random = new Random(42);
+        byte[] block = new byte[1 << 16];
+        random.nextBytes(block);
+        for (int d = 0; d < shape.directories; d++) {
+            Path dir = root.resolve("dir" + d);
+            for (int level = 0; level < shape.depth; level++) {
+                Files.createDirectories(dir);
+                for (int f = 0; f < shape.filesPerDirectory; f++) {
+                    writeFile(dir.resolve("file" + f + ".dat"), shape.fileSize, block, random.nextInt(block.length));
+                }
+                dir = dir.resolve("level" + level);
+            }
+        }
+    }
+
+    private static void writeFile(Path file, long size, byte[] block, int offset) throws IOException {
+        try ( OutputStream out = Files.newOutputStream(file)) {
+            long remaining = size;
+            while (remaining > 0) {
+                int length = (int) Math.min(remaining, block.length - offset);
+                out.write(block, offset, length);
+                remaining -= length;
+                offset = 0;
+            }
+        }
+    }
+
+    public static void delete(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
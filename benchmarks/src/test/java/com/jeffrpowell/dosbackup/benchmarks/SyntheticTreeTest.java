@@ -0,0 +1,64 @@
+package com.jeffrpowell.dosbackup.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SyntheticTreeTest {
+
+    @TempDir
+    Path root;
+
+    @Test
+    public void generatesTheShapeItDescribes() throws IOException {
+        for (SyntheticTree.Shape shape : new SyntheticTree.Shape[]{SyntheticTree.Shape.TINY_FILES, SyntheticTree.Shape.DEEP}) {
+            Path tree = root.resolve(shape.name());
+
+            SyntheticTree.generate(shape, tree);
+
+            List<Path> files = files(tree);
+            assertEquals(shape.getFileCount(), files.size(), shape.name());
+            long bytes = 0;
+            for (Path file : files) {
+                bytes += Files.size(file);
+            }
+            assertEquals(shape.getByteCount(), bytes, shape.name());
+        }
+    }
+
+    @Test
+    public void generatesTheSameBytesEveryTime() throws IOException {
+        SyntheticTree.generate(SyntheticTree.Shape.DEEP, root.resolve("one"));
+        SyntheticTree.generate(SyntheticTree.Shape.DEEP, root.resolve("two"));
+
+        for (Path file : files(root.resolve("one"))) {
+            Path twin = root.resolve("two").resolve(root.resolve("one").relativize(file));
+            assertArrayEquals(Files.readAllBytes(file), Files.readAllBytes(twin));
+        }
+    }
+
+    @Test
+    public void deletesTheWholeTree() throws IOException {
+        Path tree = root.resolve("tree");
+        SyntheticTree.generate(SyntheticTree.Shape.DEEP, tree);
+
+        SyntheticTree.delete(tree);
+        SyntheticTree.delete(tree);
+
+        assertFalse(Files.exists(tree));
+    }
+
+    static List<Path> files(Path tree) throws IOException {
+        try ( Stream<Path> walk = Files.walk(tree)) {
+            return walk.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
+
+/**
+ * The original DOS behavior: copy anything with the archive bit set and clear it afterwards.
+ * Only works on file systems that expose the "dos" attribute view.
+ */
+public class ArchiveBitChangeDetector implements ChangeDetector {
+
+    @Override
+    public Class<? extends BasicFileAttributes> getAttributeType() {
+        return DosFileAttributes.class;
+    }
+
+    @Override
+    public boolean needsCopy(Path source, BasicFileAttributes attributes) {
+        return ((DosFileAttributes) attributes).isArchive();
+    }
+
+    @Override
+    public void copied(Path source, BasicFileAttributes attributes) throws IOException {
+        if (((DosFileAttributes) attributes).isArchive()) {
+            Files.setAttribute(source, "dos:archive", false);
+        }
+    }
+
+    @Override
+    public boolean isRecordedOnSource() {
+        return true;
+    }
+}
@@ -0,0 +1,446 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Command-line entry point for headless machines and scheduled jobs. Deliberately references nothing from
+ * Swing or AWT so the JVM never initializes a toolkit.
+ */
+public class BackupCli {
+
+    private static final int EXIT_OK = 0;
+    private static final int EXIT_FAILURES = 1;
+    private static final int EXIT_USAGE = 2;
+    //how long Ctrl+C waits for a cancelled run to save its state and close its journal
+    private static final long SHUTDOWN_GRACE_SECONDS = 30;
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    public static int run(String[] args, PrintStream out, PrintStream err) {
+        BackupOptions options = new BackupOptions();
+        Set<Path> sources = new LinkedHashSet<>();
+        List<String> includes = new ArrayList<>();
+        List<String> excludes = new ArrayList<>();
+        List<Path> destinations = new ArrayList<>();
+        Path restoreTarget = null;
+        long progressSeconds = 0;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                switch (arg) {
+                    case "-d":
+                    case "--destination":
+                        Path destination = Paths.get(value(args, ++i, arg)).toAbsolutePath().normalize();
+                        if (!destinations.contains(destination)) {
+                            destinations.add(destination);
+                        }
+                        break;
+                    case "--all":
+                        options.setBackupAllFiles(true);
+                        break;
+                    case "--compress":
+                        options.setCompressDestination(true);
+                        break;
+                    case "--compress-block-size":
+                        options.setCompressionBlockSize((int) Math.min(Integer.MAX_VALUE, parseBytes(value(args, ++i, arg))));
+                        break;
+                    case "--restore":
+                        restoreTarget = Paths.get(value(args, ++i, arg)).toAbsolutePath().normalize();
+                        break;
+                    case "--checksum":
+                        options.setChecksumCopies(true);
+                        break;
+                    case "--verify":
+                        options.setVerifyCopies(true);
+                        break;
+                    case "--resume":
+                        options.setResume(true);
+                        break;
+                    case "--include":
+                        includes.add(value(args, ++i, arg));
+                        break;
+                    case "--exclude":
+                        excludes.add(value(args, ++i, arg));
+                        break;
+                    case "--mirror":
+                        options.setDeleteDestinationFiles(true);
+                        break;
+                    case "--detect":
+                        options.setChangeDetection(parseChangeDetection(value(args, ++i, arg)));
+                        break;
+                    case "--small-threshold":
+                        options.setSmallFileThreshold((int) parseBytes(value(args, ++i, arg)));
+                        break;
+                    case "--large-threshold":
+                        options.setLargeFileThreshold(parseBytes(value(args, ++i, arg)));
+                        break;
+                    case "--chunk-size":
+                        options.setLargeFileChunkSize(parseBytes(value(args, ++i, arg)));
+                        break;
+                    case "--delta":
+                        options.setDeltaThreshold(parseBytes(value(args, ++i, arg)));
+                        break;
+                    case "--delta-block-size":
+                        options.setDeltaBlockSize((int) Math.min(Integer.MAX_VALUE, parseBytes(value(args, ++i, arg))));
+                        break;
+                    case "--scan-threads":
+                        options.setScanParallelism(Integer.parseInt(value(args, ++i, arg)));
+                        break;
+                    case "--copy-threads":
+                        options.setCopyParallelism(Integer.parseInt(value(args, ++i, arg)));
+                        break;
+                    case "--device-concurrency":
+                        options.setPerDeviceConcurrency(Integer.parseInt(value(args, ++i, arg)));
+                        break;
+                    case "--virtual-threads":
+                        options.setExecutionMode(ExecutionMode.VIRTUAL_THREADS);
+                        break;
+                    case "--io-concurrency":
+                        options.setIoConcurrency(Integer.parseInt(value(args, ++i, arg)));
+                        break;
+                    case "--queue-capacity":
+                        options.setCopyQueueCapacity(Integer.parseInt(value(args, ++i, arg)));
+                        break;
+                    case "--max-rate":
+                        options.setMaxBytesPerSecond(parseBytes(value(args, ++i, arg)));
+                        break;
+                    case "--max-ops":
+                        options.setMaxOperationsPerSecond(Long.parseLong(value(args, ++i, arg)));
+                        break;
+                    case "--report":
+                        options.setReportFile(Paths.get(value(args, ++i, arg)).toAbsolutePath());
+                        break;
+                    case "--watch":
+                        options.setWatch(true);
+                        break;
+                    case "--watch-settle":
+                        options.setWatchSettleMillis(Long.parseLong(value(args, ++i, arg)));
+                        break;
+                    case "--progress":
+                        progressSeconds = Long.parseLong(value(args, ++i, arg));
+                        break;
+                    case "-h":
+                    case "--help":
+                        usage(out);
+                        return EXIT_OK;
+                    default:
+                        if (arg.startsWith("-")) {
+                            throw new IllegalArgumentException("Unknown option " + arg);
+                        }
+                        sources.add(Paths.get(arg).toAbsolutePath().normalize());
+                }
+            }
+            options.setPathRules(includes, excludes);
+            if (restoreTarget != null && !sources.isEmpty()) {
+                return restore(sources, restoreTarget, out, err);
+            }
+            if (destinations.isEmpty() || sources.isEmpty()) {
+                throw new IllegalArgumentException("A destination and at least one source are required");
+            }
+        } catch (IllegalArgumentException ex) {
+            err.println(ex.getMessage());
+            usage(err);
+            return EXIT_USAGE;
+        }
+
+        for (Path destination : destinations) {
+            if (!options.isResume() && CheckpointJournal.exists(destination)) {
+                err.println("An earlier run to " + destination + " didn't finish; starting over. Pass --resume to skip the work it already did.");
+            }
+        }
+        ContinuousBackup continuous = options.isWatch() ? new ContinuousBackup(sources, destinations, options) : null;
+        BackupEngine engine = continuous == null ? new BackupEngine(sources, destinations, options) : null;
+        Supplier<BackupEngine> running = continuous == null ? () -> engine : continuous::getCurrentEngine;
+        ScheduledExecutorService progressReporter = null;
+        if (progressSeconds > 0) {
+            progressReporter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "backup-progress");
+                t.setDaemon(true);
+                return t;
+            });
+            Progress[] last = new Progress[1];
+            BackupEngine[] sampled = new BackupEngine[1];
+            progressReporter.scheduleAtFixedRate(() -> {
+                BackupEngine current = running.get();
+                //each run in watch mode counts from zero
+                last[0] = current.getProgress(current == sampled[0] ? last[0] : null);
+                sampled[0] = current;
+                err.println(describe(last[0]));
+            }, progressSeconds, progressSeconds, TimeUnit.SECONDS);
+        }
+        listenForLimits(continuous == null ? engine.getThrottle() : continuous.getThrottle(), System.in, err);
+        //the JVM exits as soon as the hook returns, so it waits for the run to wind down instead of just asking it to
+        CountDownLatch finished = new CountDownLatch(1);
+        Thread shutdownHook = new Thread(() -> {
+            if (continuous == null) {
+                engine.cancel();
+            } else {
+                continuous.cancel();
+            }
+            try {
+                finished.await(SHUTDOWN_GRACE_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        try {
+            if (continuous != null) {
+                err.println("Watching " + sources.size() + " sources for changes; stop with Ctrl+C");
+                continuous.run(result -> printResult(result, out));
+                return EXIT_OK;
+            }
+            return printResult(engine.run(), out) ? EXIT_FAILURES : EXIT_OK;
+        } catch (IOException ex) {
+            ex.printStackTrace(err);
+            return EXIT_FAILURES;
+        } finally {
+            finished.countDown();
+            if (progressReporter != null) {
+                progressReporter.shutdownNow();
+            }
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException ex) {
+                //already shutting down, and the hook is on its way out now that the run is finished
+            }
+        }
+    }
+
+    /**
+     * @return true if anything failed
+     */
+    private static boolean printResult(BackupResult result, PrintStream out) {
+        out.println(describe(result.getFinalProgress()));
+        out.println(result.getCopySummary());
+        out.println(result.getStatSummary());
+        if (result.getVerifySummary() != null) {
+            out.println(result.getVerifySummary());
+        }
+        if (result.getExcludedSummary() != null) {
+            out.println(result.getExcludedSummary());
+        }
+        if (result.getResumeSummary() != null) {
+            out.println(result.getResumeSummary());
+        }
+        out.println(TimeUnit.NANOSECONDS.toSeconds(result.getElapsedNanos()) + " seconds elapsed");
+        out.println("Report written to " + result.getReportFile());
+        if (result.getFailureCount() > 0) {
+            out.println("These files failed to copy over:");
+            result.getFailedPaths().forEach(out::println);
+            if (result.getFailureCount() > result.getFailedPaths().size()) {
+                out.println("...and " + (result.getFailureCount() - result.getFailedPaths().size()) + " more; see the report");
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Copies each source tree into target, expanding files written with --compress on the way.
+     */
+    private static int restore(Set<Path> sources, Path target, PrintStream out, PrintStream err) {
+        int failures = 0;
+        long restored = 0;
+        for (Path source : sources) {
+            Path base = Files.isDirectory(source) ? source : source.getParent();
+            CompressionManifest compressed;
+            List<Path> files;
+            try ( Stream<Path> walk = Files.walk(source)) {
+                compressed = CompressionManifest.find(source);
+                files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+            } catch (IOException ex) {
+                ex.printStackTrace(err);
+                failures++;
+                continue;
+            }
+            for (Path file : files) {
+                if (isBackupMetadata(base.relativize(file))) {
+                    //state, journal, trash and temp files belong to the backup, not to what was backed up
+                    continue;
+                }
+                Path restoredFile = target.resolve(base.getFileName() == null ? "" : base.getFileName().toString()).resolve(base.relativize(file).toString());
+                try {
+                    Files.createDirectories(restoredFile.getParent());
+                    if (compressed != null && compressed.isCompressed(file)) {
+                        BlockCompressor.decompress(file, restoredFile, null);
+                    } else {
+                        Files.copy(file, restoredFile, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    restored++;
+                } catch (IOException ex) {
+                    err.println("Exception occurred while restoring " + file);
+                    ex.printStackTrace(err);
+                    failures++;
+                }
+            }
+        }
+        out.println(restored + " files restored to " + target);
+        return failures == 0 ? EXIT_OK : EXIT_FAILURES;
+    }
+
+    /**
+     * Reads "rate SIZE" and "ops N" lines from in while the backup runs, so the limits can be changed without
+     * restarting. Stops quietly at end of input, which is straight away for a scheduled job.
+     */
+    private static void listenForLimits(Throttle throttle, InputStream in, PrintStream err) {
+        Thread listener = new Thread(() -> {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] words = line.trim().split("\\s+");
+                    try {
+                        if (words.length == 2 && words[0].equals("rate")) {
+                            throttle.setBytesPerSecond(parseBytes(words[1]));
+                            err.println("Limited to " + throttle.getBytesPerSecond() + " bytes/s");
+                        } else if (words.length == 2 && words[0].equals("ops")) {
+                            throttle.setOperationsPerSecond(Long.parseLong(words[1]));
+                            err.println("Limited to " + throttle.getOperationsPerSecond() + " files/s");
+                        } else if (!line.isBlank()) {
+                            err.println("Expected \"rate SIZE\" or \"ops N\"; 0 removes the limit");
+                        }
+                    } catch (IllegalArgumentException ex) {
+                        err.println(ex.getMessage());
+                    }
+                }
+            } catch (IOException ex) {
+                //no usable input; the limits stay as they are
+            }
+        }, "backup-limits");
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+    private static boolean isBackupMetadata(Path relative) {
+        for (Path name : relative) {
+            if (name.toString().startsWith(".dosbackup-")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String describe(Progress progress) {
+        StringBuilder description = new StringBuilder(String.format("%d of %d files moved, %d folders left, %d of %d bytes copied (%d bytes/s)",
+            progress.getFilesMoved(), progress.getFilesFound(), progress.getDirectoriesLeft(),
+            progress.getBytesCopied(), progress.getBytesFound(), progress.getBytesPerSecond()));
+        if (progress.getDestinationCount() > 1) {
+            for (int i = 0; i < progress.getDestinationCount(); i++) {
+                description.append(String.format("; destination %d: %d bytes (%d bytes/s)",
+                    i + 1, progress.getDestinationBytesCopied(i), progress.getDestinationBytesPerSecond(i)));
+            }
+        }
+        return description.toString();
+    }
+
+    private static String value(String[] args, int i, String option) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException(option + " needs a value");
+        }
+        return args[i];
+    }
+
+    private static ChangeDetection parseChangeDetection(String value) {
+        switch (value) {
+            case "size":
+                return ChangeDetection.SIZE_AND_MODIFIED_TIME;
+            case "hash":
+                return ChangeDetection.CONTENT_HASH;
+            case "archive":
+                return ChangeDetection.ARCHIVE_BIT;
+            default:
+                throw new IllegalArgumentException("--detect must be one of size, hash, archive");
+        }
+    }
+
+    /**
+     * Accepts plain byte counts or a K, M or G suffix (powers of 1024).
+     *
+     * @throws NumberFormatException for anything else, including negative sizes and sizes too big for a long
+     */
+    static long parseBytes(String value) {
+        String upper = value.trim().toUpperCase();
+        long multiplier = 1;
+        if (upper.endsWith("K")) {
+            multiplier = 1024L;
+        } else if (upper.endsWith("M")) {
+            multiplier = 1024L * 1024;
+        } else if (upper.endsWith("G")) {
+            multiplier = 1024L * 1024 * 1024;
+        }
+        if (multiplier != 1) {
+            upper = upper.substring(0, upper.length() - 1);
+        }
+        long count = Long.parseLong(upper);
+        if (count < 0) {
+            throw new NumberFormatException("Sizes can't be negative: " + value);
+        }
+        try {
+            return Math.multiplyExact(count, multiplier);
+        } catch (ArithmeticException ex) {
+            throw new NumberFormatException("Size too big: " + value);
+        }
+    }
+
+    private static void usage(PrintStream out) {
+        out.println("Usage: java -cp DosBackup.jar com.jeffrpowell.dosbackup.BackupCli -d DESTINATION [options] SOURCE...");
+        out.println("   or: java -cp DosBackup.jar com.jeffrpowell.dosbackup.BackupCli --restore TARGET BACKUP...");
+        out.println("  -d DESTINATION         repeatable; each source file is read once and written to every destination");
+        out.println("  --all                  copy every file, changed or not");
+        out.println("  --mirror               delete destination files that are missing from the sources");
+        out.println("  --exclude PATTERN      skip files and directories matching PATTERN; repeatable");
+        out.println("  --include PATTERN      only back up files matching PATTERN (directories are still searched); repeatable");
+        out.println("                         patterns are globs (or regex:...) matched against the name, or against the");
+        out.println("                         whole path if they contain '/'; a trailing '/' matches directories only");
+        out.println("  --detect size|hash|archive");
+        out.println("                         how changed files are detected (default size)");
+        out.println("  --small-threshold N    files up to N bytes use the buffered fast path; 0 disables it");
+        out.println("  --large-threshold N    files of at least N bytes are copied in parallel chunks");
+        out.println("  --chunk-size N         chunk size for large files");
+        out.println("  --delta SIZE           files of at least SIZE already at the destination are updated in place,");
+        out.println("                         rewriting only the blocks that changed (default off)");
+        out.println("  --delta-block-size SIZE  smallest unit a delta update rewrites (default 64K)");
+        out.println("  --scan-threads N       threads listing directories (default: one per CPU)");
+        out.println("  --copy-threads N       threads copying files (default: one per CPU)");
+        out.println("  --device-concurrency N most copies reading or writing one device at once (default: no limit)");
+        out.println("  --virtual-threads      run every directory and copy on its own virtual thread (Java 21+)");
+        out.println("  --io-concurrency N     most listings and copies in flight with --virtual-threads (default 256)");
+        out.println("  --queue-capacity N     files the scan may get ahead of the copies (default 50000)");
+        out.println("  --compress             write destination files as blocks compressed in parallel (not with --checksum)");
+        out.println("  --compress-block-size SIZE  bytes per compressed block (default 1M)");
+        out.println("  --restore TARGET       copy the given backup trees into TARGET, expanding compressed files");
+        out.println("  --checksum             hash files while copying them and keep the checksums in the destination");
+        out.println("  --verify               --checksum, then re-read every copied file and compare");
+        out.println("  --resume               skip what an interrupted run to the same destination already finished");
+        out.println("  --max-rate SIZE        copy at most SIZE bytes per second (default no limit)");
+        out.println("  --max-ops N            copy or delete at most N files per second (default no limit)");
+        out.println("                         while running, type \"rate SIZE\" or \"ops N\" to change a limit");
+        out.println("  --watch                after the first backup, keep backing up directories as they change");
+        out.println("  --watch-settle MILLIS  how long the sources must be quiet before changes are backed up (default 2000)");
+        out.println("  --report FILE          write the NDJSON run report here (default first DESTINATION/.dosbackup-report-<date>.ndjson)");
+        out.println("  --progress SECONDS     print progress to stderr at this interval");
+        out.println("Sizes accept a K, M or G suffix.");
+    }
+}
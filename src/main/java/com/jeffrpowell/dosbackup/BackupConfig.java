@@ -1,41 +1,104 @@
 package com.jeffrpowell.dosbackup;
 
 import java.nio.file.Path;
-import java.util.HashSet;
-import java.util.Set;
 
+/**
+ * Everything one destination of a run needs. A run to several destinations has one of these for each, sharing the
+ * one {@link FileCopier} that reads each source file once for all of them.
+ */
 public class BackupConfig {
-    private final WorkerThread parentThread;
+    private final BackupEngine engine;
+    private final int index;
     private final Path destinationRoot;
-    private final boolean backupAllFiles;
-    private final boolean deleteDestinationFiles;
-    private final Set<Path> expectedDestinationFiles; //used to compare against destination files to see if any should be deleted from the destination
+    private final BackupOptions options;
+    private final ChangeDetector changeDetector;
+    private final BackupState state;
+    private final CheckpointJournal journal;
+    private final ChecksumManifest checksums;
+    private final CompressionManifest compressed;
+    private final FileCopier fileCopier;
+    private final DirectoryCreator directoryCreator;
+    private final TrashCollector trash;
+    private final IoScheduler.Device device;
 
-    public BackupConfig(WorkerThread parentThread, Path destinationRoot, boolean backupAllFiles, boolean deleteDestinationFiles) {
-        this.parentThread = parentThread;
+    /**
+     * @param index where the destination is in the run's list of destinations
+     * @param state null unless the change detection is stateful
+     * @param checksums null unless copies are checksummed
+     */
+    public BackupConfig(BackupEngine engine, int index, Path destinationRoot, BackupOptions options, ChangeDetector changeDetector, BackupState state, CheckpointJournal journal, ChecksumManifest checksums, CompressionManifest compressed, FileCopier fileCopier, TrashCollector trash, IoScheduler.Device device) {
+        this.engine = engine;
+        this.index = index;
         this.destinationRoot = destinationRoot;
-        this.backupAllFiles = backupAllFiles;
-        this.deleteDestinationFiles = deleteDestinationFiles;
-        this.expectedDestinationFiles = new HashSet<>();
+        this.options = options;
+        this.changeDetector = changeDetector;
+        this.state = state;
+        this.journal = journal;
+        this.checksums = checksums;
+        this.compressed = compressed;
+        this.fileCopier = fileCopier;
+        this.directoryCreator = new DirectoryCreator(engine.getStats());
+        this.trash = trash;
+        this.device = device;
     }
 
-    public WorkerThread getParentThread() {
-        return parentThread;
+    public BackupEngine getEngine() {
+        return engine;
+    }
+
+    public int getIndex() {
+        return index;
     }
 
     public Path getDestinationRoot() {
         return destinationRoot;
     }
 
+    public BackupOptions getOptions() {
+        return options;
+    }
+
     public boolean isBackupAllFiles() {
-        return backupAllFiles;
+        return options.isBackupAllFiles();
     }
 
     public boolean isDeleteDestinationFiles() {
-        return deleteDestinationFiles;
+        return options.isDeleteDestinationFiles();
+    }
+
+    public ChangeDetector getChangeDetector() {
+        return changeDetector;
+    }
+
+    public BackupState getState() {
+        return state;
+    }
+
+    public CheckpointJournal getJournal() {
+        return journal;
+    }
+
+    public ChecksumManifest getChecksums() {
+        return checksums;
+    }
+
+    public CompressionManifest getCompressed() {
+        return compressed;
+    }
+
+    public FileCopier getFileCopier() {
+        return fileCopier;
+    }
+
+    public DirectoryCreator getDirectoryCreator() {
+        return directoryCreator;
+    }
+
+    public TrashCollector getTrash() {
+        return trash;
     }
 
-    public Set<Path> getExpectedDestinationFiles() {
-        return expectedDestinationFiles;
+    public IoScheduler.Device getDevice() {
+        return device;
     }
 }
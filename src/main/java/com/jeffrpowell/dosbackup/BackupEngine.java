@@ -0,0 +1,578 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+/**
+ * Runs one backup from start to finish on the calling thread. Has no UI dependencies, so it can be driven
+ * by {@link WorkerThread} for the GUI or by {@link BackupCli} on a headless machine.
+ * <p>
+ * A run can go to several destinations at once. Each source file is read once and written to every destination
+ * that needs it, and a destination that fails doesn't hold up the others. When mirroring, each source directory is
+ * listed once and diffed against its counterpart in every destination. The first destination holds the run report.
+ */
+public class BackupEngine {
+
+    private final Set<Path> paths;
+    private final Set<Path> shallowPaths;
+    private final boolean partial;
+    private final List<Path> destinations;
+    private final BackupOptions options;
+    private final IoScheduler scheduler;
+    private final BackupStats stats;
+    private final Throttle throttle;
+    private final List<TrashCollector> trash;
+    private volatile List<BackupConfig> configs;
+    private volatile RunReport report;
+    private volatile boolean cancelled;
+
+    public BackupEngine(Set<Path> paths, Path destination, BackupOptions options) {
+        this(paths, destination, options, new Throttle(options));
+    }
+
+    public BackupEngine(Set<Path> paths, List<Path> destinations, BackupOptions options) {
+        this(paths, destinations, options, new Throttle(options));
+    }
+
+    /**
+     * @param throttle shared with other engines, so limits changed during one run carry over to the next
+     */
+    public BackupEngine(Set<Path> paths, Path destination, BackupOptions options, Throttle throttle) {
+        this(paths, Collections.singletonList(destination), options, throttle);
+    }
+
+    /**
+     * @param destinations the first one is diffed against and holds the run report
+     */
+    public BackupEngine(Set<Path> paths, List<Path> destinations, BackupOptions options, Throttle throttle) {
+        this(paths, Collections.emptySet(), false, destinations, options, throttle);
+    }
+
+    private BackupEngine(Set<Path> paths, Set<Path> shallowPaths, boolean partial, List<Path> destinations, BackupOptions options, Throttle throttle) {
+        if (destinations.size() > DirectoryDiff.MAX_DESTINATIONS) {
+            throw new IllegalArgumentException("A run can go to at most " + DirectoryDiff.MAX_DESTINATIONS + " destinations");
+        }
+        this.paths = paths;
+        this.shallowPaths = shallowPaths;
+        this.partial = partial;
+        this.destinations = destinations;
+        this.options = options;
+        this.scheduler = new IoScheduler(options);
+        this.stats = new BackupStats(destinations.size());
+        this.throttle = throttle;
+        this.trash = new ArrayList<>(destinations.size());
+        for (Path destination : destinations) {
+            trash.add(new TrashCollector(destination, throttle));
+        }
+        this.configs = Collections.emptyList();
+    }
+
+    /**
+     * Backs up only some directories of the sources, as {@link ContinuousBackup} does for each batch of changes.
+     * Nothing outside them is looked at, and the saved state keeps what it knew about everything else.
+     *
+     * @param paths scanned with everything under them
+     * @param shallowPaths scanned without descending into their subdirectories
+     */
+    public static BackupEngine incremental(Set<Path> paths, Set<Path> shallowPaths, Path destination, BackupOptions options, Throttle throttle) {
+        return incremental(paths, shallowPaths, Collections.singletonList(destination), options, throttle);
+    }
+
+    public static BackupEngine incremental(Set<Path> paths, Set<Path> shallowPaths, List<Path> destinations, BackupOptions options, Throttle throttle) {
+        return new BackupEngine(paths, shallowPaths, true, destinations, options, throttle);
+    }
+
+    public BackupResult run() throws IOException {
+        List<Path> scanned = new ArrayList<>(paths);
+        scanned.addAll(shallowPaths);
+        Progress start = stats.snapshot(getRootCount(), null);
+        Path destination = destinations.get(0);
+        FileCopier fileCopier = new FileCopier(options, scheduler, throttle);
+        List<BackupConfig> opened = new ArrayList<>(destinations.size());
+        //the first destination has to open; it holds the report any other destination's problems go into
+        opened.add(openDestination(0, fileCopier));
+        CopyVerifier verifier = options.isVerifyCopies() ? new CopyVerifier(scheduler, throttle) : null;
+        Path reportFile = options.getReportFile() != null ? options.getReportFile() : destination.resolve(RunReport.FILE_PREFIX + LocalDate.now() + ".ndjson");
+        report = RunReport.open(reportFile, scanned, destination);
+        for (int i = 1; i < destinations.size(); i++) {
+            try {
+                opened.add(openDestination(i, fileCopier));
+            } catch (IOException ex) {
+                logException(destinations.get(i), "Exception occurred while opening destination " + destinations.get(i) + "; nothing will be copied to it", ex);
+            }
+        }
+        configs = opened;
+        BackupConfig primary = opened.get(0);
+        BackupMonitor monitor = new BackupMonitor(this);
+        monitor.register(destination);
+        try {
+            for (BackupConfig config : opened) {
+                config.getTrash().reclaimLeftovers();
+            }
+            List<IoScheduler.Device> destinationDevices = new ArrayList<>(opened.size());
+            for (BackupConfig config : opened) {
+                destinationDevices.add(config.getDevice());
+            }
+            FileForkAction.Checkpoint journals = opened.size() == 1 ? primary.getJournal() : new JournalsCheckpoint(opened);
+            List<Future<?>> roots = new ArrayList<>();
+            for (Path path : scanned) {
+                if (cancelled) {
+                    break;
+                }
+                IoScheduler.Device sourceDevice;
+                try {
+                    sourceDevice = scheduler.deviceOf(path);
+                } catch (IOException ex) {
+                    logException(path, "Exception occurred while looking up the device for " + path, ex);
+                    continue;
+                }
+                if (journals.isDirectoryDone(path)) {
+                    continue;
+                }
+                FileForkAction.FileAction<BackupConfig> copy = (file, attributes, destinationChild, missing, c)
+                    -> scheduler.copy(sourceDevice, destinationDevices, () -> copyFile(file, attributes, destinationChild, missing, c));
+                FileForkAction.StaleAction<BackupConfig> delete = (stale, destinationIndex, c) -> deleteStale(stale, opened.get(destinationIndex));
+                List<Path> destinationDirs = new ArrayList<>(opened.size());
+                for (BackupConfig config : opened) {
+                    destinationDirs.add(makeDestinationPath(config.getDestinationRoot(), path));
+                }
+                FileForkAction.Checkpoint checkpoint = shallowPaths.contains(path) ? new ShallowCheckpoint(path, journals) : journals;
+                //every source root is scanned at once; the scan pool decides how many directories are listed in parallel
+                roots.add(scheduler.scan(new FileForkAction<>(path, destinationDirs, options.isDeleteDestinationFiles(), copy, delete, primary, this::logException, stats, scheduler, checkpoint, options.getPathFilter())));
+            }
+            for (Future<?> root : roots) {
+                scheduler.await(root);
+            }
+            scheduler.awaitCopies();
+            if (verifier != null && !cancelled) {
+                verify(opened, verifier);
+            }
+            if (!cancelled) {
+                for (BackupConfig config : opened) {
+                    config.getTrash().awaitReclaimed();
+                }
+            }
+        } finally {
+            monitor.unregister();
+            scheduler.shutdown();
+            for (TrashCollector collector : trash) {
+                collector.shutdownNow();
+            }
+            IOException primaryFailure = null;
+            for (BackupConfig config : opened) {
+                try {
+                    close(config);
+                } catch (IOException ex) {
+                    if (config != primary) {
+                        logException(config.getDestinationRoot(), "Exception occurred while saving the state of destination " + config.getDestinationRoot(), ex);
+                    } else {
+                        primaryFailure = ex;
+                    }
+                }
+            }
+            report.close();
+            if (primaryFailure != null) {
+                throw primaryFailure;
+            }
+        }
+        //measured against the starting snapshot, the final throughput is the run's average
+        Progress finish = getProgress(start);
+        return new BackupResult(cancelled, report.getFailureCount(), report.getFailedPaths(), reportFile, finish, finish.getTimestamp() - start.getTimestamp(), fileCopier.summary(), stats.getStatCalls(),
+            verifier == null || cancelled ? null : verifier.summary(), excludedSummary(), resumeSummary(opened));
+    }
+
+    private static String resumeSummary(List<BackupConfig> opened) {
+        StringBuilder summary = new StringBuilder();
+        for (BackupConfig config : opened) {
+            String resumed = config.getJournal().resumeSummary();
+            if (resumed == null) {
+                continue;
+            }
+            if (summary.length() > 0) {
+                summary.append(System.lineSeparator());
+            }
+            if (opened.size() > 1) {
+                summary.append(config.getDestinationRoot()).append(": ");
+            }
+            summary.append(resumed);
+        }
+        return summary.length() == 0 ? null : summary.toString();
+    }
+
+    private BackupConfig openDestination(int index, FileCopier fileCopier) throws IOException {
+        Path destination = destinations.get(index);
+        ChangeDetection changeDetection = options.getChangeDetection();
+        BackupState state = null;
+        if (changeDetection.isStateful()) {
+            state = BackupState.load(destination);
+        }
+        CheckpointJournal journal = CheckpointJournal.open(destination, options.isResume());
+        try {
+            ChecksumManifest checksums = options.isChecksumCopies() ? ChecksumManifest.load(destination) : null;
+            CompressionManifest compressed = CompressionManifest.load(destination);
+            return new BackupConfig(this, index, destination, options, changeDetection.create(state), state, journal, checksums, compressed, fileCopier, trash.get(index), scheduler.deviceOf(destination));
+        } catch (IOException ex) {
+            journal.close(false);
+            throw ex;
+        }
+    }
+
+    /**
+     * Saves what one destination learned. A destination that fails to save doesn't stop the others from saving.
+     */
+    private void close(BackupConfig config) throws IOException {
+        try {
+            if (config.getState() != null) {
+                config.getJournal().carryOverSkipped(config.getState());
+                config.getState().save(!cancelled && !partial);
+            }
+            if (config.getChecksums() != null) {
+                config.getChecksums().save();
+            }
+            config.getCompressed().save();
+        } finally {
+            config.getJournal().close(!cancelled);
+        }
+    }
+
+    private String excludedSummary() {
+        if (options.getPathFilter().isEmpty()) {
+            return null;
+        }
+        return String.format("%d files and %d directories excluded by the include/exclude rules", stats.getFilesExcluded(), stats.getDirectoriesExcluded());
+    }
+
+    /**
+     * Stops handing out new work; files already being copied are allowed to finish.
+     */
+    public void cancel() {
+        cancelled = true;
+        scheduler.shutdownNow();
+        for (TrashCollector collector : trash) {
+            collector.shutdownNow();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public int getRootCount() {
+        return paths.size() + shallowPaths.size();
+    }
+
+    public Progress getProgress(Progress previous) {
+        return stats.snapshot(getRootCount(), previous);
+    }
+
+    /**
+     * Limits can be changed on this while the run is going.
+     */
+    public Throttle getThrottle() {
+        return throttle;
+    }
+
+    public BackupStats getStats() {
+        return stats;
+    }
+
+    public int getQueuedCopies() {
+        return scheduler.getQueuedCopies();
+    }
+
+    public long getFailureCount() {
+        RunReport current = report;
+        return current == null ? 0 : current.getFailureCount();
+    }
+
+    /**
+     * @return null until the run has started
+     */
+    public Path getReportFile() {
+        RunReport current = report;
+        return current == null ? null : current.getReportFile();
+    }
+
+    private void logException(Path p, Exception e) {
+        logException(p, "Exception occurred while performing an action on " + p, e);
+    }
+
+    private void logException(Path p, String message, Exception e) {
+        logFailure(p, message + ": " + e);
+        e.printStackTrace(System.err);
+    }
+
+    /**
+     * For a failure without an exception behind it, which goes to stderr and the report all the same.
+     */
+    private void logFailure(Path p, String message) {
+        System.err.println(message);
+        report.failed(p, message);
+    }
+
+    /**
+     * @param missing one bit for each of the run's open destinations, in order, that has nothing in the file's place
+     */
+    private void copyFile(Path file, BasicFileAttributes listed, Path destinationChild, long missing, BackupConfig primary) {
+        if (cancelled) {
+            return;
+        }
+        BackupEvents.FileCopied event = new BackupEvents.FileCopied();
+        event.begin();
+        long started = System.nanoTime();
+        Path relative = primary.getDestinationRoot().relativize(destinationChild);
+        List<BackupConfig> current = configs;
+        List<BackupConfig> changed = new ArrayList<>(current.size());
+        List<BackupConfig> unchanged = new ArrayList<>(current.size());
+        BasicFileAttributes attr = listed;
+        boolean resumed = true;
+        int failed = 0;
+        for (int i = 0; i < current.size(); i++) {
+            BackupConfig config = current.get(i);
+            try {
+                CheckpointJournal journal = config.getJournal();
+                if (journal.isFileDone(file, listed)) {
+                    if (config.getState() != null) {
+                        config.getState().carryOver(file, listed);
+                    }
+                    journal.fileSkipped(file);
+                    continue;
+                }
+                resumed = false;
+                ChangeDetector detector = config.getChangeDetector();
+                if (!detector.getAttributeType().isInstance(attr)) {
+                    //the listing only had basic attributes (DOS attributes come with it on Windows, but not elsewhere);
+                    //links are followed, since what's backed up is the file a link points to
+                    attr = Files.readAttributes(file, detector.getAttributeType());
+                    stats.statCalls(1);
+                }
+                boolean missingFromDestination = (missing & (1L << i)) != 0;
+                //a copy the interrupted run never finished may have left a partial file behind
+                boolean interrupted = journal.isCopyInterrupted(file);
+                if (config.isBackupAllFiles() || missingFromDestination || interrupted || detector.needsCopy(file, attr)) {
+                    config.getDirectoryCreator().ensureCreated(config.getDestinationRoot().resolve(relative).getParent());
+                    journal.copyStarted(file);
+                    changed.add(config);
+                } else {
+                    unchanged.add(config);
+                }
+            } catch (IOException ex) {
+                logException(file, config, ex);
+                failed++;
+            }
+        }
+        if (resumed) {
+            report.resumed(file, listed.size());
+            stats.fileMoved();
+            return;
+        }
+        boolean copied = false;
+        if (!changed.isEmpty()) {
+            List<Path> targets = new ArrayList<>(changed.size());
+            for (BackupConfig config : changed) {
+                targets.add(config.getDestinationRoot().resolve(relative));
+            }
+            IOException[] failures = new IOException[targets.size()];
+            CopyChecksum checksum = primary.getFileCopier().copy(file, targets, attr.size(), failures);
+            //what a detector keeps on the source, such as the archive bit, is shared by every destination, so it can
+            //only be cleared once every one of them has the file
+            boolean everywhere = failed == 0 && current.size() == destinations.size();
+            for (IOException failure : failures) {
+                everywhere &= failure == null;
+            }
+            for (int i = 0; i < changed.size(); i++) {
+                BackupConfig config = changed.get(i);
+                if (failures[i] != null) {
+                    logException(file, config, failures[i]);
+                    failed++;
+                    continue;
+                }
+                try {
+                    stats.destinationBytesCopied(config.getIndex(), attr.size());
+                    config.getCompressed().copied(file, primary.getFileCopier().getCompressor() != null);
+                    ChangeDetector detector = config.getChangeDetector();
+                    if (checksum != null) {
+                        config.getChecksums().record(file, checksum);
+                    }
+                    if (everywhere || !detector.isRecordedOnSource()) {
+                        detector.copied(file, attr, checksum != null && checksum.isWholeFile() ? checksum.getHash() : null);
+                    }
+                    config.getJournal().fileDone(file, attr);
+                    copied = true;
+                } catch (IOException ex) {
+                    logException(file, config, ex);
+                    failed++;
+                }
+            }
+        }
+        for (BackupConfig config : unchanged) {
+            try {
+                config.getJournal().fileDone(file, attr);
+            } catch (IOException ex) {
+                logException(file, config, ex);
+                failed++;
+            }
+        }
+        if (failed == current.size()) {
+            return;
+        }
+        long elapsed = System.nanoTime() - started;
+        if (copied) {
+            stats.bytesCopied(attr.size());
+            stats.stageTime(BackupStats.Stage.COPY, elapsed);
+            report.copied(file, attr.size(), elapsed);
+            event.copied = true;
+        } else {
+            stats.stageTime(BackupStats.Stage.COMPARE, elapsed);
+            report.unchanged(file, attr.size(), elapsed);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = file.toString();
+            event.bytes = attr.size();
+            event.commit();
+        }
+        //Call it moved whether it actually was copied or not
+        stats.fileMoved();
+    }
+
+    private void logException(Path file, BackupConfig config, IOException ex) {
+        if (configs.size() == 1) {
+            logException(file, "Exception occurred while copying " + file, ex);
+        } else {
+            logException(file, "Exception occurred while copying " + file + " to " + config.getDestinationRoot(), ex);
+        }
+    }
+
+    /**
+     * Re-reads everything copied in this run, queued like copies so the device limits still apply.
+     */
+    private void verify(List<BackupConfig> opened, CopyVerifier verifier) {
+        verifier.start();
+        for (BackupConfig config : opened) {
+            IoScheduler.Device device = config.getDevice();
+            for (Map.Entry<String, CopyChecksum> copied : config.getChecksums().getRecorded().entrySet()) {
+                Path file = config.getDestinationRoot().resolve(copied.getKey());
+                scheduler.copy(device, device, () -> verifyFile(verifier, file, copied.getValue()));
+            }
+        }
+        scheduler.awaitCopies();
+        verifier.finish();
+    }
+
+    private void verifyFile(CopyVerifier verifier, Path file, CopyChecksum expected) {
+        if (cancelled) {
+            return;
+        }
+        try {
+            if (!verifier.verify(file, expected)) {
+                logFailure(file, "Verification failed for " + file + "; it doesn't match what was copied");
+            }
+        } catch (IOException ex) {
+            logException(file, "Exception occurred while verifying " + file, ex);
+        }
+    }
+
+    private void deleteStale(Path destination, BackupConfig config) {
+        BackupEvents.StaleDeleted event = new BackupEvents.StaleDeleted();
+        event.begin();
+        long started = System.nanoTime();
+        try {
+            boolean directory = Files.isDirectory(destination, LinkOption.NOFOLLOW_LINKS);
+            if (directory) {
+                config.getTrash().discardDirectory(destination);
+            } else {
+                config.getTrash().discardFile(destination);
+            }
+            stats.stageTime(BackupStats.Stage.DELETE, System.nanoTime() - started);
+            event.end();
+            if (event.shouldCommit()) {
+                event.path = destination.toString();
+                event.directory = directory;
+                event.commit();
+            }
+            report.deleted(destination);
+        } catch (IOException ex) {
+            logException(destination, "Exception occurred while deleting " + destination, ex);
+        }
+    }
+
+    private static Path makeDestinationPath(Path destination, Path sourcePath) {
+        return destination.resolve(sourcePath.subpath(0, sourcePath.getNameCount()));
+    }
+
+    /**
+     * The journals of every destination at once: a directory is only skipped once it's done everywhere, and
+     * each journal counts down its own directories, since a file copied to one destination may have failed for another.
+     */
+    private static class JournalsCheckpoint implements FileForkAction.Checkpoint {
+
+        private final List<BackupConfig> configs;
+
+        JournalsCheckpoint(List<BackupConfig> configs) {
+            this.configs = configs;
+        }
+
+        @Override
+        public boolean isDirectoryDone(Path directory) {
+            for (BackupConfig config : configs) {
+                if (!config.getJournal().isDirectoryDone(directory)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void childrenFound(Path directory, int children) {
+            for (BackupConfig config : configs) {
+                config.getJournal().childrenFound(directory, children);
+            }
+        }
+
+        @Override
+        public void directoryListed(Path directory) throws IOException {
+            for (BackupConfig config : configs) {
+                config.getJournal().directoryListed(directory);
+            }
+        }
+    }
+
+    /**
+     * Treats every subdirectory of one directory as already done, so only that directory is listed.
+     */
+    private static class ShallowCheckpoint implements FileForkAction.Checkpoint {
+
+        private final Path directory;
+        private final FileForkAction.Checkpoint journal;
+
+        ShallowCheckpoint(Path directory, FileForkAction.Checkpoint journal) {
+            this.directory = directory;
+            this.journal = journal;
+        }
+
+        @Override
+        public boolean isDirectoryDone(Path subdirectory) {
+            return !subdirectory.equals(directory) || journal.isDirectoryDone(subdirectory);
+        }
+
+        @Override
+        public void childrenFound(Path listed, int children) {
+            //its subdirectories weren't looked at, so the journal must never record the directory as done
+        }
+
+        @Override
+        public void directoryListed(Path listed) {
+        }
+    }
+}
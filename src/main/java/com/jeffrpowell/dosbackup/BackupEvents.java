@@ -0,0 +1,85 @@
+package com.jeffrpowell.dosbackup;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder events for each stage of a backup, so a slow run can be profiled with
+ * {@code -XX:StartFlightRecording} or {@code jcmd <pid> JFR.start} instead of a debugger.
+ * They cost next to nothing while no recording is running.
+ */
+public final class BackupEvents {
+
+    private static final String CATEGORY = "DosBackup";
+
+    private BackupEvents() {
+    }
+
+    @Name("com.jeffrpowell.dosbackup.DirectoryListed")
+    @Label("Directory Listed")
+    @Description("A source directory listed and, when mirroring, diffed against its destination")
+    @Category(CATEGORY)
+    public static class DirectoryListed extends Event {
+
+        @Label("Directory")
+        public String path;
+
+        @Label("Files")
+        public int files;
+
+        @Label("Subdirectories")
+        public int directories;
+
+        @Label("Stat Calls")
+        public int statCalls;
+
+        @Label("Excluded")
+        @Description("Files and subdirectories skipped by the include/exclude rules")
+        public int excluded;
+    }
+
+    @Name("com.jeffrpowell.dosbackup.FileCopied")
+    @Label("File Copied")
+    @Description("A file checked for changes and copied if it needed to be")
+    @Category(CATEGORY)
+    public static class FileCopied extends Event {
+
+        @Label("File")
+        public String path;
+
+        @Label("Size")
+        @DataAmount
+        public long bytes;
+
+        @Label("Copied")
+        @Description("False if the file was unchanged and left alone")
+        public boolean copied;
+    }
+
+    @Name("com.jeffrpowell.dosbackup.DirectoryCreated")
+    @Label("Directory Created")
+    @Description("A destination directory created, or found to exist already")
+    @Category(CATEGORY)
+    public static class DirectoryCreated extends Event {
+
+        @Label("Directory")
+        public String path;
+    }
+
+    @Name("com.jeffrpowell.dosbackup.StaleDeleted")
+    @Label("Stale Entry Deleted")
+    @Description("A destination file deleted, or a destination directory moved to the trash, while mirroring")
+    @Category(CATEGORY)
+    public static class StaleDeleted extends Event {
+
+        @Label("Path")
+        public String path;
+
+        @Label("Directory")
+        public boolean directory;
+    }
+}
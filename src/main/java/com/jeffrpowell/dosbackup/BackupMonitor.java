@@ -0,0 +1,161 @@
+package com.jeffrpowell.dosbackup;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class BackupMonitor implements BackupMonitorMXBean {
+
+    private static final long MIN_RATE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final BackupEngine engine;
+    private final BackupStats stats;
+    private ObjectName name;
+    private Progress previous;
+    private Progress latest;
+
+    public BackupMonitor(BackupEngine engine) {
+        this.engine = engine;
+        this.stats = engine.getStats();
+    }
+
+    /**
+     * Registers under {@code com.jeffrpowell.dosbackup:type=Backup,destination=...}. Monitoring is optional, so a
+     * failure is only logged.
+     */
+    public void register(Path destination) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = new ObjectName("com.jeffrpowell.dosbackup:type=Backup,destination=" + ObjectName.quote(destination.toString()));
+            server.registerMBean(this, objectName);
+            name = objectName;
+        } catch (JMException ex) {
+            System.err.println("Couldn't register the backup MBean; the run goes on without it");
+            ex.printStackTrace(System.err);
+        }
+    }
+
+    public void unregister() {
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException ex) {
+            ex.printStackTrace(System.err);
+        }
+        name = null;
+    }
+
+    @Override
+    public long getFilesFound() {
+        return sample().getFilesFound();
+    }
+
+    @Override
+    public long getFilesMoved() {
+        return sample().getFilesMoved();
+    }
+
+    @Override
+    public long getDirectoriesLeft() {
+        return sample().getDirectoriesLeft();
+    }
+
+    @Override
+    public long getBytesFound() {
+        return sample().getBytesFound();
+    }
+
+    @Override
+    public long getBytesCopied() {
+        return sample().getBytesCopied();
+    }
+
+    @Override
+    public long getStatCalls() {
+        return stats.getStatCalls();
+    }
+
+    @Override
+    public long getFailures() {
+        return engine.getFailureCount();
+    }
+
+    @Override
+    public long getFilesExcluded() {
+        return stats.getFilesExcluded();
+    }
+
+    @Override
+    public long getDirectoriesExcluded() {
+        return stats.getDirectoriesExcluded();
+    }
+
+    @Override
+    public synchronized double getFilesPerSecond() {
+        Progress current = sample();
+        if (previous == null || current.getTimestamp() <= previous.getTimestamp()) {
+            return 0;
+        }
+        return (current.getFilesMoved() - previous.getFilesMoved()) * 1e9 / (current.getTimestamp() - previous.getTimestamp());
+    }
+
+    @Override
+    public long getBytesPerSecond() {
+        return sample().getBytesPerSecond();
+    }
+
+    @Override
+    public long[] getDestinationBytesCopied() {
+        Progress progress = sample();
+        long[] bytes = new long[progress.getDestinationCount()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = progress.getDestinationBytesCopied(i);
+        }
+        return bytes;
+    }
+
+    @Override
+    public long[] getDestinationBytesPerSecond() {
+        Progress progress = sample();
+        long[] rates = new long[progress.getDestinationCount()];
+        for (int i = 0; i < rates.length; i++) {
+            rates[i] = progress.getDestinationBytesPerSecond(i);
+        }
+        return rates;
+    }
+
+    @Override
+    public int getQueuedCopies() {
+        return engine.getQueuedCopies();
+    }
+
+    @Override
+    public Map<String, StageTiming> getStageTimings() {
+        Map<String, StageTiming> timings = new LinkedHashMap<>();
+        for (BackupStats.Stage stage : BackupStats.Stage.values()) {
+            LogHistogram nanos = stats.getStageTimes(stage);
+            timings.put(stage.name(), new StageTiming(nanos.getCount(), TimeUnit.NANOSECONDS.toMillis(nanos.getSum()),
+                TimeUnit.NANOSECONDS.toMicros(nanos.percentile(50)), TimeUnit.NANOSECONDS.toMicros(nanos.percentile(90)),
+                TimeUnit.NANOSECONDS.toMicros(nanos.percentile(99)), TimeUnit.NANOSECONDS.toMicros(nanos.getMax())));
+        }
+        return timings;
+    }
+
+    /**
+     * Takes a new snapshot at most once a second, so clients polling quickly still see sensible rates.
+     */
+    private synchronized Progress sample() {
+        if (latest == null || System.nanoTime() - latest.getTimestamp() >= MIN_RATE_INTERVAL_NANOS) {
+            previous = latest;
+            latest = engine.getProgress(previous);
+        }
+        return latest;
+    }
+}
@@ -0,0 +1,106 @@
+package com.jeffrpowell.dosbackup;
+
+import java.util.Map;
+import javax.management.ConstructorParameters;
+
+/**
+ * Live counters for a running backup, registered with the platform MBean server for the length of the run so
+ * JConsole, VisualVM or any JMX client can watch it.
+ */
+public interface BackupMonitorMXBean {
+
+    long getFilesFound();
+
+    long getFilesMoved();
+
+    long getDirectoriesLeft();
+
+    long getBytesFound();
+
+    long getBytesCopied();
+
+    long getStatCalls();
+
+    long getFailures();
+
+    long getFilesExcluded();
+
+    /**
+     * Excluded directories are never listed, so what's under them isn't counted.
+     */
+    long getDirectoriesExcluded();
+
+    /**
+     * Averaged since the previous reading, but over at least a second.
+     */
+    double getFilesPerSecond();
+
+    /**
+     * Averaged since the previous reading, but over at least a second.
+     */
+    long getBytesPerSecond();
+
+    /**
+     * @return bytes written to each destination, in the order they were given
+     */
+    long[] getDestinationBytesCopied();
+
+    /**
+     * Averaged like {@link #getBytesPerSecond}, for each destination in the order they were given.
+     */
+    long[] getDestinationBytesPerSecond();
+
+    /**
+     * Files found by the scan and waiting for a copy thread.
+     */
+    int getQueuedCopies();
+
+    /**
+     * @return timings keyed by {@link BackupStats.Stage} name
+     */
+    Map<String, StageTiming> getStageTimings();
+
+    public static class StageTiming {
+
+        private final long count;
+        private final long totalMillis;
+        private final long p50Micros;
+        private final long p90Micros;
+        private final long p99Micros;
+        private final long maxMicros;
+
+        @ConstructorParameters({"count", "totalMillis", "p50Micros", "p90Micros", "p99Micros", "maxMicros"})
+        public StageTiming(long count, long totalMillis, long p50Micros, long p90Micros, long p99Micros, long maxMicros) {
+            this.count = count;
+            this.totalMillis = totalMillis;
+            this.p50Micros = p50Micros;
+            this.p90Micros = p90Micros;
+            this.p99Micros = p99Micros;
+            this.maxMicros = maxMicros;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalMillis() {
+            return totalMillis;
+        }
+
+        public long getP50Micros() {
+            return p50Micros;
+        }
+
+        public long getP90Micros() {
+            return p90Micros;
+        }
+
+        public long getP99Micros() {
+            return p99Micros;
+        }
+
+        public long getMaxMicros() {
+            return maxMicros;
+        }
+    }
+}
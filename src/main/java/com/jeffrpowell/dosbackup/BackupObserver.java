@@ -1,8 +1,15 @@
 package com.jeffrpowell.dosbackup;
 
-import java.util.List;
+import java.nio.file.Path;
 
 public interface BackupObserver{
-	public void updateProgress(int moved, int found, int directoriesLeft);
-	public void done(boolean wasCancelled, List<String> failedFiles);
+	public void updateProgress(Progress progress);
+	/**
+	 * Called on the event thread once for each run, which in watch mode is every batch of changes.
+	 */
+	public void finished(BackupResult result);
+	/**
+	 * @param report null if the run never got far enough to start one
+	 */
+	public void done(boolean wasCancelled, long failedFiles, Path report);
 }
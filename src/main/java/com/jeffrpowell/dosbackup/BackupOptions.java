@@ -0,0 +1,375 @@
+package com.jeffrpowell.dosbackup;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+public class BackupOptions {
+
+    public static final int DEFAULT_SMALL_FILE_THRESHOLD = 64 * 1024;
+    public static final int MAX_SMALL_FILE_THRESHOLD = 16 * 1024 * 1024;
+    public static final long DEFAULT_LARGE_FILE_THRESHOLD = 256L * 1024 * 1024;
+    public static final long DEFAULT_LARGE_FILE_CHUNK_SIZE = 64L * 1024 * 1024;
+    public static final int DEFAULT_DELTA_BLOCK_SIZE = 64 * 1024;
+    public static final int MAX_DELTA_BLOCK_SIZE = 16 * 1024 * 1024;
+    public static final int DEFAULT_IO_CONCURRENCY = 256;
+    public static final int DEFAULT_COPY_QUEUE_CAPACITY = 50_000;
+    public static final int DEFAULT_COMPRESSION_BLOCK_SIZE = 1024 * 1024;
+    public static final int MAX_COMPRESSION_BLOCK_SIZE = 64 * 1024 * 1024;
+    public static final long DEFAULT_WATCH_SETTLE_MILLIS = 2000;
+
+    private boolean backupAllFiles;
+    private boolean deleteDestinationFiles;
+    private boolean resume;
+    private ChangeDetection changeDetection = ChangeDetection.SIZE_AND_MODIFIED_TIME;
+    private int smallFileThreshold = DEFAULT_SMALL_FILE_THRESHOLD;
+    private long largeFileThreshold = DEFAULT_LARGE_FILE_THRESHOLD;
+    private long largeFileChunkSize = DEFAULT_LARGE_FILE_CHUNK_SIZE;
+    private long deltaThreshold = Long.MAX_VALUE;
+    private int deltaBlockSize = DEFAULT_DELTA_BLOCK_SIZE;
+    private int scanParallelism = Runtime.getRuntime().availableProcessors();
+    private int copyParallelism = Runtime.getRuntime().availableProcessors();
+    private int perDeviceConcurrency;
+    private ExecutionMode executionMode = ExecutionMode.FORK_JOIN;
+    private int ioConcurrency = DEFAULT_IO_CONCURRENCY;
+    private int copyQueueCapacity = DEFAULT_COPY_QUEUE_CAPACITY;
+    private boolean compressDestination;
+    private int compressionBlockSize = DEFAULT_COMPRESSION_BLOCK_SIZE;
+    private long maxBytesPerSecond;
+    private boolean checksumCopies;
+    private boolean verifyCopies;
+    private long maxOperationsPerSecond;
+    private Path reportFile;
+    private boolean watch;
+    private List<String> includePatterns = Collections.emptyList();
+    private List<String> excludePatterns = Collections.emptyList();
+    private PathFilter pathFilter = PathFilter.NONE;
+    private long watchSettleMillis = DEFAULT_WATCH_SETTLE_MILLIS;
+
+    public boolean isBackupAllFiles() {
+        return backupAllFiles;
+    }
+
+    public void setBackupAllFiles(boolean backupAllFiles) {
+        this.backupAllFiles = backupAllFiles;
+    }
+
+    public boolean isResume() {
+        return resume;
+    }
+
+    /**
+     * Skip whatever the journal left by an interrupted run proves done; otherwise the journal is discarded.
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    public boolean isDeleteDestinationFiles() {
+        return deleteDestinationFiles;
+    }
+
+    public void setDeleteDestinationFiles(boolean deleteDestinationFiles) {
+        this.deleteDestinationFiles = deleteDestinationFiles;
+    }
+
+    public ChangeDetection getChangeDetection() {
+        return changeDetection;
+    }
+
+    public void setChangeDetection(ChangeDetection changeDetection) {
+        this.changeDetection = changeDetection;
+    }
+
+    public int getSmallFileThreshold() {
+        return smallFileThreshold;
+    }
+
+    /**
+     * Files no bigger than this are read into a pooled buffer and written in one call; 0 turns the fast path off.
+     * The pool keeps a direct buffer of this size for every copy that has run at once, so it is capped at
+     * {@link #MAX_SMALL_FILE_THRESHOLD}.
+     */
+    public void setSmallFileThreshold(int smallFileThreshold) {
+        if (smallFileThreshold < 0 || smallFileThreshold > MAX_SMALL_FILE_THRESHOLD) {
+            throw new IllegalArgumentException("smallFileThreshold must be between 0 and " + MAX_SMALL_FILE_THRESHOLD);
+        }
+        this.smallFileThreshold = smallFileThreshold;
+    }
+
+    public long getLargeFileThreshold() {
+        return largeFileThreshold;
+    }
+
+    /**
+     * Files at least this big are copied in chunks in parallel; Long.MAX_VALUE turns chunked copies off.
+     * It has to be positive, since an empty file has no chunks to copy.
+     */
+    public void setLargeFileThreshold(long largeFileThreshold) {
+        if (largeFileThreshold <= 0) {
+            throw new IllegalArgumentException("largeFileThreshold must be positive");
+        }
+        this.largeFileThreshold = largeFileThreshold;
+    }
+
+    public long getLargeFileChunkSize() {
+        return largeFileChunkSize;
+    }
+
+    public void setLargeFileChunkSize(long largeFileChunkSize) {
+        if (largeFileChunkSize <= 0) {
+            throw new IllegalArgumentException("largeFileChunkSize must be positive");
+        }
+        this.largeFileChunkSize = largeFileChunkSize;
+    }
+
+    public long getDeltaThreshold() {
+        return deltaThreshold;
+    }
+
+    /**
+     * Files at least this big that already exist at the destination are updated in place, rewriting only the blocks
+     * that changed (see {@link DeltaCopier}); Long.MAX_VALUE, the default, turns delta copies off.
+     */
+    public void setDeltaThreshold(long deltaThreshold) {
+        if (deltaThreshold <= 0) {
+            throw new IllegalArgumentException("deltaThreshold must be positive");
+        }
+        this.deltaThreshold = deltaThreshold;
+    }
+
+    public int getDeltaBlockSize() {
+        return deltaBlockSize;
+    }
+
+    /**
+     * The smallest unit a delta copy rewrites.
+     */
+    public void setDeltaBlockSize(int deltaBlockSize) {
+        if (deltaBlockSize <= 0 || deltaBlockSize > MAX_DELTA_BLOCK_SIZE) {
+            throw new IllegalArgumentException("deltaBlockSize must be between 1 and " + MAX_DELTA_BLOCK_SIZE);
+        }
+        this.deltaBlockSize = deltaBlockSize;
+    }
+
+    public int getScanParallelism() {
+        return scanParallelism;
+    }
+
+    public void setScanParallelism(int scanParallelism) {
+        if (scanParallelism <= 0) {
+            throw new IllegalArgumentException("scanParallelism must be positive");
+        }
+        this.scanParallelism = scanParallelism;
+    }
+
+    public int getCopyParallelism() {
+        return copyParallelism;
+    }
+
+    public void setCopyParallelism(int copyParallelism) {
+        if (copyParallelism <= 0) {
+            throw new IllegalArgumentException("copyParallelism must be positive");
+        }
+        this.copyParallelism = copyParallelism;
+    }
+
+    public int getPerDeviceConcurrency() {
+        return perDeviceConcurrency;
+    }
+
+    /**
+     * Most copies allowed to read from or write to one file store at once; 0 leaves it up to the copy pool size.
+     */
+    public void setPerDeviceConcurrency(int perDeviceConcurrency) {
+        if (perDeviceConcurrency < 0) {
+            throw new IllegalArgumentException("perDeviceConcurrency can't be negative");
+        }
+        this.perDeviceConcurrency = perDeviceConcurrency;
+    }
+
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    /**
+     * {@link ExecutionMode#VIRTUAL_THREADS} falls back to fork/join pools, with a warning, on a JVM without them.
+     */
+    public void setExecutionMode(ExecutionMode executionMode) {
+        this.executionMode = executionMode;
+    }
+
+    public int getIoConcurrency() {
+        return ioConcurrency;
+    }
+
+    /**
+     * Most listings and copies in flight at once in virtual-thread mode; the scan and copy parallelism settings
+     * play this role for fork/join pools.
+     */
+    public void setIoConcurrency(int ioConcurrency) {
+        if (ioConcurrency <= 0) {
+            throw new IllegalArgumentException("ioConcurrency must be positive");
+        }
+        this.ioConcurrency = ioConcurrency;
+    }
+
+    public int getCopyQueueCapacity() {
+        return copyQueueCapacity;
+    }
+
+    /**
+     * How many files the scan may get ahead of the copies before it waits.
+     */
+    public void setCopyQueueCapacity(int copyQueueCapacity) {
+        if (copyQueueCapacity <= 0) {
+            throw new IllegalArgumentException("copyQueueCapacity must be positive");
+        }
+        this.copyQueueCapacity = copyQueueCapacity;
+    }
+
+    public boolean isCompressDestination() {
+        return compressDestination;
+    }
+
+    /**
+     * Write destination files in {@link BlockCompressor}'s format instead of as byte-for-byte copies.
+     * Can't be combined with checksums, which are taken of the bytes written.
+     */
+    public void setCompressDestination(boolean compressDestination) {
+        if (compressDestination && isChecksumCopies()) {
+            throw new IllegalArgumentException("Compressed copies can't be checksummed or verified");
+        }
+        this.compressDestination = compressDestination;
+    }
+
+    public int getCompressionBlockSize() {
+        return compressionBlockSize;
+    }
+
+    /**
+     * Each block in flight holds about twice this much heap, so it is capped at {@link #MAX_COMPRESSION_BLOCK_SIZE}.
+     */
+    public void setCompressionBlockSize(int compressionBlockSize) {
+        if (compressionBlockSize <= 0 || compressionBlockSize > MAX_COMPRESSION_BLOCK_SIZE) {
+            throw new IllegalArgumentException("compressionBlockSize must be between 1 and " + MAX_COMPRESSION_BLOCK_SIZE);
+        }
+        this.compressionBlockSize = compressionBlockSize;
+    }
+
+    public long getMaxBytesPerSecond() {
+        return maxBytesPerSecond;
+    }
+
+    /**
+     * Starting limit on bytes copied per second; 0 means unlimited. Change it mid-run through {@link BackupEngine#getThrottle}.
+     */
+    public void setMaxBytesPerSecond(long maxBytesPerSecond) {
+        if (maxBytesPerSecond < 0) {
+            throw new IllegalArgumentException("maxBytesPerSecond can't be negative");
+        }
+        this.maxBytesPerSecond = maxBytesPerSecond;
+    }
+
+    public long getMaxOperationsPerSecond() {
+        return maxOperationsPerSecond;
+    }
+
+    /**
+     * Starting limit on files copied or deleted per second; 0 means unlimited.
+     */
+    public void setMaxOperationsPerSecond(long maxOperationsPerSecond) {
+        if (maxOperationsPerSecond < 0) {
+            throw new IllegalArgumentException("maxOperationsPerSecond can't be negative");
+        }
+        this.maxOperationsPerSecond = maxOperationsPerSecond;
+    }
+
+    public boolean isChecksumCopies() {
+        return checksumCopies || verifyCopies;
+    }
+
+    /**
+     * Hash every file while it is copied and keep the checksums in the destination's {@link ChecksumManifest}.
+     */
+    public void setChecksumCopies(boolean checksumCopies) {
+        if (checksumCopies && compressDestination) {
+            throw new IllegalArgumentException("Compressed copies can't be checksummed or verified");
+        }
+        this.checksumCopies = checksumCopies;
+    }
+
+    public boolean isVerifyCopies() {
+        return verifyCopies;
+    }
+
+    /**
+     * Once the copies are done, re-read every file copied in this run and compare it with its checksum.
+     * Turns checksums on.
+     */
+    public void setVerifyCopies(boolean verifyCopies) {
+        if (verifyCopies && compressDestination) {
+            throw new IllegalArgumentException("Compressed copies can't be checksummed or verified");
+        }
+        this.verifyCopies = verifyCopies;
+    }
+
+    public Path getReportFile() {
+        return reportFile;
+    }
+
+    /**
+     * Where the NDJSON run report goes; null for .dosbackup-report-DATE.ndjson in the first destination's root.
+     */
+    public void setReportFile(Path reportFile) {
+        this.reportFile = reportFile;
+    }
+
+    public boolean isWatch() {
+        return watch;
+    }
+
+    /**
+     * Keep running after the first backup and back up changed directories as they change; see {@link ContinuousBackup}.
+     */
+    public void setWatch(boolean watch) {
+        this.watch = watch;
+    }
+
+    public long getWatchSettleMillis() {
+        return watchSettleMillis;
+    }
+
+    /**
+     * How long the sources have to go without changing before the changes are backed up.
+     */
+    public void setWatchSettleMillis(long watchSettleMillis) {
+        if (watchSettleMillis < 0) {
+            throw new IllegalArgumentException("watchSettleMillis can't be negative");
+        }
+        this.watchSettleMillis = watchSettleMillis;
+    }
+
+    public List<String> getIncludePatterns() {
+        return includePatterns;
+    }
+
+    public List<String> getExcludePatterns() {
+        return excludePatterns;
+    }
+
+    /**
+     * Compiles the rules straight away; see {@link PathFilter} for the pattern syntax.
+     *
+     * @throws IllegalArgumentException if a pattern doesn't compile
+     */
+    public void setPathRules(List<String> includePatterns, List<String> excludePatterns) {
+        this.pathFilter = PathFilter.compile(includePatterns, excludePatterns);
+        this.includePatterns = includePatterns;
+        this.excludePatterns = excludePatterns;
+    }
+
+    public PathFilter getPathFilter() {
+        return pathFilter;
+    }
+}
@@ -0,0 +1,104 @@
+package com.jeffrpowell.dosbackup;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BackupResult {
+
+    private final boolean cancelled;
+    private final long failureCount;
+    private final List<String> failedPaths;
+    private final Path reportFile;
+    private final Progress finalProgress;
+    private final long elapsedNanos;
+    private final String copySummary;
+    private final long statCalls;
+    private final String verifySummary;
+    private final String excludedSummary;
+    private final String resumeSummary;
+
+    /**
+     * @param failedPaths the first few of the failureCount failed paths; the report lists them all
+     * @param verifySummary null if there was no verification pass
+     * @param excludedSummary null if there were no include/exclude rules
+     * @param resumeSummary null unless the run resumed an interrupted one
+     */
+    public BackupResult(boolean cancelled, long failureCount, List<String> failedPaths, Path reportFile, Progress finalProgress, long elapsedNanos, String copySummary, long statCalls, String verifySummary, String excludedSummary, String resumeSummary) {
+        this.cancelled = cancelled;
+        this.failureCount = failureCount;
+        this.failedPaths = failedPaths;
+        this.reportFile = reportFile;
+        this.finalProgress = finalProgress;
+        this.elapsedNanos = elapsedNanos;
+        this.copySummary = copySummary;
+        this.statCalls = statCalls;
+        this.verifySummary = verifySummary;
+        this.excludedSummary = excludedSummary;
+        this.resumeSummary = resumeSummary;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    public List<String> getFailedPaths() {
+        return failedPaths;
+    }
+
+    public Path getReportFile() {
+        return reportFile;
+    }
+
+    public Progress getFinalProgress() {
+        return finalProgress;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public String getCopySummary() {
+        return copySummary;
+    }
+
+    public long getStatCalls() {
+        return statCalls;
+    }
+
+    public String getStatSummary() {
+        long files = Math.max(1, finalProgress.getFilesFound());
+        return String.format("%d stat calls, %.2f per file", statCalls, (double) statCalls / files);
+    }
+
+    public String getVerifySummary() {
+        return verifySummary;
+    }
+
+    public String getExcludedSummary() {
+        return excludedSummary;
+    }
+
+    public String getResumeSummary() {
+        return resumeSummary;
+    }
+
+    /**
+     * @return every summary this run has, one line each
+     */
+    public List<String> getSummaries() {
+        List<String> summaries = new ArrayList<>();
+        summaries.add(copySummary);
+        summaries.add(getStatSummary());
+        for (String summary : new String[]{verifySummary, excludedSummary, resumeSummary}) {
+            if (summary != null) {
+                summaries.add(summary);
+            }
+        }
+        return summaries;
+    }
+}
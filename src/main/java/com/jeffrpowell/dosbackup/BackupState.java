@@ -0,0 +1,180 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * What the destination is known to hold, keyed by the path relative to the destination root.
+ * The previous run's entries are loaded read-only; everything copied or confirmed unchanged during this run
+ * is recorded separately so a completed run can drop entries for files that no longer exist.
+ */
+public class BackupState {
+
+    public static final String FILE_NAME = ".dosbackup-state";
+    private static final int MAGIC = 0x444f5342;
+    private static final int VERSION = 1;
+
+    private final Path stateFile;
+    private final Map<String, FileState> previous;
+    private final Map<String, FileState> current;
+
+    private BackupState(Path stateFile, Map<String, FileState> previous) {
+        this.stateFile = stateFile;
+        this.previous = previous;
+        this.current = new ConcurrentHashMap<>();
+    }
+
+    public static BackupState load(Path destinationRoot) throws IOException {
+        Path stateFile = destinationRoot.resolve(FILE_NAME);
+        if (!Files.isRegularFile(stateFile)) {
+            return new BackupState(stateFile, Collections.emptyMap());
+        }
+        Map<String, FileState> entries = new HashMap<>();
+        try ( DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(stateFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                //unknown format; start over rather than trust it
+                return new BackupState(stateFile, Collections.emptyMap());
+            }
+            while (true) {
+                String key;
+                try {
+                    key = in.readUTF();
+                } catch (EOFException ex) {
+                    break;
+                }
+                long size = in.readLong();
+                long modified = in.readLong();
+                byte[] hash = null;
+                int hashLength = in.readUnsignedByte();
+                if (hashLength > 0) {
+                    hash = new byte[hashLength];
+                    in.readFully(hash);
+                }
+                entries.put(key, new FileState(size, modified, hash));
+            }
+        }
+        return new BackupState(stateFile, entries);
+    }
+
+    public static String keyOf(Path source) {
+        return source.subpath(0, source.getNameCount()).toString();
+    }
+
+    public static long modifiedTime(BasicFileAttributes attributes) {
+        return attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+
+    public FileState getPrevious(Path source) {
+        return previous.get(keyOf(source));
+    }
+
+    public void record(Path source, FileState state) {
+        current.put(keyOf(source), state);
+    }
+
+    /**
+     * Records a file a resumed run skipped because the interrupted run already finished it.
+     * The previous hash is kept only if it still describes the same size and modified time.
+     */
+    public void carryOver(Path source, BasicFileAttributes attributes) {
+        FileState previousState = getPrevious(source);
+        long modified = modifiedTime(attributes);
+        byte[] hash = null;
+        if (previousState != null && previousState.getSize() == attributes.size() && previousState.getModified() == modified) {
+            hash = previousState.getHash();
+        }
+        record(source, new FileState(attributes.size(), modified, hash));
+    }
+
+    /**
+     * Keeps the previous entries under directories a resumed run skipped, since the run never sees those files.
+     *
+     * @param skipped tells which keys are under a skipped directory
+     * @param journaled what the interrupted run recorded for files it finished under those directories, which
+     * replaces the previous entry; a previous hash is kept if it still describes the same size and modified time
+     */
+    public void carryOverSkipped(Predicate<String> skipped, Map<String, FileState> journaled) {
+        for (Map.Entry<String, FileState> entry : previous.entrySet()) {
+            if (!journaled.containsKey(entry.getKey()) && skipped.test(entry.getKey())) {
+                current.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+        }
+        for (Map.Entry<String, FileState> entry : journaled.entrySet()) {
+            FileState done = entry.getValue();
+            FileState previousState = previous.get(entry.getKey());
+            byte[] hash = null;
+            if (previousState != null && previousState.getSize() == done.getSize() && previousState.getModified() == done.getModified()) {
+                hash = previousState.getHash();
+            }
+            current.putIfAbsent(entry.getKey(), new FileState(done.getSize(), done.getModified(), hash));
+        }
+    }
+
+    /**
+     * @param complete true if every source was walked, in which case entries not seen this run are dropped
+     */
+    public void save(boolean complete) throws IOException {
+        Map<String, FileState> toWrite = current;
+        if (!complete) {
+            toWrite = new HashMap<>(previous);
+            toWrite.putAll(current);
+        }
+        Path tempFile = stateFile.resolveSibling(FILE_NAME + ".tmp");
+        try ( DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (Map.Entry<String, FileState> entry : toWrite.entrySet()) {
+                FileState state = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(state.getSize());
+                out.writeLong(state.getModified());
+                if (state.getHash() == null) {
+                    out.writeByte(0);
+                } else {
+                    out.writeByte(state.getHash().length);
+                    out.write(state.getHash());
+                }
+            }
+        }
+        Files.move(tempFile, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static class FileState {
+
+        private final long size;
+        private final long modified;
+        private final byte[] hash;
+
+        public FileState(long size, long modified, byte[] hash) {
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getModified() {
+            return modified;
+        }
+
+        public byte[] getHash() {
+            return hash;
+        }
+    }
+}
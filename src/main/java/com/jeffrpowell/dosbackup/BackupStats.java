@@ -0,0 +1,156 @@
+package com.jeffrpowell.dosbackup;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running totals shared by every worker. Updates are striped so workers never contend on one counter;
+ * readers get a consistent-enough view by calling {@link #snapshot}.
+ */
+public class BackupStats {
+
+    /**
+     * Where the time goes, for {@link #stageTime}.
+     */
+    public enum Stage {
+        /** listing a source directory and, when mirroring, its destination */
+        LIST,
+        /** checking a file that turned out not to need copying */
+        COMPARE,
+        /** checking and copying a file */
+        COPY,
+        CREATE_DIRECTORY,
+        DELETE
+    }
+
+    private final LongAdder filesFound;
+    private final LongAdder filesMoved;
+    private final LongAdder directoriesFound;
+    private final LongAdder directoriesStarted;
+    private final LongAdder bytesFound;
+    private final LongAdder bytesCopied;
+    private final LongAdder[] destinationBytesCopied;
+    private final LongAdder statCalls;
+    private final LongAdder filesExcluded;
+    private final LongAdder directoriesExcluded;
+    private final Map<Stage, LogHistogram> stageNanos;
+
+    public BackupStats() {
+        this(1);
+    }
+
+    /**
+     * @param destinations how many destinations each file is copied to, for {@link #destinationBytesCopied}
+     */
+    public BackupStats(int destinations) {
+        this.filesFound = new LongAdder();
+        this.filesMoved = new LongAdder();
+        this.directoriesFound = new LongAdder();
+        this.directoriesStarted = new LongAdder();
+        this.bytesFound = new LongAdder();
+        this.bytesCopied = new LongAdder();
+        this.destinationBytesCopied = new LongAdder[destinations];
+        for (int i = 0; i < destinations; i++) {
+            destinationBytesCopied[i] = new LongAdder();
+        }
+        this.statCalls = new LongAdder();
+        this.filesExcluded = new LongAdder();
+        this.directoriesExcluded = new LongAdder();
+        this.stageNanos = new EnumMap<>(Stage.class);
+        for (Stage stage : Stage.values()) {
+            stageNanos.put(stage, new LogHistogram());
+        }
+    }
+
+    public void directoryListed(int files, int directories, long bytes) {
+        directoriesStarted.increment();
+        entriesFound(files, directories, bytes);
+    }
+
+    /**
+     * Counts part of a directory that's still being listed; the rest comes with {@link #directoryListed}.
+     */
+    public void entriesFound(int files, int directories, long bytes) {
+        filesFound.add(files);
+        directoriesFound.add(directories);
+        bytesFound.add(bytes);
+    }
+
+    public void fileMoved() {
+        filesMoved.increment();
+    }
+
+    public void bytesCopied(long bytes) {
+        bytesCopied.add(bytes);
+    }
+
+    /**
+     * Counts bytes written to one destination. {@link #bytesCopied} counts each file once, however many
+     * destinations it went to.
+     */
+    public void destinationBytesCopied(int destination, long bytes) {
+        destinationBytesCopied[destination].add(bytes);
+    }
+
+    /**
+     * Counts attribute reads, so a run can report how many stat calls each file cost.
+     */
+    public void statCalls(long calls) {
+        statCalls.add(calls);
+    }
+
+    public long getStatCalls() {
+        return statCalls.sum();
+    }
+
+    /**
+     * Counts entries the include/exclude rules pruned; an excluded directory counts once, however much is under it.
+     */
+    public void excluded(int files, int directories) {
+        filesExcluded.add(files);
+        directoriesExcluded.add(directories);
+    }
+
+    public long getFilesExcluded() {
+        return filesExcluded.sum();
+    }
+
+    public long getDirectoriesExcluded() {
+        return directoriesExcluded.sum();
+    }
+
+    public void stageTime(Stage stage, long nanos) {
+        stageNanos.get(stage).record(nanos);
+    }
+
+    /**
+     * @return how long each pass through the stage took, in nanoseconds
+     */
+    public LogHistogram getStageTimes(Stage stage) {
+        return stageNanos.get(stage);
+    }
+
+    /**
+     * @param roots number of source roots, which are never counted as found by a parent directory
+     * @param previous the last snapshot taken, used to work out throughput; may be null
+     */
+    public Progress snapshot(int roots, Progress previous) {
+        long now = System.nanoTime();
+        long bytes = bytesCopied.sum();
+        long bytesPerSecond = 0;
+        if (previous != null && now > previous.getTimestamp()) {
+            bytesPerSecond = (long) ((bytes - previous.getBytesCopied()) * 1e9 / (now - previous.getTimestamp()));
+        }
+        long[] destinationBytes = new long[destinationBytesCopied.length];
+        long[] destinationBytesPerSecond = new long[destinationBytes.length];
+        for (int i = 0; i < destinationBytes.length; i++) {
+            destinationBytes[i] = destinationBytesCopied[i].sum();
+            if (previous != null && now > previous.getTimestamp() && i < previous.getDestinationCount()) {
+                destinationBytesPerSecond[i] = (long) ((destinationBytes[i] - previous.getDestinationBytesCopied(i)) * 1e9 / (now - previous.getTimestamp()));
+            }
+        }
+        long directoriesLeft = roots + directoriesFound.sum() - directoriesStarted.sum();
+        return new Progress(now, filesMoved.sum(), filesFound.sum(), directoriesLeft, bytesFound.sum(), bytes, bytesPerSecond, destinationBytes, destinationBytesPerSecond);
+    }
+}
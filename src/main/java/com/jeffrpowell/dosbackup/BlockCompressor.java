@@ -0,0 +1,365 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Writes destination files as independently deflated blocks, so both compressing and restoring can spread one file
+ * across every worker.
+ * <p>
+ * Layout: a header (magic, version, block size, original size), then one frame per block (raw length, stored length,
+ * CRC-32 of the raw bytes, stored bytes), then an index of frame offsets and a footer pointing at the index.
+ * A block that doesn't shrink is stored as-is, flagged by its stored length matching its raw length.
+ */
+public class BlockCompressor {
+
+    private static final int MAGIC = 0x44425a31;
+    private static final byte VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 1 + 4 + 8;
+    private static final int FRAME_HEADER_BYTES = 4 + 4 + 4;
+    private static final int FOOTER_BYTES = 8 + 4;
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final int blockSize;
+    private final int window;
+    private final IoScheduler scheduler;
+    private final Throttle throttle;
+    private final Queue<Deflater> deflaters;
+    private final LongAdder files;
+    private final LongAdder bytesIn;
+    private final LongAdder bytesOut;
+    private final LongAdder cpuNanos;
+
+    /**
+     * @param scheduler runs the blocks; null to fork them onto the current pool
+     */
+    public BlockCompressor(BackupOptions options, IoScheduler scheduler, Throttle throttle) {
+        this.blockSize = options.getCompressionBlockSize();
+        //enough blocks in flight to keep every copy worker busy while the finished ones are written out in order
+        this.window = Math.max(2, options.getCopyParallelism() * 2);
+        this.scheduler = scheduler;
+        this.throttle = throttle;
+        this.deflaters = new ConcurrentLinkedQueue<>();
+        this.files = new LongAdder();
+        this.bytesIn = new LongAdder();
+        this.bytesOut = new LongAdder();
+        this.cpuNanos = new LongAdder();
+    }
+
+    /**
+     * Compresses source into a temp file next to destination, then renames it into place.
+     */
+    public void compress(Path source, Path destination, long size) throws IOException {
+        IOException[] failures = new IOException[1];
+        compress(source, Collections.singletonList(destination), size, failures);
+        if (failures[0] != null) {
+            throw failures[0];
+        }
+    }
+
+    /**
+     * Compresses source once, writing the result to a temp file next to each destination, then renames them into place.
+     *
+     * @param failures gets the exception for each destination that failed, at the same index; the rest are left null
+     */
+    public void compress(Path source, List<Path> destinations, long size, IOException[] failures) {
+        FanOut out = FanOut.open(FileCopier.tempFiles(destinations), scheduler, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            long written;
+            try ( FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+                written = compress(source, in, out, size);
+                out.each((destination, channel) -> channel.force(false));
+            } finally {
+                out.close();
+            }
+            out.moveIntoPlace(destinations);
+            files.increment();
+            bytesIn.add(size);
+            bytesOut.add(written);
+        } catch (IOException ex) {
+            out.failAll(ex);
+            out.discard();
+        } catch (RuntimeException ex) {
+            out.discard();
+            throw ex;
+        }
+        out.getFailures(failures);
+    }
+
+    private long compress(Path source, FileChannel in, FanOut out, long size) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).put(VERSION).putInt(blockSize).putLong(size).flip();
+        long position = write(out, header, 0);
+        List<Long> offsets = new ArrayList<>();
+        List<DeflateAction> batch = new ArrayList<>(window);
+        for (long start = 0; start < size; start += blockSize) {
+            batch.add(new DeflateAction(source, in, start, (int) Math.min(blockSize, size - start)));
+            if (batch.size() == window || start + blockSize >= size) {
+                run(batch);
+                for (DeflateAction block : batch) {
+                    if (block.failure != null) {
+                        throw block.failure;
+                    }
+                    offsets.add(position);
+                    ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_BYTES);
+                    frame.putInt(block.length).putInt(block.storedLength).putInt(block.crc).flip();
+                    position = write(out, frame, position);
+                    position = write(out, ByteBuffer.wrap(block.stored, 0, block.storedLength), position);
+                }
+                batch.clear();
+            }
+        }
+        ByteBuffer index = ByteBuffer.allocate(4 + 8 * offsets.size() + FOOTER_BYTES);
+        index.putInt(offsets.size());
+        for (long offset : offsets) {
+            index.putLong(offset);
+        }
+        index.putLong(position).putInt(MAGIC).flip();
+        return write(out, index, position);
+    }
+
+    /**
+     * Restores a compressed file, inflating its blocks in parallel and writing each straight to its place in target.
+     *
+     * @param scheduler runs the blocks; null to fork them onto the current (or common) pool
+     */
+    public static void decompress(Path compressed, Path target, IoScheduler scheduler) throws IOException {
+        try ( FileChannel in = FileChannel.open(compressed, StandardOpenOption.READ);
+            FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = read(in, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC || header.get() != VERSION) {
+                throw new IOException(compressed + " is not a compressed backup file");
+            }
+            int blockSize = header.getInt();
+            long size = header.getLong();
+            ByteBuffer footer = read(in, in.size() - FOOTER_BYTES, FOOTER_BYTES);
+            long indexOffset = footer.getLong();
+            if (footer.getInt() != MAGIC) {
+                throw new IOException(compressed + " is truncated");
+            }
+            int blocks = read(in, indexOffset, 4).getInt();
+            ByteBuffer index = read(in, indexOffset + 4, 8 * blocks);
+            List<InflateAction> actions = new ArrayList<>(blocks);
+            for (int i = 0; i < blocks; i++) {
+                actions.add(new InflateAction(compressed, in, index.getLong(), out, (long) i * blockSize));
+            }
+            if (scheduler == null) {
+                ForkJoinTask.invokeAll(actions);
+            } else {
+                scheduler.runAll(actions);
+            }
+            for (InflateAction action : actions) {
+                if (action.failure != null) {
+                    throw action.failure;
+                }
+            }
+            if (out.size() != size) {
+                throw new IOException(compressed + " restored to " + out.size() + " bytes instead of " + size);
+            }
+        }
+    }
+
+    public long getFiles() {
+        return files.sum();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    public long getCpuNanos() {
+        return cpuNanos.sum();
+    }
+
+    public String summary() {
+        long in = getBytesIn();
+        double percent = in == 0 ? 100 : 100.0 * getBytesOut() / in;
+        return String.format("%d files compressed, %d bytes into %d (%.1f%% of original), %d ms of compression CPU time",
+            getFiles(), in, getBytesOut(), percent, getCpuNanos() / 1_000_000);
+    }
+
+    private void run(List<DeflateAction> batch) {
+        if (scheduler == null) {
+            ForkJoinTask.invokeAll(batch);
+        } else {
+            scheduler.runAll(batch);
+        }
+    }
+
+    private static long write(FileChannel out, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += out.write(buffer, position);
+        }
+        return position;
+    }
+
+    private static long write(FanOut out, ByteBuffer buffer, long position) throws IOException {
+        int length = buffer.remaining();
+        out.write(buffer, position);
+        return position + length;
+    }
+
+    private static ByteBuffer read(FileChannel in, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file at byte " + (position + buffer.position()));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Thread CPU time where the JVM measures it, wall time where it doesn't (some virtual thread implementations).
+     */
+    private static long cpuTime() {
+        long cpu = THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+        return cpu < 0 ? System.nanoTime() : cpu;
+    }
+
+    private class DeflateAction extends RecursiveAction {
+
+        private final Path source;
+        private final FileChannel in;
+        private final long position;
+        private final int length;
+        private byte[] stored;
+        private int storedLength;
+        private int crc;
+        private IOException failure;
+
+        private DeflateAction(Path source, FileChannel in, long position, int length) {
+            this.source = source;
+            this.in = in;
+            this.position = position;
+            this.length = length;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                //positional reads don't move the shared channel's position, so every block can read at once
+                throttle.acquireBytes(length);
+                ByteBuffer raw = ByteBuffer.allocate(length);
+                while (raw.hasRemaining()) {
+                    if (in.read(raw, position + raw.position()) < 0) {
+                        throw new IOException(source + " ended early at byte " + (position + raw.position()));
+                    }
+                }
+                long started = cpuTime();
+                CRC32 checksum = new CRC32();
+                checksum.update(raw.array(), 0, length);
+                crc = (int) checksum.getValue();
+                Deflater deflater = deflaters.poll();
+                if (deflater == null) {
+                    deflater = new Deflater();
+                }
+                try {
+                    deflater.setInput(raw.array(), 0, length);
+                    deflater.finish();
+                    byte[] buffer = new byte[length];
+                    int compressed = 0;
+                    while (!deflater.finished() && compressed < length) {
+                        compressed += deflater.deflate(buffer, compressed, length - compressed);
+                    }
+                    if (deflater.finished() && compressed < length) {
+                        stored = buffer;
+                        storedLength = compressed;
+                    } else {
+                        //didn't shrink; keep the raw bytes
+                        stored = raw.array();
+                        storedLength = length;
+                    }
+                } finally {
+                    deflater.reset();
+                    deflaters.offer(deflater);
+                }
+                cpuNanos.add(cpuTime() - started);
+            } catch (IOException ex) {
+                failure = ex;
+            }
+        }
+    }
+
+    private static class InflateAction extends RecursiveAction {
+
+        private final Path compressed;
+        private final FileChannel in;
+        private final long frameOffset;
+        private final FileChannel out;
+        private final long targetOffset;
+        private IOException failure;
+
+        private InflateAction(Path compressed, FileChannel in, long frameOffset, FileChannel out, long targetOffset) {
+            this.compressed = compressed;
+            this.in = in;
+            this.frameOffset = frameOffset;
+            this.out = out;
+            this.targetOffset = targetOffset;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                ByteBuffer frame = read(in, frameOffset, FRAME_HEADER_BYTES);
+                int length = frame.getInt();
+                int storedLength = frame.getInt();
+                int crc = frame.getInt();
+                byte[] stored = read(in, frameOffset + FRAME_HEADER_BYTES, storedLength).array();
+                byte[] raw = stored;
+                if (storedLength != length) {
+                    raw = new byte[length];
+                    Inflater inflater = new Inflater();
+                    try {
+                        inflater.setInput(stored);
+                        int inflated = 0;
+                        while (inflated < length && !inflater.finished()) {
+                            int n = inflater.inflate(raw, inflated, length - inflated);
+                            if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                                break;
+                            }
+                            inflated += n;
+                        }
+                        if (inflated != length) {
+                            throw new IOException(compressed + " has a damaged block at byte " + frameOffset);
+                        }
+                    } catch (DataFormatException ex) {
+                        throw new IOException(compressed + " has a damaged block at byte " + frameOffset, ex);
+                    } finally {
+                        inflater.end();
+                    }
+                }
+                CRC32 checksum = new CRC32();
+                checksum.update(raw, 0, length);
+                if ((int) checksum.getValue() != crc) {
+                    throw new IOException(compressed + " failed its checksum in the block at byte " + frameOffset);
+                }
+                write(out, ByteBuffer.wrap(raw, 0, length), targetOffset);
+            } catch (IOException ex) {
+                failure = ex;
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.jeffrpowell.dosbackup;
+
+public enum ChangeDetection {
+    SIZE_AND_MODIFIED_TIME("Size and modified time", true),
+    CONTENT_HASH("Size, modified time and content hash", true),
+    ARCHIVE_BIT("DOS archive bit", false);
+
+    private final String label;
+    private final boolean stateful;
+
+    private ChangeDetection(String label, boolean stateful) {
+        this.label = label;
+        this.stateful = stateful;
+    }
+
+    public boolean isStateful() {
+        return stateful;
+    }
+
+    public ChangeDetector create(BackupState state) {
+        switch (this) {
+            case CONTENT_HASH:
+                return new StateChangeDetector(state, true);
+            case ARCHIVE_BIT:
+                return new ArchiveBitChangeDetector();
+            default:
+                return new StateChangeDetector(state, false);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
@@ -0,0 +1,34 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Decides whether a source file has to be copied to the destination.
+ * The attributes passed in are read once by the caller using {@link #getAttributeType()},
+ * so implementations should avoid touching the file system again for an unchanged file.
+ */
+public interface ChangeDetector {
+
+    Class<? extends BasicFileAttributes> getAttributeType();
+
+    boolean needsCopy(Path source, BasicFileAttributes attributes) throws IOException;
+
+    void copied(Path source, BasicFileAttributes attributes) throws IOException;
+
+    /**
+     * @param contentHash SHA-256 of the whole file, taken while it was copied; null if it wasn't hashed
+     */
+    default void copied(Path source, BasicFileAttributes attributes, byte[] contentHash) throws IOException {
+        copied(source, attributes);
+    }
+
+    /**
+     * @return true if {@link #copied} marks the source itself rather than this destination's records, in which case
+     * a run to several destinations only calls it once every one of them has the file
+     */
+    default boolean isRecordedOnSource() {
+        return false;
+    }
+}
@@ -0,0 +1,308 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Append-only record of the work a run has finished, kept in the destination until the run completes.
+ * A directory is journaled once every file and subdirectory under it is done, so a resumed run can skip whole
+ * subtrees; files are journaled individually so a half-finished directory only re-checks what's left.
+ * Copies are journaled as started before any data moves, which marks a file whose copy was cut off
+ * so the resumed run copies it again instead of trusting whatever made it to the destination.
+ */
+public class CheckpointJournal implements FileForkAction.Checkpoint {
+
+    public static final String FILE_NAME = ".dosbackup-journal";
+    private static final int MAGIC = 0x444f534a;
+    private static final int VERSION = 1;
+    private static final byte DIRECTORY_DONE = 'D';
+    private static final byte FILE_DONE = 'F';
+    private static final byte COPY_STARTED = 'S';
+    private static final long FLUSH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Path journalFile;
+    private final PathIndex doneDirectories;
+    private final Map<String, BackupState.FileState> doneFiles;
+    //files finished under directories that were finished too, which a resumed run never lists
+    private final Map<String, BackupState.FileState> coveredFiles;
+    private final Set<String> interruptedCopies;
+    private final Map<Path, AtomicInteger> pending;
+    private final FileChannel channel;
+    private final DataOutputStream out;
+    private final boolean resumed;
+    private long lastFlush;
+
+    private CheckpointJournal(Path journalFile, PathIndex doneDirectories, Map<String, BackupState.FileState> doneFiles, Map<String, BackupState.FileState> coveredFiles, Set<String> interruptedCopies, boolean append) throws IOException {
+        this.journalFile = journalFile;
+        this.doneDirectories = doneDirectories;
+        this.doneFiles = doneFiles;
+        this.coveredFiles = coveredFiles;
+        this.interruptedCopies = interruptedCopies;
+        this.pending = new ConcurrentHashMap<>();
+        this.resumed = append;
+        if (append) {
+            this.channel = FileChannel.open(journalFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        } else {
+            this.channel = FileChannel.open(journalFile, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.flush();
+        }
+        this.lastFlush = System.nanoTime();
+    }
+
+    /**
+     * @return true if an earlier run to this destination stopped before finishing
+     */
+    public static boolean exists(Path destinationRoot) {
+        return Files.isRegularFile(destinationRoot.resolve(FILE_NAME));
+    }
+
+    /**
+     * @param resume true to pick up the journal an interrupted run left behind; false to discard it and start over
+     */
+    public static CheckpointJournal open(Path destinationRoot, boolean resume) throws IOException {
+        Files.createDirectories(destinationRoot);
+        Path journalFile = destinationRoot.resolve(FILE_NAME);
+        PathIndex doneDirectories = new PathIndex();
+        if (!resume || !Files.isRegularFile(journalFile)) {
+            return new CheckpointJournal(journalFile, doneDirectories, Collections.emptyMap(), Collections.emptyMap(), Collections.emptySet(), false);
+        }
+        List<String> directoryKeys = new ArrayList<>();
+        Map<String, BackupState.FileState> doneFiles = new HashMap<>();
+        Set<String> startedCopies = new HashSet<>();
+        try ( DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journalFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                //unknown format; start over rather than trust it
+                return new CheckpointJournal(journalFile, doneDirectories, Collections.emptyMap(), Collections.emptyMap(), Collections.emptySet(), false);
+            }
+            while (true) {
+                int type = in.read();
+                if (type < 0) {
+                    break;
+                }
+                String key = in.readUTF();
+                if (type == DIRECTORY_DONE) {
+                    doneDirectories.add(Paths.get(key));
+                    directoryKeys.add(key);
+                } else if (type == FILE_DONE) {
+                    doneFiles.put(key, new BackupState.FileState(in.readLong(), in.readLong(), null));
+                    startedCopies.remove(key);
+                } else if (type == COPY_STARTED) {
+                    startedCopies.add(key);
+                } else {
+                    break;
+                }
+            }
+        } catch (EOFException | UTFDataFormatException ex) {
+            //the last record was cut off when the previous run died; everything before it still counts
+        }
+        //anything under a finished directory is covered by the directory's own record
+        directoryKeys.removeIf(key -> isUnder(doneDirectories, key));
+        Map<String, BackupState.FileState> coveredFiles = new HashMap<>();
+        for (Iterator<Map.Entry<String, BackupState.FileState>> it = doneFiles.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, BackupState.FileState> done = it.next();
+            if (isUnder(doneDirectories, done.getKey())) {
+                coveredFiles.put(done.getKey(), done.getValue());
+                it.remove();
+            }
+        }
+        startedCopies.removeIf(key -> isUnder(doneDirectories, key));
+        compact(journalFile, directoryKeys, doneFiles, startedCopies);
+        return new CheckpointJournal(journalFile, doneDirectories, doneFiles, coveredFiles, startedCopies, true);
+    }
+
+    private static boolean isUnder(PathIndex doneDirectories, String key) {
+        Path parent = Paths.get(key).getParent();
+        return parent != null && doneDirectories.isAdded(parent);
+    }
+
+    /**
+     * Rewrites the journal with only what the resumed run still needs, which also drops any torn record at the end
+     * so new records can be appended after it.
+     */
+    private static void compact(Path journalFile, List<String> directoryKeys, Map<String, BackupState.FileState> doneFiles, Set<String> startedCopies) throws IOException {
+        Path tempFile = journalFile.resolveSibling(FILE_NAME + ".tmp");
+        try ( DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (String key : directoryKeys) {
+                out.writeByte(DIRECTORY_DONE);
+                out.writeUTF(key);
+            }
+            for (Map.Entry<String, BackupState.FileState> entry : doneFiles.entrySet()) {
+                writeFileDone(out, entry.getKey(), entry.getValue().getSize(), entry.getValue().getModified());
+            }
+            for (String key : startedCopies) {
+                out.writeByte(COPY_STARTED);
+                out.writeUTF(key);
+            }
+        }
+        Files.move(tempFile, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeFileDone(DataOutputStream out, String key, long size, long modified) throws IOException {
+        out.writeByte(FILE_DONE);
+        out.writeUTF(key);
+        out.writeLong(size);
+        out.writeLong(modified);
+    }
+
+    @Override
+    public boolean isDirectoryDone(Path directory) {
+        return doneDirectories.isAdded(directory);
+    }
+
+    @Override
+    public void childrenFound(Path directory, int children) {
+        //the extra one holds the directory open until its listing is finished
+        pending.computeIfAbsent(directory, d -> new AtomicInteger(1)).addAndGet(children);
+    }
+
+    @Override
+    public void directoryListed(Path directory) throws IOException {
+        if (pending.containsKey(directory)) {
+            childDone(directory);
+        } else {
+            directoryDone(directory);
+        }
+    }
+
+    /**
+     * @return true if an earlier run finished this file and it hasn't changed since
+     */
+    public boolean isFileDone(Path file, BasicFileAttributes attributes) {
+        BackupState.FileState done = doneFiles.get(BackupState.keyOf(file));
+        return done != null && done.getSize() == attributes.size() && done.getModified() == BackupState.modifiedTime(attributes);
+    }
+
+    /**
+     * @return true if an earlier run started copying this file but never finished, so the destination can't be trusted
+     */
+    public boolean isCopyInterrupted(Path file) {
+        return interruptedCopies.contains(BackupState.keyOf(file));
+    }
+
+    /**
+     * Written through to the file before returning, since a crash part way through the copy is exactly when the
+     * record is needed; the other records can wait for the next periodic flush.
+     */
+    public void copyStarted(Path file) throws IOException {
+        synchronized (out) {
+            out.writeByte(COPY_STARTED);
+            out.writeUTF(BackupState.keyOf(file));
+            out.flush();
+            flushPeriodically();
+        }
+    }
+
+    /**
+     * Called once the file is copied or confirmed unchanged.
+     */
+    public void fileDone(Path file, BasicFileAttributes attributes) throws IOException {
+        synchronized (out) {
+            writeFileDone(out, BackupState.keyOf(file), attributes.size(), BackupState.modifiedTime(attributes));
+            flushPeriodically();
+        }
+        childDone(file.getParent());
+    }
+
+    /**
+     * Called for a file the journal already proves done; nothing new is written for it.
+     */
+    public void fileSkipped(Path file) throws IOException {
+        childDone(file.getParent());
+    }
+
+    private void childDone(Path directory) throws IOException {
+        AtomicInteger remaining = pending.get(directory);
+        //roots have no tracked parent
+        if (remaining != null && remaining.decrementAndGet() == 0) {
+            pending.remove(directory);
+            directoryDone(directory);
+        }
+    }
+
+    private void directoryDone(Path directory) throws IOException {
+        synchronized (out) {
+            out.writeByte(DIRECTORY_DONE);
+            out.writeUTF(BackupState.keyOf(directory));
+            flushPeriodically();
+        }
+        if (directory.getParent() != null) {
+            childDone(directory.getParent());
+        }
+    }
+
+    private void flushPeriodically() throws IOException {
+        long now = System.nanoTime();
+        if (now - lastFlush > FLUSH_INTERVAL_NANOS) {
+            out.flush();
+            //once a second, so a power cut costs at most that much of the journal without a sync for every record
+            channel.force(false);
+            lastFlush = now;
+        }
+    }
+
+    /**
+     * Puts state entries back for the files under directories this run skipped because the interrupted run finished
+     * them; without them a completed run would save a state that has forgotten those files. A file the interrupted
+     * run journaled gets the size and modified time it was copied with, and the rest keep their previous entry.
+     */
+    public void carryOverSkipped(BackupState state) {
+        if (doneDirectories.getAddedCount() == 0) {
+            return;
+        }
+        state.carryOverSkipped(key -> doneDirectories.isAddedOrUnder(Paths.get(key)), coveredFiles);
+    }
+
+    /**
+     * @return what was picked up from an interrupted run, including what the index of its finished directories
+     * costs in memory; null if this run started from scratch
+     */
+    public String resumeSummary() {
+        if (!resumed) {
+            return null;
+        }
+        return String.format("resumed with %d directories and %d files already done; finished directory index: %s",
+            doneDirectories.getAddedCount(), doneFiles.size(), doneDirectories.memoryReport());
+    }
+
+    /**
+     * @param complete true if the run finished, in which case the journal has nothing left to resume and is deleted
+     */
+    public void close(boolean complete) throws IOException {
+        synchronized (out) {
+            out.close();
+        }
+        if (complete) {
+            Files.deleteIfExists(journalFile);
+        }
+    }
+}
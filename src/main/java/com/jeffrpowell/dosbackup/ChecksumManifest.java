@@ -0,0 +1,102 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The checksum of every file copied with checksums on, kept next to {@link BackupState} in the destination root and
+ * keyed the same way, which is also each file's path relative to the destination root.
+ * Entries from earlier runs are kept until the file is copied again.
+ */
+public class ChecksumManifest {
+
+    public static final String FILE_NAME = ".dosbackup-checksums";
+    private static final int MAGIC = 0x444f5343;
+    private static final int VERSION = 1;
+
+    private final Path manifestFile;
+    private final Map<String, CopyChecksum> previous;
+    private final Map<String, CopyChecksum> current;
+
+    private ChecksumManifest(Path manifestFile, Map<String, CopyChecksum> previous) {
+        this.manifestFile = manifestFile;
+        this.previous = previous;
+        this.current = new ConcurrentHashMap<>();
+    }
+
+    public static ChecksumManifest load(Path destinationRoot) throws IOException {
+        Path manifestFile = destinationRoot.resolve(FILE_NAME);
+        if (!Files.isRegularFile(manifestFile)) {
+            return new ChecksumManifest(manifestFile, Collections.emptyMap());
+        }
+        Map<String, CopyChecksum> entries = new HashMap<>();
+        try ( DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(manifestFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                //unknown format; start over rather than trust it
+                return new ChecksumManifest(manifestFile, Collections.emptyMap());
+            }
+            while (true) {
+                String key;
+                try {
+                    key = in.readUTF();
+                } catch (EOFException ex) {
+                    break;
+                }
+                long segmentSize = in.readLong();
+                byte[] hash = new byte[in.readUnsignedByte()];
+                in.readFully(hash);
+                entries.put(key, new CopyChecksum(segmentSize, hash));
+            }
+        }
+        return new ChecksumManifest(manifestFile, entries);
+    }
+
+    /**
+     * @return the checksum an earlier run recorded, or null
+     */
+    public CopyChecksum getPrevious(Path source) {
+        return previous.get(BackupState.keyOf(source));
+    }
+
+    public void record(Path source, CopyChecksum checksum) {
+        current.put(BackupState.keyOf(source), checksum);
+    }
+
+    /**
+     * @return checksums taken during this run, by destination-relative path
+     */
+    public Map<String, CopyChecksum> getRecorded() {
+        return current;
+    }
+
+    public void save() throws IOException {
+        if (current.isEmpty()) {
+            return;
+        }
+        Map<String, CopyChecksum> toWrite = new HashMap<>(previous);
+        toWrite.putAll(current);
+        Path tempFile = manifestFile.resolveSibling(FILE_NAME + ".tmp");
+        try ( DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (Map.Entry<String, CopyChecksum> entry : toWrite.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().getSegmentSize());
+                out.writeByte(entry.getValue().getHash().length);
+                out.write(entry.getValue().getHash());
+            }
+        }
+        Files.move(tempFile, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
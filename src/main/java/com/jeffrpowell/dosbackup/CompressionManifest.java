@@ -0,0 +1,113 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Which destination files were written in {@link BlockCompressor}'s format, kept next to {@link BackupState} in the
+ * destination root and keyed the same way, which is also each file's path relative to the destination root.
+ * Restore goes by this rather than by a file's first bytes, since a backed-up file can start with anything.
+ */
+public class CompressionManifest {
+
+    public static final String FILE_NAME = ".dosbackup-compressed";
+    private static final int MAGIC = 0x444f535a;
+    private static final int VERSION = 1;
+
+    private final Path manifestFile;
+    private final Set<String> previous;
+    private final Set<String> compressed;
+    private final Set<String> uncompressed;
+
+    private CompressionManifest(Path manifestFile, Set<String> previous) {
+        this.manifestFile = manifestFile;
+        this.previous = previous;
+        this.compressed = ConcurrentHashMap.newKeySet();
+        this.uncompressed = ConcurrentHashMap.newKeySet();
+    }
+
+    public static CompressionManifest load(Path destinationRoot) throws IOException {
+        Path manifestFile = destinationRoot.resolve(FILE_NAME);
+        if (!Files.isRegularFile(manifestFile)) {
+            return new CompressionManifest(manifestFile, Collections.emptySet());
+        }
+        Set<String> keys = new HashSet<>();
+        try ( DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(manifestFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(manifestFile + " is not a compression manifest this version can read");
+            }
+            while (true) {
+                try {
+                    keys.add(in.readUTF());
+                } catch (EOFException ex) {
+                    break;
+                }
+            }
+        }
+        return new CompressionManifest(manifestFile, keys);
+    }
+
+    /**
+     * Finds the manifest of the backup that path is in by looking in it and each of its parent directories.
+     *
+     * @return null if none of them has one, in which case nothing in the backup was compressed
+     */
+    public static CompressionManifest find(Path path) throws IOException {
+        for (Path directory = path.toAbsolutePath(); directory != null; directory = directory.getParent()) {
+            if (Files.isRegularFile(directory.resolve(FILE_NAME))) {
+                return load(directory);
+            }
+        }
+        return null;
+    }
+
+    public void copied(Path source, boolean compressedCopy) {
+        String key = BackupState.keyOf(source);
+        if (compressedCopy) {
+            compressed.add(key);
+            uncompressed.remove(key);
+        } else if (previous.contains(key) || compressed.contains(key)) {
+            //a plain copy replaced one that was compressed
+            compressed.remove(key);
+            uncompressed.add(key);
+        }
+    }
+
+    /**
+     * @param file a file in the destination this manifest belongs to
+     */
+    public boolean isCompressed(Path file) {
+        Path relative = manifestFile.getParent().relativize(file.toAbsolutePath());
+        String key = relative.toString();
+        return compressed.contains(key) || (previous.contains(key) && !uncompressed.contains(key));
+    }
+
+    public void save() throws IOException {
+        if (compressed.isEmpty() && uncompressed.isEmpty()) {
+            return;
+        }
+        Set<String> toWrite = new HashSet<>(previous);
+        toWrite.removeAll(uncompressed);
+        toWrite.addAll(compressed);
+        Path tempFile = manifestFile.resolveSibling(FILE_NAME + ".tmp");
+        try ( DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (String key : toWrite) {
+                out.writeUTF(key);
+            }
+        }
+        Files.move(tempFile, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
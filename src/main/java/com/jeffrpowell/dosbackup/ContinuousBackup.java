@@ -0,0 +1,98 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Backs up the sources once, then keeps watching them and backs up only the directories that changed, so once the
+ * first run is done the cost follows how much changes rather than how big the sources are.
+ */
+public class ContinuousBackup {
+
+    private final Set<Path> paths;
+    private final List<Path> destinations;
+    private final BackupOptions options;
+    private final Throttle throttle;
+    private volatile BackupEngine currentEngine;
+    private volatile SourceWatcher watcher;
+    private volatile boolean cancelled;
+
+    public ContinuousBackup(Set<Path> paths, List<Path> destinations, BackupOptions options) {
+        this.paths = paths;
+        this.destinations = destinations;
+        this.options = options;
+        this.throttle = new Throttle(options);
+        this.currentEngine = new BackupEngine(paths, destinations, options, throttle);
+    }
+
+    /**
+     * Runs until {@link #cancel()} is called.
+     *
+     * @param results gets the result of the first full run and of every run after it
+     */
+    public void run(Consumer<BackupResult> results) throws IOException {
+        try ( SourceWatcher sourceWatcher = new SourceWatcher(options.getWatchSettleMillis(), options.getPathFilter())) {
+            watcher = sourceWatcher;
+            //watch before the first run so nothing that changes while it runs is missed
+            for (Path path : paths) {
+                sourceWatcher.watchTree(path);
+            }
+            if (cancelled) {
+                return;
+            }
+            results.accept(currentEngine.run());
+            while (!cancelled) {
+                SourceWatcher.Batch batch = sourceWatcher.nextBatch();
+                if (batch == null || cancelled) {
+                    return;
+                }
+                if (batch.isEmpty()) {
+                    continue;
+                }
+                BackupEngine engine = BackupEngine.incremental(batch.getDeep(), batch.getShallow(), destinations, options, throttle);
+                currentEngine = engine;
+                if (cancelled) {
+                    //cancel() may have read the previous engine, so this one would never be told
+                    return;
+                }
+                results.accept(engine.run());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void cancel() {
+        cancelled = true;
+        SourceWatcher current = watcher;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException ex) {
+                ex.printStackTrace(System.err);
+            }
+        }
+        currentEngine.cancel();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return the engine running now, or the one that ran last
+     */
+    public BackupEngine getCurrentEngine() {
+        return currentEngine;
+    }
+
+    /**
+     * Shared by every run, so limits can be changed at any time.
+     */
+    public Throttle getThrottle() {
+        return throttle;
+    }
+}
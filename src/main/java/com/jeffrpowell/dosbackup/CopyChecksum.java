@@ -0,0 +1,136 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * SHA-256 of a file's content, taken from the bytes as they were copied. A file copied in chunks is hashed one
+ * segment per chunk, and its checksum is the SHA-256 of the segment hashes in order, so both the copy and a later
+ * verification can hash the segments in parallel. A whole-file checksum is the same value {@link ContentHash} computes.
+ */
+public class CopyChecksum {
+
+    private final long segmentSize;
+    private final byte[] hash;
+
+    /**
+     * @param segmentSize 0 if the file was hashed in one pass
+     */
+    public CopyChecksum(long segmentSize, byte[] hash) {
+        this.segmentSize = segmentSize;
+        this.hash = hash;
+    }
+
+    public static CopyChecksum ofSegments(long segmentSize, List<byte[]> segmentHashes) {
+        MessageDigest digest = ContentHash.newDigest();
+        for (byte[] segmentHash : segmentHashes) {
+            digest.update(segmentHash);
+        }
+        return new CopyChecksum(segmentSize, digest.digest());
+    }
+
+    public long getSegmentSize() {
+        return segmentSize;
+    }
+
+    public boolean isWholeFile() {
+        return segmentSize == 0;
+    }
+
+    public byte[] getHash() {
+        return hash;
+    }
+
+    public boolean matches(CopyChecksum other) {
+        return segmentSize == other.segmentSize && Arrays.equals(hash, other.hash);
+    }
+
+    /**
+     * Re-reads file the same way the checksum was taken, hashing segments in parallel.
+     *
+     * @param scheduler runs the segments; null to fork them onto the current pool
+     */
+    public static CopyChecksum compute(Path file, long segmentSize, IoScheduler scheduler, Throttle throttle) throws IOException {
+        try ( FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = in.size();
+            if (segmentSize == 0) {
+                return new CopyChecksum(0, hashRange(in, 0, size, throttle));
+            }
+            List<SegmentHashAction> segments = new ArrayList<>();
+            for (long position = 0; position < size; position += segmentSize) {
+                segments.add(new SegmentHashAction(in, position, Math.min(segmentSize, size - position), throttle));
+            }
+            if (scheduler == null) {
+                ForkJoinTask.invokeAll(segments);
+            } else {
+                scheduler.runAll(segments);
+            }
+            List<byte[]> hashes = new ArrayList<>(segments.size());
+            for (SegmentHashAction segment : segments) {
+                if (segment.failure != null) {
+                    throw segment.failure;
+                }
+                hashes.add(segment.hash);
+            }
+            return ofSegments(segmentSize, hashes);
+        }
+    }
+
+    /**
+     * Positional reads, so any number of ranges of one channel can be hashed at once.
+     */
+    private static byte[] hashRange(FileChannel in, long position, long count, Throttle throttle) throws IOException {
+        MessageDigest digest = ContentHash.newDigest();
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(Throttle.SLICE_BYTES, Math.max(1, count)));
+        long read = 0;
+        while (read < count) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), count - read));
+            throttle.acquireBytes(buffer.remaining());
+            int n = in.read(buffer, position + read);
+            if (n < 0) {
+                //shorter than expected; hash what's there and let the comparison fail
+                break;
+            }
+            buffer.flip();
+            digest.update(buffer);
+            read += n;
+        }
+        return digest.digest();
+    }
+
+    private static class SegmentHashAction extends RecursiveAction {
+
+        private final FileChannel in;
+        private final long position;
+        private final long count;
+        private final Throttle throttle;
+        private byte[] hash;
+        private IOException failure;
+
+        private SegmentHashAction(FileChannel in, long position, long count, Throttle throttle) {
+            this.in = in;
+            this.position = position;
+            this.count = count;
+            this.throttle = throttle;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                hash = hashRange(in, position, count, throttle);
+            } catch (IOException ex) {
+                failure = ex;
+            }
+        }
+    }
+}
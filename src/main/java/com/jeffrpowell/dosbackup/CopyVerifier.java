@@ -0,0 +1,60 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Re-reads destination files after the copies are done and compares them with the checksums taken while copying.
+ */
+public class CopyVerifier {
+
+    private final IoScheduler scheduler;
+    private final Throttle throttle;
+    private final LongAdder files;
+    private final LongAdder bytes;
+    private final LongAdder mismatches;
+    private long started;
+    private long finished;
+
+    public CopyVerifier(IoScheduler scheduler, Throttle throttle) {
+        this.scheduler = scheduler;
+        this.throttle = throttle;
+        this.files = new LongAdder();
+        this.bytes = new LongAdder();
+        this.mismatches = new LongAdder();
+    }
+
+    public void start() {
+        started = System.nanoTime();
+    }
+
+    public void finish() {
+        finished = System.nanoTime();
+    }
+
+    /**
+     * @return false if the destination no longer matches what was copied
+     */
+    public boolean verify(Path destination, CopyChecksum expected) throws IOException {
+        CopyChecksum actual = CopyChecksum.compute(destination, expected.getSegmentSize(), scheduler, throttle);
+        files.increment();
+        bytes.add(Files.size(destination));
+        if (!actual.matches(expected)) {
+            mismatches.increment();
+            return false;
+        }
+        return true;
+    }
+
+    public long getMismatches() {
+        return mismatches.sum();
+    }
+
+    public String summary() {
+        long nanos = Math.max(1, finished - started);
+        return String.format("%d files verified, %d bytes re-read at %d bytes/s, %d mismatches",
+            files.sum(), bytes.sum(), (long) (bytes.sum() * 1e9 / nanos), getMismatches());
+    }
+}
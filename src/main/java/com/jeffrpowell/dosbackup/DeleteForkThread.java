@@ -9,12 +9,25 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.RecursiveAction;
 
+/**
+ * Deletes a directory tree, forking subdirectories onto whichever pool runs it. Normally only run by
+ * {@link TrashCollector} on its background thread, against a tree that has already been renamed into the trash.
+ */
 public class DeleteForkThread extends RecursiveAction {
 
     private final Path root;
+    private final Throttle throttle;
 
     public DeleteForkThread(Path root) {
+        this(root, null);
+    }
+
+    /**
+     * @param throttle takes one operation per file and directory deleted; may be null
+     */
+    public DeleteForkThread(Path root, Throttle throttle) {
         this.root = root;
+        this.throttle = throttle;
     }
 
     @Override
@@ -22,19 +35,27 @@ public class DeleteForkThread extends RecursiveAction {
         try ( DirectoryStream<Path> ds = Files.newDirectoryStream(root)) {
             List<DeleteForkThread> directories = new ArrayList<>();
             for (Path child : ds) {
-                if (Files.isRegularFile(child)) {
+                if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                    directories.add(new DeleteForkThread(child, throttle));
+                } else {
+                    //files, and links without following them
+                    throttle();
                     Files.delete(child);
-                } else if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
-                    directories.add(new DeleteForkThread(child));
                 }
             }
             if (!directories.isEmpty()) {
                 invokeAll(directories);
             }
+            throttle();
             Files.delete(root);
         } catch (IOException ex) {
             System.err.println("Exception occurred at " + root + " while deleting destination files. " + ex.getMessage());
         }
     }
 
+    private void throttle() throws IOException {
+        if (throttle != null) {
+            throttle.acquireOperation();
+        }
+    }
 }
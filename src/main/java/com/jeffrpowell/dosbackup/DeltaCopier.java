@@ -0,0 +1,234 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Brings an existing destination file up to date by rewriting only the blocks that differ from the source, for big
+ * files that change a little at a time, such as databases and disk images.
+ * <p>
+ * This is not rsync's algorithm: there is no rolling checksum and no strong hash of blocks. Both copies are on local
+ * disks, so each block is read from both files and the raw bytes are compared directly, which is exact and cheaper
+ * than hashing both sides. Blocks are compared only at the same offset in both files, so data that shifted is
+ * rewritten rather than found; it would have to be rewritten in place anyway. The file is split into the
+ * same chunks as a chunked copy and the chunks are compared in parallel. Several copies of the same file, one per
+ * destination, are all updated from a single read of the source.
+ * <p>
+ * Writes go straight into the destination, so a run cut off part way leaves a file that is neither the old nor the
+ * new version. That's safe because the change detector only records a file once its copy has finished, and the
+ * checkpoint journal marks the copy as interrupted.
+ */
+public class DeltaCopier {
+
+    private final int blockSize;
+    private final long chunkSize;
+    private final IoScheduler scheduler;
+    private final Throttle throttle;
+    private final boolean checksums;
+    private final LongAdder files;
+    private final LongAdder bytesCompared;
+    private final LongAdder bytesRead;
+    private final LongAdder bytesWritten;
+
+    /**
+     * @param scheduler runs the chunks; null to fork them onto the current pool
+     * @param checksums true to hash the source as it's read, the way {@link FileCopier} does for a full copy
+     */
+    public DeltaCopier(BackupOptions options, IoScheduler scheduler, Throttle throttle, boolean checksums) {
+        this.blockSize = options.getDeltaBlockSize();
+        this.chunkSize = options.getLargeFileChunkSize();
+        this.scheduler = scheduler;
+        this.throttle = throttle;
+        this.checksums = checksums;
+        this.files = new LongAdder();
+        this.bytesCompared = new LongAdder();
+        this.bytesRead = new LongAdder();
+        this.bytesWritten = new LongAdder();
+    }
+
+    /**
+     * @param destination must already exist; it's truncated or extended to the source's size
+     * @return the checksum of the source, or null if checksums are off
+     */
+    public CopyChecksum copy(Path source, Path destination, long size) throws IOException {
+        IOException[] failures = new IOException[1];
+        CopyChecksum checksum = copy(source, Collections.singletonList(destination), size, failures);
+        if (failures[0] != null) {
+            throw failures[0];
+        }
+        return checksum;
+    }
+
+    /**
+     * Updates several existing copies from one read of the source.
+     *
+     * @param failures gets the exception for each destination that failed, at the same index; the rest are left null
+     * @return the checksum of the source, or null if checksums are off or every destination failed
+     */
+    public CopyChecksum copy(Path source, List<Path> destinations, long size, IOException[] failures) {
+        List<RangeDeltaAction> ranges = new ArrayList<>();
+        FanOut targets = FanOut.open(destinations, scheduler, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try ( targets) {
+            try {
+                long[] existing = new long[destinations.size()];
+                targets.each((destination, channel) -> {
+                    if (channel.size() > size) {
+                        channel.truncate(size);
+                    }
+                    existing[destination] = channel.size();
+                });
+                //an empty file still gets one range, so it's hashed like any other
+                long position = 0;
+                do {
+                    ranges.add(new RangeDeltaAction(source, targets, existing, position, Math.min(chunkSize, size - position)));
+                    position += chunkSize;
+                } while (position < size);
+                if (scheduler == null) {
+                    ForkJoinTask.invokeAll(ranges);
+                } else {
+                    scheduler.runAll(ranges);
+                }
+                for (RangeDeltaAction range : ranges) {
+                    if (range.failure != null) {
+                        throw range.failure;
+                    }
+                }
+            } catch (IOException ex) {
+                targets.failAll(ex);
+            }
+        }
+        //read once closed, since a copy that can't be closed counts as failed
+        targets.getFailures(failures);
+        boolean updated = false;
+        for (IOException failure : failures) {
+            updated |= failure == null;
+        }
+        if (!updated) {
+            return null;
+        }
+        files.increment();
+        bytesCompared.add(size);
+        if (!checksums) {
+            return null;
+        }
+        if (ranges.size() == 1) {
+            return new CopyChecksum(0, ranges.get(0).hash);
+        }
+        List<byte[]> hashes = new ArrayList<>(ranges.size());
+        for (RangeDeltaAction range : ranges) {
+            hashes.add(range.hash);
+        }
+        return CopyChecksum.ofSegments(chunkSize, hashes);
+    }
+
+    public long getFiles() {
+        return files.sum();
+    }
+
+    /**
+     * @return bytes read from both the sources and the destination copies
+     */
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    public String summary() {
+        long compared = bytesCompared.sum();
+        double percent = compared == 0 ? 0 : 100.0 * getBytesWritten() / compared;
+        return String.format("%d delta updates of %d bytes read %d bytes and wrote %d (%.1f%%)",
+            getFiles(), compared, getBytesRead(), getBytesWritten(), percent);
+    }
+
+    /**
+     * @return how many bytes were read, which is fewer than length only at the end of the file
+     */
+    private static int readFully(FileChannel channel, ByteBuffer buffer, long position, int length) throws IOException {
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer.remaining();
+    }
+
+    private class RangeDeltaAction extends RecursiveAction {
+
+        private final Path source;
+        private final FanOut targets;
+        private final long[] existing;
+        private final long position;
+        private final long count;
+        private byte[] hash;
+        private IOException failure;
+
+        /**
+         * @param existing how much of each target is left from the previous copy
+         */
+        private RangeDeltaAction(Path source, FanOut targets, long[] existing, long position, long count) {
+            this.source = source;
+            this.targets = targets;
+            this.existing = existing;
+            this.position = position;
+            this.count = count;
+        }
+
+        @Override
+        protected void compute() {
+            try ( FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+                MessageDigest digest = checksums ? ContentHash.newDigest() : null;
+                ByteBuffer wanted = ByteBuffer.allocate((int) Math.min(blockSize, Math.max(1, count)));
+                ByteBuffer current = ByteBuffer.allocate(wanted.capacity());
+                long[] read = new long[1];
+                long[] written = new long[1];
+                for (long offset = position; offset < position + count; offset += blockSize) {
+                    int length = (int) Math.min(blockSize, position + count - offset);
+                    throttle.acquireBytes(length);
+                    if (readFully(in, wanted, offset, length) < length) {
+                        throw new IOException(source + " ended early at byte " + (offset + wanted.remaining()));
+                    }
+                    if (digest != null) {
+                        digest.update(wanted.duplicate());
+                    }
+                    read[0] += length;
+                    long blockOffset = offset;
+                    targets.each((destination, target) -> {
+                        long left = existing[destination] - blockOffset;
+                        int old = left > 0 ? readFully(target, current, blockOffset, (int) Math.min(length, left)) : 0;
+                        read[0] += old;
+                        if (old < length || !wanted.equals(current)) {
+                            ByteBuffer block = wanted.duplicate();
+                            while (block.hasRemaining()) {
+                                target.write(block, blockOffset + block.position());
+                            }
+                            written[0] += length;
+                        }
+                    });
+                }
+                bytesRead.add(read[0]);
+                bytesWritten.add(written[0]);
+                if (digest != null) {
+                    hash = digest.digest();
+                }
+            } catch (IOException ex) {
+                failure = ex;
+            }
+        }
+    }
+}
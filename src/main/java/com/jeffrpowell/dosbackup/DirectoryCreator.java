@@ -0,0 +1,61 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers which destination directories are known to exist, so each one is created (or found) once per run
+ * instead of once per file copied into it.
+ */
+public class DirectoryCreator {
+
+    private final Set<Path> knownDirectories;
+    private final BackupStats stats;
+
+    public DirectoryCreator() {
+        this(null);
+    }
+
+    /**
+     * @param stats gets the time spent creating directories; may be null
+     */
+    public DirectoryCreator(BackupStats stats) {
+        this.knownDirectories = ConcurrentHashMap.newKeySet();
+        this.stats = stats;
+    }
+
+    public void ensureCreated(Path directory) throws IOException {
+        if (directory == null || knownDirectories.contains(directory)) {
+            return;
+        }
+        ensureCreated(directory.getParent());
+        BackupEvents.DirectoryCreated event = new BackupEvents.DirectoryCreated();
+        event.begin();
+        long started = System.nanoTime();
+        try {
+            Files.createDirectory(directory);
+        } catch (FileAlreadyExistsException ex) {
+            //created by an earlier run or by another worker; only a problem if it's not a directory
+            if (!Files.isDirectory(directory)) {
+                throw ex;
+            }
+        }
+        if (stats != null) {
+            stats.stageTime(BackupStats.Stage.CREATE_DIRECTORY, System.nanoTime() - started);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = directory.toString();
+            event.commit();
+        }
+        knownDirectories.add(directory);
+    }
+
+    public int getKnownDirectoryCount() {
+        return knownDirectories.size();
+    }
+}
@@ -0,0 +1,240 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lists one source directory and hands each entry to a listener as soon as it's read, so nothing about the source
+ * side is held in memory. When mirroring, the same listing is diffed against every destination directory at once,
+ * so a file missing from any one of them is found without listing the sources again for it.
+ * <p>
+ * Each destination is listed first into a map of names (and whether each is a directory), but only up to
+ * {@link #MAX_MAPPED_DESTINATIONS} of them. A destination wider than that isn't held at all: each source entry's
+ * counterpart is looked up with its own stat, and a second listing of the destination finds the stale entries by
+ * looking each one up in the source. That costs two extra stats per entry, and only for directories that wide, in
+ * exchange for memory that stays the same however wide they get.
+ */
+public class DirectoryDiff {
+
+    public enum Decision {
+        /** Source file with nothing at one or more of the destinations; copied to those whatever has changed */
+        COPY,
+        /** Source file that already exists at every destination; the change detector decides whether to copy or skip it */
+        COMPARE,
+        /** Source directory to recurse into */
+        DESCEND,
+        /** Destination entry with no source counterpart */
+        DELETE
+    }
+
+    public interface Listener {
+
+        /**
+         * Called from the thread doing the listing, in directory order rather than sorted.
+         *
+         * @param decision {@link Decision#COPY} or {@link Decision#COMPARE} for a file, {@link Decision#DESCEND} for a directory
+         * @param attributes read once while listing
+         * @param missing for a file, one bit for each destination directory, by index, with nothing in its place
+         */
+        void accept(Decision decision, Path source, BasicFileAttributes attributes, long missing);
+
+        /**
+         * A {@link Decision#DELETE}. A destination entry of the wrong kind (a directory where the source has a file,
+         * or the other way round) is reported just before the source entry that replaces it; the rest once the
+         * whole source directory has been listed.
+         *
+         * @param destinationIndex which of the destination directories it's in
+         */
+        void stale(Path destination, int destinationIndex);
+    }
+
+    /**
+     * How many destination entries one diff keeps in memory (a few MB at most) before it looks them up instead.
+     */
+    public static final int MAX_MAPPED_DESTINATIONS = 16_384;
+    /**
+     * Destination directories one diff can tell apart, one bit of {@link Listener#accept}'s missing mask each.
+     */
+    public static final int MAX_DESTINATIONS = Long.SIZE;
+
+    private DirectoryDiff() {
+    }
+
+    /**
+     * Without any destination directories every regular file is reported as {@link Decision#COMPARE}.
+     *
+     * @param destinationDirs destination counterparts of sourceDir; they don't have to exist yet
+     * @return the number of attribute reads (stat calls) it took, for the run stats
+     */
+    public static int diff(Path sourceDir, List<Path> destinationDirs, Listener listener) throws IOException {
+        return diff(sourceDir, destinationDirs, listener, MAX_MAPPED_DESTINATIONS);
+    }
+
+    static int diff(Path sourceDir, List<Path> destinationDirs, Listener listener, int maxMappedDestinations) throws IOException {
+        if (destinationDirs.size() > MAX_DESTINATIONS) {
+            throw new IllegalArgumentException("A diff takes at most " + MAX_DESTINATIONS + " destination directories");
+        }
+        int count = destinationDirs.size();
+        int stats = 0;
+        //keyed by name alone, so a source entry finds its counterpart without building the destination path;
+        //null for a destination too wide to map
+        List<Map<Path, Boolean>> mapped = new ArrayList<>(count);
+        for (Path destinationDir : destinationDirs) {
+            Map<Path, Boolean> destinations = new HashMap<>();
+            stats += list(destinationDir, false, (destination, attributes) -> {
+                destinations.put(destination.getFileName(), attributes.isDirectory());
+                return destinations.size() <= maxMappedDestinations;
+            });
+            mapped.add(destinations.size() > maxMappedDestinations ? null : destinations);
+        }
+        int[] extraStats = new int[1];
+        Boolean[] destinationIsDirectory = new Boolean[count];
+        stats += list(sourceDir, true, (source, attributes) -> {
+            Path name = source.getFileName();
+            for (int i = 0; i < count; i++) {
+                Map<Path, Boolean> destinations = mapped.get(i);
+                if (destinations != null) {
+                    destinationIsDirectory[i] = destinations.remove(name);
+                } else {
+                    extraStats[0]++;
+                    destinationIsDirectory[i] = isDirectory(destinationDirs.get(i).resolve(name));
+                }
+            }
+            extraStats[0] += emitSource(source, attributes, destinationDirs, destinationIsDirectory, listener);
+            return true;
+        });
+        for (int i = 0; i < count; i++) {
+            Path destinationDir = destinationDirs.get(i);
+            int destinationIndex = i;
+            if (mapped.get(i) != null) {
+                for (Path name : mapped.get(i).keySet()) {
+                    listener.stale(destinationDir.resolve(name), destinationIndex);
+                }
+                continue;
+            }
+            stats += list(destinationDir, false, (destination, attributes) -> {
+                extraStats[0]++;
+                if (isDirectory(sourceDir.resolve(destination.getFileName())) == null) {
+                    listener.stale(destination, destinationIndex);
+                }
+                return true;
+            });
+        }
+        return stats + extraStats[0];
+    }
+
+    /**
+     * @return null if nothing is there, without following links
+     */
+    private static Boolean isDirectory(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isDirectory();
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * A link to a regular file is backed up as the file it points to, with that file's attributes; links to
+     * directories aren't followed.
+     *
+     * @param destinationIsDirectory for each destination directory; null if there's nothing there
+     * @return the number of extra attribute reads it took to follow a link
+     */
+    private static int emitSource(Path source, BasicFileAttributes attributes, List<Path> destinationDirs, Boolean[] destinationIsDirectory, Listener listener) {
+        int stats = 0;
+        if (attributes.isSymbolicLink()) {
+            stats++;
+            try {
+                BasicFileAttributes target = Files.readAttributes(source, BasicFileAttributes.class);
+                if (!target.isRegularFile()) {
+                    return stats;
+                }
+                attributes = target;
+            } catch (IOException ex) {
+                //a dangling link has nothing to back up
+                return stats;
+            }
+        }
+        if (attributes.isRegularFile()) {
+            long missing = 0;
+            for (int i = 0; i < destinationDirs.size(); i++) {
+                if (destinationIsDirectory[i] == null) {
+                    missing |= 1L << i;
+                } else if (destinationIsDirectory[i]) {
+                    listener.stale(destinationDirs.get(i).resolve(source.getFileName()), i);
+                    missing |= 1L << i;
+                }
+            }
+            listener.accept(missing == 0 ? Decision.COMPARE : Decision.COPY, source, attributes, missing);
+        } else if (attributes.isDirectory()) {
+            for (int i = 0; i < destinationDirs.size(); i++) {
+                if (destinationIsDirectory[i] != null && !destinationIsDirectory[i]) {
+                    listener.stale(destinationDirs.get(i).resolve(source.getFileName()), i);
+                }
+            }
+            listener.accept(Decision.DESCEND, source, attributes, 0);
+        }
+        //anything else (directory links, devices) is neither backed up nor deleted from the destination
+        return stats;
+    }
+
+    /**
+     * Lists dir through a one-level file tree walk, so each child's attributes come back with the listing
+     * (free on Windows, one lstat per child elsewhere) instead of being asked for separately.
+     */
+    private static int list(Path dir, boolean mustExist, Child children) throws IOException {
+        int[] stats = new int[1];
+        Files.walkFileTree(dir, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path child, BasicFileAttributes attrs) {
+                stats[0]++;
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path child, BasicFileAttributes attrs) throws IOException {
+                stats[0]++;
+                if (child.equals(dir)) {
+                    throw new NotDirectoryException(dir.toString());
+                }
+                return children.accept(child, attrs) ? FileVisitResult.CONTINUE : FileVisitResult.TERMINATE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path child, IOException ex) throws IOException {
+                stats[0]++;
+                if (child.equals(dir)) {
+                    //a destination directory that hasn't been created yet is simply empty
+                    if (mustExist || !(ex instanceof NoSuchFileException)) {
+                        throw ex;
+                    }
+                }
+                //a child deleted since it was listed; leave any destination copy alone until the next run sees it's gone
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return stats[0];
+    }
+
+    private interface Child {
+
+        /**
+         * @return false to stop listing
+         */
+        boolean accept(Path child, BasicFileAttributes attributes);
+    }
+}
@@ -0,0 +1,44 @@
+package com.jeffrpowell.dosbackup;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public enum ExecutionMode {
+    /** Directory and copy tasks run on fixed-size fork/join pools */
+    FORK_JOIN,
+    /** Every directory and copy task gets its own virtual thread; in-flight I/O is bounded by a semaphore instead */
+    VIRTUAL_THREADS;
+
+    /**
+     * The project still compiles for Java 14, so the virtual-thread executor is looked up reflectively. Java 19 and
+     * 20 have the method too, but only as a preview API that throws unless preview features are enabled.
+     */
+    public static boolean isVirtualThreadSupported() {
+        if (Runtime.version().feature() < 21) {
+            return false;
+        }
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * @throws UnsupportedOperationException if this JVM can't create virtual threads
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        if (!isVirtualThreadSupported()) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or later; this is " + Runtime.version());
+        }
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException ex) {
+            throw new UnsupportedOperationException("Virtual threads aren't available on Java " + Runtime.version(), ex);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The files one source file is being copied into, one per destination. Each write goes to every destination that
+ * is still working, in parallel when there's more than one. A destination that fails is closed and dropped with its
+ * exception kept, so one bad disk doesn't stop the copy to the others. Safe to write from several threads at once.
+ */
+public class FanOut implements AutoCloseable {
+
+    public interface DestinationCall {
+
+        void call(int destination, FileChannel channel) throws IOException;
+    }
+
+    private final List<Path> files;
+    private final FileChannel[] channels;
+    private final AtomicReferenceArray<IOException> failures;
+    private final IoScheduler scheduler;
+
+    private FanOut(List<Path> files, IoScheduler scheduler) {
+        this.files = files;
+        this.channels = new FileChannel[files.size()];
+        this.failures = new AtomicReferenceArray<>(files.size());
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * A file that can't be opened counts as failed straight away.
+     *
+     * @param scheduler runs the writes to each destination; null to fork them onto the current pool
+     */
+    public static FanOut open(List<Path> files, IoScheduler scheduler, OpenOption... options) {
+        FanOut fanOut = new FanOut(files, scheduler);
+        for (int i = 0; i < files.size(); i++) {
+            try {
+                fanOut.channels[i] = FileChannel.open(files.get(i), options);
+            } catch (IOException ex) {
+                fanOut.fail(i, ex);
+            }
+        }
+        return fanOut;
+    }
+
+    public int size() {
+        return files.size();
+    }
+
+    public boolean isFailed(int destination) {
+        return failures.get(destination) != null;
+    }
+
+    /**
+     * @return null if the destination hasn't failed
+     */
+    public IOException getFailure(int destination) {
+        return failures.get(destination);
+    }
+
+    /**
+     * Drops a destination. Only the first failure is kept.
+     */
+    public void fail(int destination, IOException failure) {
+        if (!failures.compareAndSet(destination, null, failure)) {
+            return;
+        }
+        FileChannel channel = channels[destination];
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                //already failed; the first exception is the one worth reporting
+            }
+        }
+    }
+
+    /**
+     * Writes all of buffer at position to every destination still working.
+     *
+     * @throws IOException the first failure, once every destination has failed, since there's no point reading
+     * any more of the source
+     */
+    public void write(ByteBuffer buffer, long position) throws IOException {
+        List<WriteAction> writes = new ArrayList<>(channels.length);
+        for (int i = 0; i < channels.length; i++) {
+            if (!isFailed(i)) {
+                writes.add(new WriteAction(i, buffer.duplicate(), position));
+            }
+        }
+        if (writes.size() == 1) {
+            writes.get(0).invoke();
+        } else if (scheduler == null) {
+            ForkJoinTask.invokeAll(writes);
+        } else {
+            scheduler.runAll(writes);
+        }
+        buffer.position(buffer.limit());
+        checkAlive();
+    }
+
+    /**
+     * Runs call against each destination still working, one after the other; a destination it throws for is dropped.
+     */
+    public void each(DestinationCall call) throws IOException {
+        for (int i = 0; i < channels.length; i++) {
+            if (isFailed(i)) {
+                continue;
+            }
+            try {
+                call.call(i, channels[i]);
+            } catch (IOException ex) {
+                fail(i, ex);
+            }
+        }
+        checkAlive();
+    }
+
+    /**
+     * Renames each working file over its target, for files that were written under a temp name. A failed
+     * destination's temp file is deleted instead. Call after {@link #close}.
+     */
+    public void moveIntoPlace(List<Path> targets) {
+        for (int i = 0; i < files.size(); i++) {
+            try {
+                if (isFailed(i)) {
+                    Files.deleteIfExists(files.get(i));
+                } else {
+                    Files.move(files.get(i), targets.get(i), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+            } catch (IOException ex) {
+                fail(i, ex);
+            }
+        }
+    }
+
+    /**
+     * Deletes every file, for when nothing was copied and the files were temp files.
+     */
+    public void discard() {
+        for (Path file : files) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ex) {
+                //a leftover temp file is replaced by the next copy
+            }
+        }
+    }
+
+    /**
+     * Marks every destination that hasn't failed yet with failure, for a problem with the source itself.
+     */
+    public void failAll(IOException failure) {
+        for (int i = 0; i < channels.length; i++) {
+            fail(i, failure);
+        }
+    }
+
+    /**
+     * Copies out what went wrong for each destination, leaving null for the ones that worked.
+     */
+    public void getFailures(IOException[] into) {
+        for (int i = 0; i < channels.length; i++) {
+            into[i] = failures.get(i);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (int i = 0; i < channels.length; i++) {
+            if (isFailed(i) || channels[i] == null) {
+                continue;
+            }
+            try {
+                channels[i].close();
+            } catch (IOException ex) {
+                //a file that can't be closed may not have all its data
+                fail(i, ex);
+            }
+        }
+    }
+
+    private void checkAlive() throws IOException {
+        for (int i = 0; i < channels.length; i++) {
+            if (!isFailed(i)) {
+                return;
+            }
+        }
+        throw failures.get(0);
+    }
+
+    private class WriteAction extends RecursiveAction {
+
+        private final int destination;
+        private final ByteBuffer buffer;
+        private final long position;
+        private final int start;
+
+        private WriteAction(int destination, ByteBuffer buffer, long position) {
+            this.destination = destination;
+            this.buffer = buffer;
+            this.position = position;
+            this.start = buffer.position();
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                while (buffer.hasRemaining()) {
+                    channels[destination].write(buffer, position + buffer.position() - start);
+                }
+            } catch (IOException ex) {
+                fail(destination, ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,479 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Copies one file to the destination. Small files are read whole into a pooled direct buffer and written back out
+ * in one call, so the common case allocates no copy buffer. The pool only grows to the number of copies that have
+ * run at once, which also keeps it bounded when every copy gets its own virtual thread. Files past the large-file threshold are written to a temp file
+ * next to the destination in chunks that are forked onto the current pool, then renamed into place,
+ * so a single huge file doesn't pin one worker for the whole tail of the backup.
+ * With a compressed destination every file goes through the {@link BlockCompressor} instead.
+ * Past the delta threshold, a file that already exists at the destination is handed to the {@link DeltaCopier},
+ * which only rewrites the blocks that changed.
+ * Every copy takes its bytes and one operation from the {@link Throttle} before it moves any data.
+ * With checksums on, the bytes are hashed on their way through, so the source is never read twice; chunked copies
+ * hash each chunk on its own worker (see {@link CopyChecksum}).
+ * A file going to several destinations is read once and its bytes written to all of them through a {@link FanOut}.
+ */
+public class FileCopier {
+
+    public static final String TEMP_SUFFIX = ".dosbackup-part";
+
+    private final int smallFileThreshold;
+    private final long largeFileThreshold;
+    private final long chunkSize;
+    private final IoScheduler scheduler;
+    private final Throttle throttle;
+    private final Queue<ByteBuffer> smallFileBuffers;
+    private final LongAdder smallFileCopies;
+    private final LongAdder standardCopies;
+    private final LongAdder chunkedCopies;
+    private final LongAdder fanOutCopies;
+    private final BlockCompressor compressor;
+    private final long deltaThreshold;
+    private final DeltaCopier delta;
+    private final boolean checksums;
+
+    public FileCopier(BackupOptions options) {
+        this(options, null);
+    }
+
+    /**
+     * @param scheduler runs the chunks of large files; null to fork them onto the current pool
+     */
+    public FileCopier(BackupOptions options, IoScheduler scheduler) {
+        this(options, scheduler, new Throttle(options));
+    }
+
+    /**
+     * @param throttle shared with everything else that touches the disks, so one limit covers the whole run
+     */
+    public FileCopier(BackupOptions options, IoScheduler scheduler, Throttle throttle) {
+        this.scheduler = scheduler;
+        this.throttle = throttle;
+        this.smallFileThreshold = options.getSmallFileThreshold();
+        this.largeFileThreshold = options.getLargeFileThreshold();
+        this.chunkSize = options.getLargeFileChunkSize();
+        this.smallFileBuffers = new ConcurrentLinkedQueue<>();
+        this.smallFileCopies = new LongAdder();
+        this.standardCopies = new LongAdder();
+        this.chunkedCopies = new LongAdder();
+        this.fanOutCopies = new LongAdder();
+        this.compressor = options.isCompressDestination() ? new BlockCompressor(options, scheduler, throttle) : null;
+        //BackupOptions doesn't allow checksums with compression
+        this.checksums = options.isChecksumCopies();
+        this.deltaThreshold = options.getDeltaThreshold();
+        //a compressed file's blocks don't line up with the source's
+        this.delta = deltaThreshold < Long.MAX_VALUE && compressor == null ? new DeltaCopier(options, scheduler, throttle, checksums) : null;
+    }
+
+    /**
+     * @return the checksum of what was copied, or null if checksums are off
+     */
+    public CopyChecksum copy(Path source, Path destination, long size) throws IOException {
+        throttle.acquireOperation();
+        MessageDigest digest = checksums ? ContentHash.newDigest() : null;
+        if (compressor != null) {
+            compressor.compress(source, destination, size);
+            return null;
+        } else if (delta != null && size >= deltaThreshold && Files.isRegularFile(destination, LinkOption.NOFOLLOW_LINKS)) {
+            return delta.copy(source, destination, size);
+        } else if (size <= smallFileThreshold && copySmall(source, destination, digest)) {
+            smallFileCopies.increment();
+        } else if (size >= largeFileThreshold) {
+            chunkedCopies.increment();
+            return copyInChunks(source, destination, size);
+        } else if (throttle.isLimitingBytes() || digest != null) {
+            copyInSlices(source, destination, size, digest);
+            standardCopies.increment();
+        } else {
+            Files.copy(source, destination, StandardCopyOption.REPLACE_EXISTING);
+            standardCopies.increment();
+        }
+        return digest == null ? null : new CopyChecksum(0, digest.digest());
+    }
+
+    /**
+     * Copies source to every destination from a single read of it, writing to the destinations in parallel.
+     * A destination that fails doesn't stop the copy to the others.
+     *
+     * @param failures gets the exception for each destination that failed, at the same index; the rest are left null
+     * @return the checksum of what was copied, or null if checksums are off or nothing could be copied
+     */
+    public CopyChecksum copy(Path source, List<Path> destinations, long size, IOException[] failures) {
+        if (destinations.size() == 1) {
+            try {
+                return copy(source, destinations.get(0), size);
+            } catch (IOException ex) {
+                failures[0] = ex;
+                return null;
+            }
+        }
+        try {
+            throttle.acquireOperation();
+        } catch (IOException ex) {
+            Arrays.fill(failures, ex);
+            return null;
+        }
+        if (compressor != null) {
+            compressor.compress(source, destinations, size, failures);
+            return null;
+        }
+        if (delta != null && size >= deltaThreshold && allRegularFiles(destinations)) {
+            return delta.copy(source, destinations, size, failures);
+        }
+        fanOutCopies.increment();
+        //large files go through temp files like a chunked copy, so a cut-off copy never replaces a good one
+        boolean chunked = size >= largeFileThreshold;
+        FanOut targets = FanOut.open(chunked ? tempFiles(destinations) : destinations, scheduler, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        CopyChecksum checksum = null;
+        try {
+            try {
+                if (chunked) {
+                    checksum = fanOutInChunks(source, targets, size);
+                } else {
+                    MessageDigest digest = checksums ? ContentHash.newDigest() : null;
+                    try ( FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+                        fanOutRange(source, in, targets, 0, size, throttle, digest);
+                    }
+                    checksum = digest == null ? null : new CopyChecksum(0, digest.digest());
+                }
+            } finally {
+                targets.close();
+            }
+            if (chunked) {
+                targets.moveIntoPlace(destinations);
+            }
+        } catch (IOException ex) {
+            //the source couldn't be read, or every destination failed
+            targets.failAll(ex);
+            if (chunked) {
+                targets.discard();
+            }
+            checksum = null;
+        }
+        targets.getFailures(failures);
+        return checksum;
+    }
+
+    public long getSmallFileCopies() {
+        return smallFileCopies.sum();
+    }
+
+    public long getStandardCopies() {
+        return standardCopies.sum();
+    }
+
+    public long getChunkedCopies() {
+        return chunkedCopies.sum();
+    }
+
+    /**
+     * @return copies to more than one destination
+     */
+    public long getFanOutCopies() {
+        return fanOutCopies.sum();
+    }
+
+    /**
+     * @return null unless delta copies are on
+     */
+    public DeltaCopier getDeltaCopier() {
+        return delta;
+    }
+
+    /**
+     * @return null unless the destination is compressed
+     */
+    public BlockCompressor getCompressor() {
+        return compressor;
+    }
+
+    public String summary() {
+        if (compressor != null) {
+            return compressor.summary();
+        }
+        String summary = String.format("%d small-file fast path copies, %d standard copies, %d chunked copies",
+            getSmallFileCopies(), getStandardCopies(), getChunkedCopies());
+        if (getFanOutCopies() > 0) {
+            summary += String.format(", %d copies to several destinations", getFanOutCopies());
+        }
+        return delta == null ? summary : summary + ", " + delta.summary();
+    }
+
+    /**
+     * @return false if the file turned out to be bigger than the buffer, in which case nothing was written
+     */
+    private boolean copySmall(Path source, Path destination, MessageDigest digest) throws IOException {
+        ByteBuffer buffer = smallFileBuffers.poll();
+        if (buffer == null) {
+            //one spare byte tells us when a file grew past the threshold after it was stat'd
+            buffer = ByteBuffer.allocateDirect(smallFileThreshold + 1);
+        }
+        try {
+            return copySmall(source, destination, buffer, digest);
+        } finally {
+            smallFileBuffers.offer(buffer);
+        }
+    }
+
+    private boolean copySmall(Path source, Path destination, ByteBuffer buffer, MessageDigest digest) throws IOException {
+        buffer.clear();
+        try ( FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining() && in.read(buffer) != -1) {
+            }
+        }
+        if (!buffer.hasRemaining()) {
+            return false;
+        }
+        buffer.flip();
+        throttle.acquireBytes(buffer.remaining());
+        if (digest != null) {
+            digest.update(buffer.duplicate());
+        }
+        try ( FileChannel out = FileChannel.open(destination, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Same result as Files.copy, but one throttled slice at a time, and through a buffer when the bytes are being hashed.
+     */
+    private void copyInSlices(Path source, Path destination, long size, MessageDigest digest) throws IOException {
+        try ( FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+            FileChannel out = FileChannel.open(destination, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            copyRange(source, in, out, 0, size, throttle, digest);
+        }
+    }
+
+    /**
+     * Copies count bytes at position using positional writes to out.
+     * Without a digest the bytes go channel to channel; with one they pass through a heap buffer to be hashed.
+     * in must already be positioned at position.
+     */
+    private static void copyRange(Path source, FileChannel in, FileChannel out, long position, long count, Throttle throttle, MessageDigest digest) throws IOException {
+        ByteBuffer buffer = digest == null ? null : ByteBuffer.allocate((int) Math.min(Throttle.SLICE_BYTES, Math.max(1, count)));
+        long copied = 0;
+        while (copied < count) {
+            long slice = count - copied;
+            if (buffer != null || throttle.isLimitingBytes()) {
+                slice = Math.min(slice, Throttle.SLICE_BYTES);
+                throttle.acquireBytes(slice);
+            }
+            long transferred;
+            if (buffer == null) {
+                transferred = out.transferFrom(in, position + copied, slice);
+            } else {
+                buffer.clear();
+                buffer.limit((int) slice);
+                transferred = Math.max(0, in.read(buffer));
+                buffer.flip();
+                digest.update(buffer.duplicate());
+                while (buffer.hasRemaining()) {
+                    out.write(buffer, position + copied + buffer.position());
+                }
+            }
+            if (transferred <= 0) {
+                throw new IOException(source + " ended early at byte " + (position + copied));
+            }
+            copied += transferred;
+        }
+    }
+
+    static Path tempFileFor(Path destination) {
+        return destination.resolveSibling(destination.getFileName() + TEMP_SUFFIX);
+    }
+
+    static List<Path> tempFiles(List<Path> destinations) {
+        List<Path> temps = new ArrayList<>(destinations.size());
+        for (Path destination : destinations) {
+            temps.add(tempFileFor(destination));
+        }
+        return temps;
+    }
+
+    private static boolean allRegularFiles(List<Path> destinations) {
+        for (Path destination : destinations) {
+            if (!Files.isRegularFile(destination, LinkOption.NOFOLLOW_LINKS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Like {@link #copyRange}, but every slice passes through a buffer to be written to each destination.
+     */
+    private static void fanOutRange(Path source, FileChannel in, FanOut targets, long position, long count, Throttle throttle, MessageDigest digest) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(Throttle.SLICE_BYTES, Math.max(1, count)));
+        long copied = 0;
+        while (copied < count) {
+            int slice = (int) Math.min(count - copied, buffer.capacity());
+            throttle.acquireBytes(slice);
+            buffer.clear();
+            buffer.limit(slice);
+            while (buffer.hasRemaining()) {
+                if (in.read(buffer, position + copied + buffer.position()) < 0) {
+                    throw new IOException(source + " ended early at byte " + (position + copied + buffer.position()));
+                }
+            }
+            buffer.flip();
+            if (digest != null) {
+                digest.update(buffer.duplicate());
+            }
+            targets.write(buffer, position + copied);
+            copied += slice;
+        }
+    }
+
+    /**
+     * @return the checksum of the chunks, or null if checksums are off
+     */
+    private CopyChecksum fanOutInChunks(Path source, FanOut targets, long size) throws IOException {
+        //as with a single destination, size the targets up front for ranges that finish out of order
+        targets.each((destination, channel) -> channel.write(ByteBuffer.allocate(1), size - 1));
+        List<FanOutRangeAction> ranges = new ArrayList<>();
+        for (long position = 0; position < size; position += chunkSize) {
+            ranges.add(new FanOutRangeAction(source, targets, position, Math.min(chunkSize, size - position)));
+        }
+        if (scheduler == null) {
+            ForkJoinTask.invokeAll(ranges);
+        } else {
+            scheduler.runAll(ranges);
+        }
+        List<byte[]> hashes = new ArrayList<>(ranges.size());
+        for (FanOutRangeAction range : ranges) {
+            if (range.failure != null) {
+                throw range.failure;
+            }
+            hashes.add(range.hash);
+        }
+        targets.each((destination, channel) -> channel.force(false));
+        return checksums ? CopyChecksum.ofSegments(chunkSize, hashes) : null;
+    }
+
+    /**
+     * @return the checksum of the chunks, or null if checksums are off
+     */
+    private CopyChecksum copyInChunks(Path source, Path destination, long size) throws IOException {
+        CopyChecksum checksum = null;
+        Path temp = tempFileFor(destination);
+        try {
+            try ( FileChannel target = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                //transferFrom won't write past the end of the target, so size it up front for ranges that finish out of order
+                target.write(ByteBuffer.allocate(1), size - 1);
+                List<RangeCopyAction> ranges = new ArrayList<>();
+                for (long position = 0; position < size; position += chunkSize) {
+                    ranges.add(new RangeCopyAction(source, target, position, Math.min(chunkSize, size - position), throttle, checksums));
+                }
+                if (scheduler == null) {
+                    ForkJoinTask.invokeAll(ranges);
+                } else {
+                    scheduler.runAll(ranges);
+                }
+                List<byte[]> hashes = new ArrayList<>(ranges.size());
+                for (RangeCopyAction range : ranges) {
+                    if (range.failure != null) {
+                        throw range.failure;
+                    }
+                    hashes.add(range.hash);
+                }
+                if (checksums) {
+                    checksum = CopyChecksum.ofSegments(chunkSize, hashes);
+                }
+                target.force(false);
+            }
+            Files.move(temp, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(temp);
+            throw ex;
+        }
+        return checksum;
+    }
+
+    private class FanOutRangeAction extends RecursiveAction {
+
+        private final Path source;
+        private final FanOut targets;
+        private final long position;
+        private final long count;
+        private byte[] hash;
+        private IOException failure;
+
+        private FanOutRangeAction(Path source, FanOut targets, long position, long count) {
+            this.source = source;
+            this.targets = targets;
+            this.position = position;
+            this.count = count;
+        }
+
+        @Override
+        protected void compute() {
+            try ( FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+                MessageDigest digest = checksums ? ContentHash.newDigest() : null;
+                fanOutRange(source, in, targets, position, count, throttle, digest);
+                if (digest != null) {
+                    hash = digest.digest();
+                }
+            } catch (IOException ex) {
+                failure = ex;
+            }
+        }
+    }
+
+    private static class RangeCopyAction extends RecursiveAction {
+
+        private final Path source;
+        private final FileChannel target;
+        private final long position;
+        private final long count;
+        private final Throttle throttle;
+        private final boolean checksum;
+        private byte[] hash;
+        private IOException failure;
+
+        private RangeCopyAction(Path source, FileChannel target, long position, long count, Throttle throttle, boolean checksum) {
+            this.source = source;
+            this.target = target;
+            this.position = position;
+            this.count = count;
+            this.throttle = throttle;
+            this.checksum = checksum;
+        }
+
+        @Override
+        protected void compute() {
+            //each range gets its own source channel because transferFrom reads from the source's current position
+            try ( FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+                in.position(position);
+                MessageDigest digest = checksum ? ContentHash.newDigest() : null;
+                copyRange(source, in, target, position, count, throttle, digest);
+                if (digest != null) {
+                    hash = digest.digest();
+                }
+            } catch (IOException ex) {
+                failure = ex;
+            }
+        }
+    }
+}
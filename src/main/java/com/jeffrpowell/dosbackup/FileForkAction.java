@@ -1,76 +1,294 @@
 package com.jeffrpowell.dosbackup;
 
 import java.io.IOException;
-import java.nio.file.DirectoryStream;
-import java.nio.file.Files;
-import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.ForkJoinTask;
 import static java.util.concurrent.ForkJoinTask.invokeAll;
+import java.util.concurrent.Future;
 import java.util.concurrent.RecursiveAction;
 import java.util.function.BiConsumer;
-import java.util.function.Consumer;
 
 public class FileForkAction<C> extends RecursiveAction{
 
-    private final BiConsumer<Path, C> fileAction;
-    private final BiConsumer<Path, C> directoryAction;
+    /**
+     * Files and subdirectories handed off at a time. A wider directory is processed a chunk at a time in parallel
+     * with the rest of its listing, so memory per directory stays bounded however many entries it has.
+     */
+    public static final int CHUNK_SIZE = 4096;
+    //chunks of one directory that can be queued or running before its listing waits for the oldest
+    private static final int MAX_CHUNKS_IN_FLIGHT = 4;
+
+    private final FileAction<C> fileAction;
+    private final StaleAction<C> staleAction;
     private final C configContainer;
     private final BiConsumer<Path, Exception> exceptionHandler;
-    private final Consumer<Progress> progressHandler;
+    private final BackupStats stats;
+    private final IoScheduler scheduler;
+    private final Checkpoint checkpoint;
+    private final PathFilter filter;
     private final Path workingDir;
+    private final List<Path> destinationDirs;
+    private final boolean mirror;
 
-    public FileForkAction(Path workingDir, BiConsumer<Path, C> fileAction, BiConsumer<Path, C> directoryAction, C configContainer, BiConsumer<Path, Exception> exceptionHandler, Consumer<Progress> progressHandler) {
-        if (workingDir == null || fileAction == null) {
-            throw new IllegalArgumentException("workingDir and action arguments are required");
+    /**
+     * @param destinationDirs destination counterparts of workingDir, one for each destination; they don't have to
+     * exist yet, and the first one is what files are handed to fileAction with
+     * @param mirror true to diff workingDir against every one of destinationDirs and report stale destination entries
+     * @param staleAction called for destination entries that no longer exist in the source; only used when mirroring
+     * @param scheduler runs subdirectories and bounds listing I/O; null to fork subdirectories onto the current pool
+     * @param checkpoint skips directories an earlier run finished and learns what each directory still waits on; may be null
+     * @param filter consulted before anything is queued, so an excluded directory is never listed; may be null
+     */
+    public FileForkAction(Path workingDir, List<Path> destinationDirs, boolean mirror, FileAction<C> fileAction, StaleAction<C> staleAction, C configContainer, BiConsumer<Path, Exception> exceptionHandler, BackupStats stats, IoScheduler scheduler, Checkpoint checkpoint, PathFilter filter) {
+        if (workingDir == null || destinationDirs.isEmpty() || fileAction == null) {
+            throw new IllegalArgumentException("workingDir, a destination and action arguments are required");
         }
         this.workingDir = workingDir;
+        this.destinationDirs = destinationDirs;
+        this.mirror = mirror;
         this.fileAction = fileAction;
-        this.directoryAction = directoryAction;
+        this.staleAction = staleAction;
         this.configContainer = configContainer;
         this.exceptionHandler = exceptionHandler;
-        this.progressHandler = progressHandler;
+        this.stats = stats;
+        this.scheduler = scheduler;
+        this.checkpoint = checkpoint;
+        this.filter = filter == null ? PathFilter.NONE : filter;
     }
 
     @Override
     protected void compute() {
-        try ( DirectoryStream<Path> ds = Files.newDirectoryStream(workingDir)) {
-            Set<Path> files = new HashSet<>();
-            List<FileForkAction<C>> directories = new ArrayList<>();
-            for (Path child : ds) {
-                if (Files.isRegularFile(child)) {
-                    files.add(child);
-                } else if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
-                    directories.add(new FileForkAction(child, fileAction, directoryAction, configContainer, exceptionHandler, progressHandler));
-                }
+        Listing listing = new Listing();
+        try {
+            BackupEvents.DirectoryListed event = new BackupEvents.DirectoryListed();
+            event.begin();
+            long started = System.nanoTime();
+            int statCalls;
+            List<Path> diffedDirs = mirror ? destinationDirs : Collections.emptyList();
+            if (scheduler == null) {
+                statCalls = DirectoryDiff.diff(workingDir, diffedDirs, listing);
+            } else {
+                statCalls = scheduler.io(() -> DirectoryDiff.diff(workingDir, diffedDirs, listing));
             }
-            Progress progress = new Progress(workingDir, 0, files.size(), directories.size());
-            publishProgress(progress);
-            for (Path child : files) {
-                fileAction.accept(child, configContainer);
-                //Call it moved whether it actually was copied or not
-                progress = progress.incrementFilesMoved();
-                publishProgress(progress);
+            //stale entries are deleted from inside the listener, so that time is part of this too
+            long elapsed = System.nanoTime() - started - listing.waitedNanos;
+            event.end();
+            if (event.shouldCommit()) {
+                event.path = workingDir.toString();
+                event.files = listing.files;
+                event.directories = listing.directories;
+                event.statCalls = statCalls;
+                event.excluded = listing.excludedFiles + listing.excludedDirectories;
+                event.commit();
             }
-            if (directoryAction != null) {
-                directoryAction.accept(workingDir, configContainer);
+            Chunk last = listing.chunk;
+            if (stats != null) {
+                stats.directoryListed(last.files.size(), last.directories.size(), last.bytes);
+                stats.statCalls(statCalls);
+                stats.stageTime(BackupStats.Stage.LIST, elapsed);
+                stats.excluded(listing.excludedFiles, listing.excludedDirectories);
             }
-            if (!directories.isEmpty()) {
-                invokeAll(directories);
+            if (checkpoint != null) {
+                if (last.size() > 0) {
+                    checkpoint.childrenFound(workingDir, last.size());
+                }
+                checkpoint.directoryListed(workingDir);
             }
+            //nearly every directory fits in one chunk, which runs right here without forking
+            last.invoke();
         } catch (IOException e) {
             if (exceptionHandler != null) {
                 exceptionHandler.accept(workingDir, e);
             }
+        } finally {
+            listing.joinAll();
+        }
+    }
+
+    /**
+     * Lets a resumable run skip finished subtrees and tell when a directory's last file or subdirectory is done.
+     */
+    public interface Checkpoint {
+
+        boolean isDirectoryDone(Path directory);
+
+        /**
+         * Called for each chunk of a directory's listing, before any of the chunk is handed off.
+         *
+         * @param children files and subdirectories that have to finish before the directory is done
+         */
+        void childrenFound(Path directory, int children);
+
+        /**
+         * Called once the whole directory has been listed, before its last chunk is handed off.
+         */
+        void directoryListed(Path directory) throws IOException;
+    }
+
+    public interface FileAction<C> {
+
+        /**
+         * @param attributes read while listing the parent directory, so the action doesn't need to stat the file again
+         * @param destination the file's place in the first destination directory
+         * @param missing one bit for each destination directory, by index, that has nothing in the file's place;
+         * always 0 unless mirroring
+         */
+        void accept(Path file, BasicFileAttributes attributes, Path destination, long missing, C configContainer);
+    }
+
+    public interface StaleAction<C> {
+
+        /**
+         * @param destinationIndex which of the destination directories it's in
+         */
+        void accept(Path destination, int destinationIndex, C configContainer);
+    }
+
+    /**
+     * Sorts entries into chunks as the directory is listed and hands each full one off to run in parallel with the
+     * rest of the listing.
+     */
+    private class Listing implements DirectoryDiff.Listener {
+
+        private final Deque<Future<?>> inFlight;
+        private Chunk chunk;
+        private int files;
+        private int directories;
+        private int excludedFiles;
+        private int excludedDirectories;
+        //time spent waiting for chunks to catch up, which isn't listing
+        private long waitedNanos;
+
+        Listing() {
+            this.inFlight = new ArrayDeque<>();
+            this.chunk = new Chunk();
+        }
+
+        @Override
+        public void accept(DirectoryDiff.Decision decision, Path source, BasicFileAttributes attributes, long missing) {
+            switch (decision) {
+                case COPY:
+                case COMPARE:
+                    if (filter.excludesFile(source)) {
+                        excludedFiles++;
+                        return;
+                    }
+                    chunk.files.add(new FoundFile(source, attributes, missing));
+                    chunk.bytes += attributes.size();
+                    files++;
+                    break;
+                case DESCEND:
+                    if (filter.excludesDirectory(source)) {
+                        excludedDirectories++;
+                        return;
+                    }
+                    if (checkpoint != null && checkpoint.isDirectoryDone(source)) {
+                        return;
+                    }
+                    List<Path> childDestinations = new ArrayList<>(destinationDirs.size());
+                    for (Path destinationDir : destinationDirs) {
+                        childDestinations.add(destinationDir.resolve(source.getFileName()));
+                    }
+                    chunk.directories.add(new FileForkAction<>(source, childDestinations, mirror, fileAction, staleAction, configContainer, exceptionHandler, stats, scheduler, checkpoint, filter));
+                    directories++;
+                    break;
+                default:
+                    return;
+            }
+            if (chunk.size() == CHUNK_SIZE) {
+                handOff();
+            }
+        }
+
+        @Override
+        public void stale(Path destination, int destinationIndex) {
+            //excluded entries are protected, not stale
+            if (staleAction != null && !filter.excludes(workingDir.resolve(destination.getFileName()))) {
+                staleAction.accept(destination, destinationIndex, configContainer);
+            }
+        }
+
+        private void handOff() {
+            if (stats != null) {
+                stats.entriesFound(chunk.files.size(), chunk.directories.size(), chunk.bytes);
+            }
+            if (checkpoint != null) {
+                checkpoint.childrenFound(workingDir, chunk.size());
+            }
+            inFlight.add(scheduler == null ? chunk.fork() : scheduler.fork(chunk));
+            chunk = new Chunk();
+            if (inFlight.size() > MAX_CHUNKS_IN_FLIGHT) {
+                long waitStarted = System.nanoTime();
+                join(inFlight.poll());
+                waitedNanos += System.nanoTime() - waitStarted;
+            }
+        }
+
+        void joinAll() {
+            while (!inFlight.isEmpty()) {
+                join(inFlight.poll());
+            }
+        }
+
+        private void join(Future<?> task) {
+            if (scheduler == null) {
+                ((ForkJoinTask<?>) task).join();
+            } else {
+                scheduler.join(task);
+            }
         }
     }
-    
-    private void publishProgress(Progress p) {
-        if (progressHandler != null) {
-            progressHandler.accept(p);
+
+    /**
+     * Up to {@link #CHUNK_SIZE} files and subdirectories from one listing.
+     */
+    private class Chunk extends RecursiveAction {
+
+        private final List<FoundFile> files;
+        private final List<FileForkAction<C>> directories;
+        private long bytes;
+
+        Chunk() {
+            this.files = new ArrayList<>();
+            this.directories = new ArrayList<>();
+        }
+
+        int size() {
+            return files.size() + directories.size();
+        }
+
+        @Override
+        protected void compute() {
+            for (FoundFile file : files) {
+                fileAction.accept(file.path, file.attributes, destinationDirs.get(0).resolve(file.path.getFileName()), file.missing, configContainer);
+            }
+            if (directories.isEmpty()) {
+                return;
+            }
+            if (scheduler == null) {
+                invokeAll(directories);
+            } else {
+                scheduler.runAll(directories);
+            }
+        }
+    }
+
+    private static class FoundFile {
+
+        private final Path path;
+        private final BasicFileAttributes attributes;
+        private final long missing;
+
+        FoundFile(Path path, BasicFileAttributes attributes, long missing) {
+            this.path = path;
+            this.attributes = attributes;
+            this.missing = missing;
         }
     }
 }
@@ -0,0 +1,366 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps directory scanning and data copying on separate pools so slow copies can't starve listings (or the reverse),
+ * and caps how many copies touch any one device at a time.
+ * Devices are identified by their {@link FileStore}, looked up once per source root and once for the destination.
+ * <p>
+ * Scanning and copying form a pipeline: the scan offers each file as soon as its directory is listed, and only
+ * blocks once the copy stage is {@link BackupOptions#getCopyQueueCapacity} files behind, so totals are known long
+ * before the copying finishes while memory for queued files stays bounded.
+ * <p>
+ * In {@link ExecutionMode#VIRTUAL_THREADS} mode both pools are replaced by one virtual thread per task, and a single
+ * semaphore bounds how many listings and copies are in flight. Permits are only held around the I/O itself, never
+ * while a directory waits for its children, so deep trees can't exhaust them.
+ */
+public class IoScheduler {
+
+    public interface IoCall<T> {
+
+        T call() throws IOException;
+    }
+
+    private final ForkJoinPool scanPool;
+    private final ForkJoinPool copyPool;
+    private final ExecutorService virtualThreads;
+    private final Semaphore ioPermits;
+    private final ThreadLocal<Boolean> holdsIoPermit;
+    private final int copyQueueCapacity;
+    private final Semaphore copyQueueSlots;
+    private final Object copiesLock;
+    private long pendingCopies;
+    private final int perDeviceConcurrency;
+    private final ConcurrentMap<FileStore, Device> devices;
+    private final AtomicInteger nextDeviceOrder;
+
+    public IoScheduler(BackupOptions options) {
+        ExecutorService virtual = null;
+        if (options.getExecutionMode() == ExecutionMode.VIRTUAL_THREADS) {
+            try {
+                virtual = ExecutionMode.newVirtualThreadExecutor();
+            } catch (UnsupportedOperationException ex) {
+                System.err.println(ex.getMessage() + "; using fork/join pools instead");
+            }
+        }
+        if (virtual != null) {
+            this.scanPool = null;
+            this.copyPool = null;
+            this.virtualThreads = virtual;
+            this.ioPermits = new Semaphore(options.getIoConcurrency());
+            this.holdsIoPermit = ThreadLocal.withInitial(() -> false);
+        } else {
+            this.scanPool = new ForkJoinPool(options.getScanParallelism());
+            this.copyPool = new ForkJoinPool(options.getCopyParallelism());
+            this.virtualThreads = null;
+            this.ioPermits = null;
+            this.holdsIoPermit = null;
+        }
+        this.copyQueueCapacity = options.getCopyQueueCapacity();
+        this.copyQueueSlots = new Semaphore(copyQueueCapacity);
+        this.copiesLock = new Object();
+        this.perDeviceConcurrency = options.getPerDeviceConcurrency();
+        this.devices = new ConcurrentHashMap<>();
+        this.nextDeviceOrder = new AtomicInteger();
+    }
+
+    public Device deviceOf(Path path) throws IOException {
+        //the destination root may not exist yet; its nearest existing ancestor is on the same device
+        Path existing = path;
+        while (existing != null && !Files.exists(existing)) {
+            existing = existing.getParent();
+        }
+        FileStore store = Files.getFileStore(existing == null ? path : existing);
+        return devices.computeIfAbsent(store, s -> new Device(s, nextDeviceOrder.getAndIncrement(), perDeviceConcurrency));
+    }
+
+    public Future<?> scan(ForkJoinTask<?> task) {
+        if (virtualThreads != null) {
+            return virtualThreads.submit(task::invoke);
+        }
+        return scanPool.submit(task);
+    }
+
+    /**
+     * Waits for a task returned by {@link #scan}. Cancellation is not an error here; the caller already knows.
+     */
+    public void await(Future<?> task) {
+        try {
+            task.get();
+        } catch (CancellationException ex) {
+            //the run was cancelled
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IllegalStateException(ex.getCause());
+        }
+    }
+
+    /**
+     * Runs tasks in parallel and returns once all of them are done. Used both for a directory's subdirectories
+     * and for the chunks of a large file.
+     */
+    public void runAll(List<? extends ForkJoinTask<?>> tasks) {
+        if (virtualThreads == null) {
+            ForkJoinTask.invokeAll(tasks);
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<>(tasks.size());
+        try {
+            for (ForkJoinTask<?> task : tasks) {
+                futures.add(virtualThreads.submit(task::invoke));
+            }
+        } catch (RejectedExecutionException ex) {
+            //cancelled part way through; wait for what did start
+        }
+        for (Future<?> future : futures) {
+            await(future);
+        }
+    }
+
+    /**
+     * Starts a task without waiting for it; pair with {@link #join}. Must be called from a scan task.
+     */
+    public Future<?> fork(ForkJoinTask<?> task) {
+        if (virtualThreads == null) {
+            return task.fork();
+        }
+        try {
+            return virtualThreads.submit(task::invoke);
+        } catch (RejectedExecutionException ex) {
+            //cancelled; there's nothing to wait for
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * Waits for a task started by {@link #fork}. A caller in the middle of {@link #io} lets its permit go while it
+     * waits, since the task may need permits of its own to finish.
+     */
+    public void join(Future<?> task) {
+        if (virtualThreads == null) {
+            ((ForkJoinTask<?>) task).join();
+            return;
+        }
+        if (!holdsIoPermit.get()) {
+            await(task);
+            return;
+        }
+        ioPermits.release();
+        try {
+            await(task);
+        } finally {
+            ioPermits.acquireUninterruptibly();
+        }
+    }
+
+    /**
+     * Runs a listing or other short piece of blocking I/O, holding an I/O permit in virtual-thread mode.
+     */
+    public <T> T io(IoCall<T> call) throws IOException {
+        if (ioPermits == null) {
+            return call.call();
+        }
+        try {
+            ioPermits.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for an I/O permit", ex);
+        }
+        holdsIoPermit.set(true);
+        try {
+            return call.call();
+        } finally {
+            holdsIoPermit.set(false);
+            ioPermits.release();
+        }
+    }
+
+    /**
+     * @return copies offered by the scan that haven't finished yet
+     */
+    public int getQueuedCopies() {
+        return copyQueueCapacity - copyQueueSlots.availablePermits();
+    }
+
+    /**
+     * Queues a copy, blocking the caller while the queue is full. The copy holds a permit on both devices while it runs. Permits are always taken in device
+     * registration order, so two copies going opposite ways between the same devices can't deadlock.
+     * The chunks of a large file share their copy's permits.
+     */
+    public void copy(Device source, Device destination, Runnable copy) {
+        copy(source, Collections.singletonList(destination), copy);
+    }
+
+    /**
+     * Queues a copy from one source to several destinations, holding a permit on every device involved while it runs.
+     */
+    public void copy(Device source, List<Device> destinations, Runnable copy) {
+        try {
+            copyQueueSlots.acquire();
+        } catch (InterruptedException ex) {
+            //only happens when the run is cancelled
+            Thread.currentThread().interrupt();
+            return;
+        }
+        List<Device> involved = new ArrayList<>(destinations.size() + 1);
+        involved.add(source);
+        for (Device destination : destinations) {
+            if (!involved.contains(destination)) {
+                involved.add(destination);
+            }
+        }
+        involved.sort(Comparator.comparingInt(device -> device.order));
+        Runnable task = () -> {
+            int acquired = 0;
+            try {
+                if (ioPermits != null) {
+                    ioPermits.acquire();
+                }
+                try {
+                    for (Device device : involved) {
+                        device.acquire();
+                        acquired++;
+                    }
+                    copy.run();
+                } finally {
+                    for (int i = acquired - 1; i >= 0; i--) {
+                        involved.get(i).release();
+                    }
+                    if (ioPermits != null) {
+                        ioPermits.release();
+                    }
+                }
+            } catch (InterruptedException ex) {
+                //only happens when the run is cancelled
+                Thread.currentThread().interrupt();
+            } finally {
+                copyQueueSlots.release();
+            }
+        };
+        if (virtualThreads == null) {
+            try {
+                copyPool.execute(task);
+            } catch (RejectedExecutionException ex) {
+                //cancelled; the scan may still be unwinding and offering files
+                copyQueueSlots.release();
+            }
+            return;
+        }
+        synchronized (copiesLock) {
+            pendingCopies++;
+        }
+        try {
+            virtualThreads.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    copyFinished();
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            copyQueueSlots.release();
+            copyFinished();
+        }
+    }
+
+    private void copyFinished() {
+        synchronized (copiesLock) {
+            pendingCopies--;
+            if (pendingCopies == 0) {
+                copiesLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Blocks until every queued copy, including the chunks of any large file, has finished.
+     */
+    public void awaitCopies() {
+        if (virtualThreads == null) {
+            copyPool.awaitQuiescence(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            return;
+        }
+        synchronized (copiesLock) {
+            while (pendingCopies > 0) {
+                try {
+                    copiesLock.wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    public void shutdown() {
+        if (virtualThreads != null) {
+            virtualThreads.shutdown();
+        } else {
+            scanPool.shutdown();
+            copyPool.shutdown();
+        }
+    }
+
+    public void shutdownNow() {
+        if (virtualThreads != null) {
+            virtualThreads.shutdownNow();
+        } else {
+            scanPool.shutdownNow();
+            copyPool.shutdownNow();
+        }
+    }
+
+    public static class Device {
+
+        private final FileStore store;
+        private final int order;
+        private final Semaphore permits;
+
+        private Device(FileStore store, int order, int concurrency) {
+            this.store = store;
+            this.order = order;
+            this.permits = concurrency > 0 ? new Semaphore(concurrency) : null;
+        }
+
+        public FileStore getStore() {
+            return store;
+        }
+
+        private void acquire() throws InterruptedException {
+            if (permits != null) {
+                permits.acquire();
+            }
+        }
+
+        private void release() {
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
+}
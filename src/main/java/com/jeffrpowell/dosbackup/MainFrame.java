@@ -1,13 +1,13 @@
 package com.jeffrpowell.dosbackup;
 
 import java.awt.event.ActionEvent;
-import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.time.LocalDate;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -16,6 +16,7 @@ import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 import javax.swing.DefaultListModel;
 import javax.swing.JFileChooser;
+import javax.swing.JOptionPane;
 import javax.swing.Timer;
 
 public class MainFrame extends javax.swing.JFrame implements BackupObserver{
@@ -23,7 +24,7 @@ public class MainFrame extends javax.swing.JFrame implements BackupObserver{
 	private final JFileChooser fileChooser;
 	private final Set<Path> backupSources;
 	private final Executor executor;
-	private Path backupDestination;
+	private final List<Path> backupDestinations;
 	private WorkerThread currentThread;
 	private final Timer timer;
 	private LocalTime time;
@@ -34,6 +35,7 @@ public class MainFrame extends javax.swing.JFrame implements BackupObserver{
 		this.fileChooser = new JFileChooser(Paths.get("/").toFile());
 		fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
 		this.backupSources = new HashSet<>();
+		this.backupDestinations = new ArrayList<>();
 		this.executor = Executors.newSingleThreadExecutor();
 		this.currentThread = null;
 		initComponents();
@@ -84,38 +86,50 @@ public class MainFrame extends javax.swing.JFrame implements BackupObserver{
 	}
 	
 	@Override
-	public void updateProgress(int moved, int found, int directoriesLeft){
-		lblFilesBackedUp.setText(Integer.toString(moved));
-		lblFilesFound.setText(Integer.toString(found));
-		lblDirectoriesLeft.setText(Integer.toString(directoriesLeft));
+	public void updateProgress(Progress progress){
+		lblFilesBackedUp.setText(Long.toString(progress.getFilesMoved()));
+		lblFilesFound.setText(Long.toString(progress.getFilesFound()));
+		lblDirectoriesLeft.setText(Long.toString(progress.getDirectoriesLeft()));
+		lblBytesCopied.setText(formatBytes(progress.getBytesCopied()) + " of " + formatBytes(progress.getBytesFound()));
+		String throughput = formatBytes(progress.getBytesPerSecond()) + "/s";
+		if (progress.getDestinationCount() > 1){
+			//each destination's rate, so a slow disk holding up the rest stands out
+			for (int i = 0; i < progress.getDestinationCount(); i++){
+				throughput += " | " + (i + 1) + ": " + formatBytes(progress.getDestinationBytesPerSecond(i)) + "/s";
+			}
+		}
+		lblThroughput.setText(throughput);
+	}
+	
+	private static String formatBytes(long bytes){
+		String[] units = {"B", "KB", "MB", "GB", "TB"};
+		double value = bytes;
+		int unit = 0;
+		while (value >= 1024 && unit < units.length - 1){
+			value /= 1024;
+			unit++;
+		}
+		return String.format("%.1f %s", value, units[unit]);
 	}
 
 	@Override
-	public void done(boolean wasCancelled, List<String> failedFiles){
+	public void finished(BackupResult result){
+		//the totals stay on screen after the run, so that's where the rest of the summary goes
+		String summary = "<html>" + String.join("<br>", result.getSummaries()) + "</html>";
+		lblBytesCopied.setToolTipText(summary);
+		lblThroughput.setToolTipText(summary);
+	}
+
+	@Override
+	public void done(boolean wasCancelled, long failedFiles, Path report){
 		setButtonsEnabled(true);
 		currentThread = null;
 		timer.stop();
-		if (!wasCancelled) {
-			try
-			{
-				Files.writeString(backupDestination.resolve(LocalDate.now()+".txt"), writeOutputLog(failedFiles));
-			} catch (IOException ex)
-			{
-				ex.printStackTrace(System.err);
-			}
-		}
-	}
-	
-	private String writeOutputLog(List<String> failedFiles) {
-		StringBuilder builder = new StringBuilder();
-		builder.append(backupSources.stream().map(Path::toString).collect(Collectors.joining("\n")));
-		builder.append("\n");
-		builder.append(time.format(DateTimeFormatter.ISO_LOCAL_TIME)).append(" seconds elapsed");
-		if (!failedFiles.isEmpty()) {
-			builder.append("\n\nThese files failed to copy over:\n");
-			builder.append(failedFiles.stream().collect(Collectors.joining("\n")));
+		//the engine streams the run report as it goes, so there's nothing left to write here
+		if (!wasCancelled && failedFiles > 0) {
+			JOptionPane.showMessageDialog(this, failedFiles + " files failed to copy over. They are listed in " + report + ".",
+				"Backup finished with failures", JOptionPane.WARNING_MESSAGE);
 		}
-		return builder.toString();
 	}
 	
 	private void restartTimer()
@@ -158,6 +172,18 @@ public class MainFrame extends javax.swing.JFrame implements BackupObserver{
         rdoBackupDelta = new javax.swing.JRadioButton();
         jPanel13 = new javax.swing.JPanel();
         chkDelete = new javax.swing.JCheckBox();
+        chkWatch = new javax.swing.JCheckBox();
+        jPanel14 = new javax.swing.JPanel();
+        jLabel6 = new javax.swing.JLabel();
+        cboChangeDetection = new javax.swing.JComboBox<>();
+        jPanel17 = new javax.swing.JPanel();
+        jLabel9 = new javax.swing.JLabel();
+        spnMaxMegabytesPerSecond = new javax.swing.JSpinner();
+        jLabel10 = new javax.swing.JLabel();
+        spnMaxFilesPerSecond = new javax.swing.JSpinner();
+        jPanel18 = new javax.swing.JPanel();
+        jLabel11 = new javax.swing.JLabel();
+        txtExclude = new javax.swing.JTextField();
         filler10 = new javax.swing.Box.Filler(new java.awt.Dimension(0, 15), new java.awt.Dimension(0, 15), new java.awt.Dimension(32767, 15));
         btnBackup = new javax.swing.JButton();
         filler9 = new javax.swing.Box.Filler(new java.awt.Dimension(0, 15), new java.awt.Dimension(0, 15), new java.awt.Dimension(32767, 15));
@@ -170,6 +196,12 @@ public class MainFrame extends javax.swing.JFrame implements BackupObserver{
         jPanel8 = new javax.swing.JPanel();
         jLabel3 = new javax.swing.JLabel();
         lblDirectoriesLeft = new javax.swing.JLabel();
+        jPanel15 = new javax.swing.JPanel();
+        jLabel7 = new javax.swing.JLabel();
+        lblBytesCopied = new javax.swing.JLabel();
+        jPanel16 = new javax.swing.JPanel();
+        jLabel8 = new javax.swing.JLabel();
+        lblThroughput = new javax.swing.JLabel();
         jPanel9 = new javax.swing.JPanel();
         jLabel4 = new javax.swing.JLabel();
         lblElapsedTime = new javax.swing.JLabel();
@@ -263,7 +295,64 @@ public class MainFrame extends javax.swing.JFrame implements BackupObserver{
         chkDelete.setText("Delete destination files if missing from source");
         jPanel13.add(chkDelete);
 
+        chkWatch.setText("Keep watching for changes");
+        chkWatch.setToolTipText("After the first backup, back up directories as soon as they change until stopped");
+        jPanel13.add(chkWatch);
+
         jPanel12.add(jPanel13);
+
+        jPanel14.setLayout(new javax.swing.BoxLayout(jPanel14, javax.swing.BoxLayout.X_AXIS));
+
+        jLabel6.setText("Detect changes by: ");
+        jPanel14.add(jLabel6);
+
+        cboChangeDetection.setModel(new javax.swing.DefaultComboBoxModel<>(ChangeDetection.values()));
+        jPanel14.add(cboChangeDetection);
+
+        jPanel12.add(jPanel14);
+
+        jPanel17.setLayout(new javax.swing.BoxLayout(jPanel17, javax.swing.BoxLayout.X_AXIS));
+
+        jLabel9.setText("Limit to MB/s: ");
+        jLabel9.setToolTipText("0 means no limit; can be changed while a backup runs");
+        jPanel17.add(jLabel9);
+
+        spnMaxMegabytesPerSecond.setModel(new javax.swing.SpinnerNumberModel(0, 0, 1000000, 1));
+        spnMaxMegabytesPerSecond.addChangeListener(new javax.swing.event.ChangeListener()
+        {
+            public void stateChanged(javax.swing.event.ChangeEvent evt)
+            {
+                spnThrottleStateChanged(evt);
+            }
+        });
+        jPanel17.add(spnMaxMegabytesPerSecond);
+
+        jLabel10.setText(" files/s: ");
+        jLabel10.setToolTipText("0 means no limit; can be changed while a backup runs");
+        jPanel17.add(jLabel10);
+
+        spnMaxFilesPerSecond.setModel(new javax.swing.SpinnerNumberModel(0, 0, 1000000, 1));
+        spnMaxFilesPerSecond.addChangeListener(new javax.swing.event.ChangeListener()
+        {
+            public void stateChanged(javax.swing.event.ChangeEvent evt)
+            {
+                spnThrottleStateChanged(evt);
+            }
+        });
+        jPanel17.add(spnMaxFilesPerSecond);
+
+        jPanel12.add(jPanel17);
+
+        jPanel18.setLayout(new javax.swing.BoxLayout(jPanel18, javax.swing.BoxLayout.X_AXIS));
+
+        jLabel11.setText("Skip: ");
+        jLabel11.setToolTipText("Comma-separated names or globs, such as node_modules, *.tmp, build/ (directories only); excluded directories are never scanned");
+        jPanel18.add(jLabel11);
+
+        txtExclude.setToolTipText("Comma-separated names or globs, such as node_modules, *.tmp, build/ (directories only); excluded directories are never scanned");
+        jPanel18.add(txtExclude);
+
+        jPanel12.add(jPanel18);
         jPanel12.add(filler10);
 
         jPanel10.add(jPanel12, java.awt.BorderLayout.CENTER);
@@ -314,6 +403,26 @@ public class MainFrame extends javax.swing.JFrame implements BackupObserver{
 
         getContentPane().add(jPanel8);
 
+        jPanel15.setLayout(new javax.swing.BoxLayout(jPanel15, javax.swing.BoxLayout.X_AXIS));
+
+        jLabel7.setText("Data Copied: ");
+        jPanel15.add(jLabel7);
+
+        lblBytesCopied.setFont(new java.awt.Font("Tahoma", 1, 14)); // NOI18N
+        jPanel15.add(lblBytesCopied);
+
+        getContentPane().add(jPanel15);
+
+        jPanel16.setLayout(new javax.swing.BoxLayout(jPanel16, javax.swing.BoxLayout.X_AXIS));
+
+        jLabel8.setText("Throughput: ");
+        jPanel16.add(jLabel8);
+
+        lblThroughput.setFont(new java.awt.Font("Tahoma", 1, 14)); // NOI18N
+        jPanel16.add(lblThroughput);
+
+        getContentPane().add(jPanel16);
+
         jPanel9.setLayout(new javax.swing.BoxLayout(jPanel9, javax.swing.BoxLayout.X_AXIS));
 
         jLabel4.setText("Elapsed Time: ");
@@ -356,8 +465,21 @@ public class MainFrame extends javax.swing.JFrame implements BackupObserver{
     private void btnBackupDestinationActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_btnBackupDestinationActionPerformed
         int result = fileChooser.showDialog(this, "Select");
 		if (result == JFileChooser.APPROVE_OPTION){
-			backupDestination = fileChooser.getSelectedFile().toPath();
-			lblBackupDestination.setText(backupDestination.toString());
+			Path destination = fileChooser.getSelectedFile().toPath();
+			if (!backupDestinations.isEmpty() && !backupDestinations.contains(destination)){
+				int answer = JOptionPane.showConfirmDialog(this,
+					"Back up to this destination as well?\nChoosing No replaces the current destinations.",
+					"Add destination", JOptionPane.YES_NO_CANCEL_OPTION);
+				if (answer == JOptionPane.NO_OPTION){
+					backupDestinations.clear();
+				} else if (answer != JOptionPane.YES_OPTION){
+					return;
+				}
+			}
+			if (!backupDestinations.contains(destination)){
+				backupDestinations.add(destination);
+			}
+			lblBackupDestination.setText(backupDestinations.stream().map(Path::toString).collect(Collectors.joining("; ")));
 		}
     }//GEN-LAST:event_btnBackupDestinationActionPerformed
 
@@ -379,10 +501,30 @@ public class MainFrame extends javax.swing.JFrame implements BackupObserver{
 
     private void btnBackupActionPerformed(java.awt.event.ActionEvent evt)//GEN-FIRST:event_btnBackupActionPerformed
     {//GEN-HEADEREND:event_btnBackupActionPerformed
-        if (backupDestination != null) {
-	    boolean backupAllFiles = rdoBackupAll.isSelected() && !rdoBackupDelta.isSelected();
-	    boolean deleteDestinationFiles = chkDelete.isSelected();
-	    currentThread = new WorkerThread(backupSources, backupDestination, backupAllFiles, deleteDestinationFiles, this);
+        if (!backupDestinations.isEmpty()) {
+	    BackupOptions options = new BackupOptions();
+	    options.setBackupAllFiles(rdoBackupAll.isSelected() && !rdoBackupDelta.isSelected());
+	    options.setDeleteDestinationFiles(chkDelete.isSelected());
+	    options.setWatch(chkWatch.isSelected());
+	    options.setChangeDetection((ChangeDetection) cboChangeDetection.getSelectedItem());
+	    options.setMaxBytesPerSecond(megabytesPerSecond() * 1024 * 1024);
+	    options.setMaxOperationsPerSecond(filesPerSecond());
+	    try {
+		    options.setPathRules(Collections.emptyList(), excludePatterns());
+	    } catch (IllegalArgumentException ex) {
+		    JOptionPane.showMessageDialog(this, ex.getMessage(), "Can't read the skip patterns", JOptionPane.ERROR_MESSAGE);
+		    return;
+	    }
+	    if (backupDestinations.stream().anyMatch(CheckpointJournal::exists)) {
+		    int answer = JOptionPane.showConfirmDialog(this,
+			    "The last backup to this destination didn't finish. Resume it?\nChoosing No starts over from the beginning.",
+			    "Resume backup", JOptionPane.YES_NO_CANCEL_OPTION);
+		    if (answer != JOptionPane.YES_OPTION && answer != JOptionPane.NO_OPTION) {
+			    return;
+		    }
+		    options.setResume(answer == JOptionPane.YES_OPTION);
+	    }
+	    currentThread = new WorkerThread(backupSources, new ArrayList<>(backupDestinations), options, this);
 	    setButtonsEnabled(false);
 	    executor.execute(currentThread);
 	    restartTimer();
@@ -390,6 +532,30 @@ public class MainFrame extends javax.swing.JFrame implements BackupObserver{
 	
     }//GEN-LAST:event_btnBackupActionPerformed
 
+    private void spnThrottleStateChanged(javax.swing.event.ChangeEvent evt)//GEN-FIRST:event_spnThrottleStateChanged
+    {//GEN-HEADEREND:event_spnThrottleStateChanged
+        //takes effect on a running backup straight away
+        if (currentThread != null) {
+            currentThread.getThrottle().setBytesPerSecond(megabytesPerSecond() * 1024 * 1024);
+            currentThread.getThrottle().setOperationsPerSecond(filesPerSecond());
+        }
+    }//GEN-LAST:event_spnThrottleStateChanged
+
+	private long megabytesPerSecond(){
+		return ((Number) spnMaxMegabytesPerSecond.getValue()).longValue();
+	}
+
+	private List<String> excludePatterns(){
+		return Arrays.stream(txtExclude.getText().split(","))
+			.map(String::trim)
+			.filter(pattern -> !pattern.isEmpty())
+			.collect(Collectors.toList());
+	}
+
+	private long filesPerSecond(){
+		return ((Number) spnMaxFilesPerSecond.getValue()).longValue();
+	}
+
 	/**
 	 * @param args the command line arguments
 	 */
@@ -435,7 +601,9 @@ public class MainFrame extends javax.swing.JFrame implements BackupObserver{
     private javax.swing.JButton btnBackupSources;
     private javax.swing.JButton btnCancel;
     private javax.swing.JButton btnRemoveSource;
+    private javax.swing.JComboBox<ChangeDetection> cboChangeDetection;
     private javax.swing.JCheckBox chkDelete;
+    private javax.swing.JCheckBox chkWatch;
     private javax.swing.Box.Filler filler1;
     private javax.swing.Box.Filler filler10;
     private javax.swing.Box.Filler filler2;
@@ -447,15 +615,26 @@ public class MainFrame extends javax.swing.JFrame implements BackupObserver{
     private javax.swing.Box.Filler filler9;
     private javax.swing.ButtonGroup ignoreAuditFlag;
     private javax.swing.JLabel jLabel1;
+    private javax.swing.JLabel jLabel10;
+    private javax.swing.JLabel jLabel11;
     private javax.swing.JLabel jLabel2;
     private javax.swing.JLabel jLabel3;
     private javax.swing.JLabel jLabel4;
     private javax.swing.JLabel jLabel5;
+    private javax.swing.JLabel jLabel6;
+    private javax.swing.JLabel jLabel7;
+    private javax.swing.JLabel jLabel8;
+    private javax.swing.JLabel jLabel9;
     private javax.swing.JPanel jPanel1;
     private javax.swing.JPanel jPanel10;
     private javax.swing.JPanel jPanel11;
     private javax.swing.JPanel jPanel12;
     private javax.swing.JPanel jPanel13;
+    private javax.swing.JPanel jPanel14;
+    private javax.swing.JPanel jPanel15;
+    private javax.swing.JPanel jPanel16;
+    private javax.swing.JPanel jPanel17;
+    private javax.swing.JPanel jPanel18;
     private javax.swing.JPanel jPanel2;
     private javax.swing.JPanel jPanel4;
     private javax.swing.JPanel jPanel5;
@@ -465,13 +644,18 @@ public class MainFrame extends javax.swing.JFrame implements BackupObserver{
     private javax.swing.JPanel jPanel9;
     private javax.swing.JScrollPane jScrollPane1;
     public javax.swing.JLabel lblBackupDestination;
+    private javax.swing.JLabel lblBytesCopied;
     private javax.swing.JLabel lblDirectoriesLeft;
     private javax.swing.JLabel lblElapsedTime;
     private javax.swing.JLabel lblFilesBackedUp;
     private javax.swing.JLabel lblFilesFound;
+    private javax.swing.JLabel lblThroughput;
     public javax.swing.JList<String> listSources;
     private javax.swing.JRadioButton rdoBackupAll;
     private javax.swing.JRadioButton rdoBackupDelta;
+    private javax.swing.JSpinner spnMaxFilesPerSecond;
+    private javax.swing.JSpinner spnMaxMegabytesPerSecond;
+    private javax.swing.JTextField txtExclude;
     // End of variables declaration//GEN-END:variables
 
 }
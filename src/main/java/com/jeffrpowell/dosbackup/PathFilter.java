@@ -0,0 +1,158 @@
+package com.jeffrpowell.dosbackup;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Include and exclude rules, compiled once and asked about every entry as its directory is listed.
+ * <p>
+ * A pattern is a glob unless it starts with {@code regex:} (an explicit {@code glob:} prefix is allowed too).
+ * Patterns without a '/' are matched against the entry's name, so {@code node_modules} or {@code *.tmp} apply at any
+ * depth; patterns with one are matched against the whole absolute path, as in {@code /home/me/.cache} or
+ * {@code **}{@code /build/classes}. A trailing '/' makes a pattern apply to directories only.
+ * <p>
+ * Excludes win over includes. When there are include rules, only files matching one are backed up, but every
+ * directory that isn't excluded is still descended into so matching files further down are found.
+ */
+public class PathFilter {
+
+    public static final PathFilter NONE = new PathFilter(Collections.emptySet(), Collections.emptyList(), Collections.emptyList());
+
+    //plain names with no wildcards, looked up without running a matcher
+    private final Set<String> excludedNames;
+    private final List<Rule> excludes;
+    private final List<Rule> includes;
+
+    private PathFilter(Set<String> excludedNames, List<Rule> excludes, List<Rule> includes) {
+        this.excludedNames = excludedNames;
+        this.excludes = excludes;
+        this.includes = includes;
+    }
+
+    /**
+     * @throws IllegalArgumentException if a pattern doesn't compile
+     */
+    public static PathFilter compile(List<String> includePatterns, List<String> excludePatterns) {
+        if (includePatterns.isEmpty() && excludePatterns.isEmpty()) {
+            return NONE;
+        }
+        Set<String> excludedNames = new HashSet<>();
+        List<Rule> excludes = new ArrayList<>();
+        for (String pattern : excludePatterns) {
+            if (isPlainName(pattern)) {
+                excludedNames.add(pattern);
+            } else {
+                excludes.add(Rule.compile(pattern));
+            }
+        }
+        List<Rule> includes = new ArrayList<>();
+        for (String pattern : includePatterns) {
+            includes.add(Rule.compile(pattern));
+        }
+        return new PathFilter(excludedNames, excludes, includes);
+    }
+
+    public boolean isEmpty() {
+        return excludedNames.isEmpty() && excludes.isEmpty() && includes.isEmpty();
+    }
+
+    /**
+     * @return true if nothing under directory should be listed, backed up or deleted
+     */
+    public boolean excludesDirectory(Path directory) {
+        return isExcluded(directory, true);
+    }
+
+    public boolean excludesFile(Path file) {
+        if (isExcluded(file, false)) {
+            return true;
+        }
+        if (includes.isEmpty()) {
+            return false;
+        }
+        for (Rule include : includes) {
+            if (include.matches(file, false)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * For entries whose type isn't known, such as stale destination entries, which are left alone if excluded.
+     *
+     * @param path the source path the entry would have
+     */
+    public boolean excludes(Path path) {
+        return isExcluded(path, true);
+    }
+
+    private boolean isExcluded(Path path, boolean directory) {
+        Path name = path.getFileName();
+        if (name != null && excludedNames.contains(name.toString())) {
+            return true;
+        }
+        for (Rule exclude : excludes) {
+            if (exclude.matches(path, directory)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isPlainName(String pattern) {
+        for (char c : pattern.toCharArray()) {
+            if ("*?[]{}\\/:".indexOf(c) >= 0) {
+                return false;
+            }
+        }
+        return !pattern.isEmpty();
+    }
+
+    private static class Rule {
+
+        private final PathMatcher matcher;
+        private final boolean wholePath;
+        private final boolean directoriesOnly;
+
+        private Rule(PathMatcher matcher, boolean wholePath, boolean directoriesOnly) {
+            this.matcher = matcher;
+            this.wholePath = wholePath;
+            this.directoriesOnly = directoriesOnly;
+        }
+
+        static Rule compile(String pattern) {
+            String syntax = "glob";
+            if (pattern.startsWith("regex:") || pattern.startsWith("glob:")) {
+                syntax = pattern.substring(0, pattern.indexOf(':'));
+                pattern = pattern.substring(syntax.length() + 1);
+            }
+            boolean directoriesOnly = pattern.length() > 1 && pattern.endsWith("/");
+            if (directoriesOnly) {
+                pattern = pattern.substring(0, pattern.length() - 1);
+            }
+            if (pattern.isEmpty()) {
+                throw new IllegalArgumentException("Empty include/exclude pattern");
+            }
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher(syntax + ":" + pattern);
+            return new Rule(matcher, pattern.indexOf('/') >= 0, directoriesOnly);
+        }
+
+        boolean matches(Path path, boolean directory) {
+            if (directoriesOnly && !directory) {
+                return false;
+            }
+            if (wholePath) {
+                return matcher.matches(path);
+            }
+            Path name = path.getFileName();
+            return name != null && matcher.matches(name);
+        }
+    }
+}
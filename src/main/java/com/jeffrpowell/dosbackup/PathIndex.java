@@ -0,0 +1,213 @@
+package com.jeffrpowell.dosbackup;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrent set of paths stored as a trie of name segments.
+ * Each segment string is interned once per index, and small directories keep their children in a
+ * copy-on-write array that is swapped in with a CAS, so inserts and lookups never take a lock.
+ * A path is contained if it was added, or if it is an ancestor of something that was added;
+ * {@link #isAdded} tells the two apart.
+ * Root components are ignored; every path in one index is expected to share the same root.
+ */
+public class PathIndex {
+
+    private static final int MAX_ARRAY_CHILDREN = 8;
+    private static final AtomicReferenceFieldUpdater<Node, Object> CHILDREN
+        = AtomicReferenceFieldUpdater.newUpdater(Node.class, Object.class, "children");
+
+    private final Node root;
+    private final ConcurrentMap<String, String> segments;
+    private final LongAdder added;
+    private final LongAdder nodes;
+
+    public PathIndex() {
+        this.root = new Node("");
+        this.segments = new ConcurrentHashMap<>();
+        this.added = new LongAdder();
+        this.nodes = new LongAdder();
+    }
+
+    public void add(Path path) {
+        Node node = root;
+        for (Path name : path) {
+            node = childOrCreate(node, name.toString());
+        }
+        node.added = true;
+        added.increment();
+    }
+
+    public boolean contains(Path path) {
+        Node node = root;
+        for (Path name : path) {
+            node = child(node, name.toString());
+            if (node == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true only if this exact path was added, not merely one of its descendants
+     */
+    public boolean isAdded(Path path) {
+        Node node = root;
+        for (Path name : path) {
+            node = child(node, name.toString());
+            if (node == null) {
+                return false;
+            }
+        }
+        return node.added;
+    }
+
+    /**
+     * @return true if this path or one of its ancestors was added
+     */
+    public boolean isAddedOrUnder(Path path) {
+        Node node = root;
+        for (Path name : path) {
+            node = child(node, name.toString());
+            if (node == null) {
+                return false;
+            }
+            if (node.added) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public long getAddedCount() {
+        return added.sum();
+    }
+
+    public long getNodeCount() {
+        return nodes.sum();
+    }
+
+    /**
+     * Walks the whole trie, so only call this once the index has stopped changing.
+     * Sizes assume a 64-bit JVM with compressed oops and compact (Latin-1) strings.
+     */
+    public long estimateBytes() {
+        long bytes = estimateBytes(root);
+        for (String segment : segments.keySet()) {
+            //interner entry plus the String and its backing array
+            bytes += 32 + 24 + align(16 + segment.length());
+        }
+        return bytes;
+    }
+
+    public String memoryReport() {
+        long bytes = estimateBytes();
+        long entries = Math.max(1, getNodeCount());
+        return String.format("%d paths added, %d trie nodes, %d unique segments, ~%d bytes (%.1f bytes/entry)",
+            getAddedCount(), getNodeCount(), segments.size(), bytes, (double) bytes / entries);
+    }
+
+    private long estimateBytes(Node node) {
+        long bytes = 24;
+        Object children = node.children;
+        if (children instanceof Node[]) {
+            Node[] array = (Node[]) children;
+            bytes += align(16 + 4L * array.length);
+            for (Node child : array) {
+                bytes += estimateBytes(child);
+            }
+        } else if (children != null) {
+            @SuppressWarnings("unchecked")
+            Map<String, Node> map = (Map<String, Node>) children;
+            bytes += 64 + 32L * map.size() + 4L * Integer.highestOneBit(Math.max(1, map.size() * 2));
+            for (Node child : map.values()) {
+                bytes += estimateBytes(child);
+            }
+        }
+        return bytes;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    private String intern(String segment) {
+        String existing = segments.putIfAbsent(segment, segment);
+        return existing == null ? segment : existing;
+    }
+
+    private static Node child(Node parent, String name) {
+        Object children = parent.children;
+        if (children == null) {
+            return null;
+        }
+        if (children instanceof Node[]) {
+            for (Node child : (Node[]) children) {
+                if (child.name.equals(name)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Node> map = (Map<String, Node>) children;
+        return map.get(name);
+    }
+
+    private Node childOrCreate(Node parent, String name) {
+        while (true) {
+            Object children = parent.children;
+            Node existing = child(parent, name);
+            if (existing != null) {
+                return existing;
+            }
+            Node created = new Node(intern(name));
+            if (children instanceof Map) {
+                @SuppressWarnings("unchecked")
+                ConcurrentMap<String, Node> map = (ConcurrentMap<String, Node>) children;
+                existing = map.putIfAbsent(created.name, created);
+                if (existing != null) {
+                    return existing;
+                }
+                nodes.increment();
+                return created;
+            }
+            Node[] array = children == null ? new Node[0] : (Node[]) children;
+            Object replacement;
+            if (array.length < MAX_ARRAY_CHILDREN) {
+                Node[] grown = new Node[array.length + 1];
+                System.arraycopy(array, 0, grown, 0, array.length);
+                grown[array.length] = created;
+                replacement = grown;
+            } else {
+                ConcurrentMap<String, Node> map = new ConcurrentHashMap<>();
+                for (Node child : array) {
+                    map.put(child.name, child);
+                }
+                map.put(created.name, created);
+                replacement = map;
+            }
+            if (CHILDREN.compareAndSet(parent, children, replacement)) {
+                nodes.increment();
+                return created;
+            }
+            //lost the race to another insert under the same parent; re-read and try again
+        }
+    }
+
+    private static final class Node {
+
+        private final String name;
+        private volatile Object children;
+        private volatile boolean added;
+
+        private Node(String name) {
+            this.name = name;
+        }
+    }
+}
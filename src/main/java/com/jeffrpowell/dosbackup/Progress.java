@@ -1,53 +1,79 @@
 package com.jeffrpowell.dosbackup;
 
-import java.nio.file.Path;
+public class Progress{
+	private final long timestamp;
+	private final long filesMoved;
+	private final long filesFound;
+	private final long directoriesLeft;
+	private final long bytesFound;
+	private final long bytesCopied;
+	private final long bytesPerSecond;
+	private final long[] destinationBytesCopied;
+	private final long[] destinationBytesPerSecond;
 
-public class Progress implements Comparable<Progress>{
-	private final Path directory;
-	private final int filesMoved;
-	private final int filesFound;
-	private final int directoriesFound;
+	public Progress(long timestamp, long filesMoved, long filesFound, long directoriesLeft, long bytesFound, long bytesCopied, long bytesPerSecond){
+		this(timestamp, filesMoved, filesFound, directoriesLeft, bytesFound, bytesCopied, bytesPerSecond, new long[]{bytesCopied}, new long[]{bytesPerSecond});
+	}
 
-	public Progress(Path directory, int filesMoved, int filesFound, int directoriesFound){
-		this.directory = directory;
+	/**
+	 * @param destinationBytesCopied bytes written to each destination, in the order the destinations were given
+	 * @param destinationBytesPerSecond each destination's throughput since the previous snapshot
+	 */
+	public Progress(long timestamp, long filesMoved, long filesFound, long directoriesLeft, long bytesFound, long bytesCopied, long bytesPerSecond, long[] destinationBytesCopied, long[] destinationBytesPerSecond){
+		this.timestamp = timestamp;
 		this.filesMoved = filesMoved;
 		this.filesFound = filesFound;
-		this.directoriesFound = directoriesFound;
+		this.directoriesLeft = directoriesLeft;
+		this.bytesFound = bytesFound;
+		this.bytesCopied = bytesCopied;
+		this.bytesPerSecond = bytesPerSecond;
+		this.destinationBytesCopied = destinationBytesCopied;
+		this.destinationBytesPerSecond = destinationBytesPerSecond;
 	}
 
-	public Path getDirectory(){
-		return directory;
+	/**
+	 * @return System.nanoTime() when this snapshot was taken
+	 */
+	public long getTimestamp(){
+		return timestamp;
 	}
 
-	public int getFilesMoved(){
+	public long getFilesMoved(){
 		return filesMoved;
 	}
 
-	public int getFilesFound(){
+	public long getFilesFound(){
 		return filesFound;
 	}
 	
-	public int getDirectoriesFound(){
-		return directoriesFound;
+	public long getDirectoriesLeft(){
+		return directoriesLeft;
 	}
-	
-	public Progress incrementFilesMoved(){
-		return new Progress(directory, filesMoved+1, filesFound, directoriesFound);
-	}
-
-	@Override
-	public int compareTo(Progress o){
-		int comparison = directory.compareTo(o.getDirectory());
-		if (comparison != 0)
-		{
-			return comparison;
-		}
-		comparison = Integer.compare(filesMoved, o.getFilesMoved());
-		if (comparison != 0)
-		{
-			return comparison;
-		}
-		return Integer.compare(filesFound, o.getFilesFound());
+
+	/**
+	 * @return total size of the files found so far, whether or not they end up being copied
+	 */
+	public long getBytesFound(){
+		return bytesFound;
+	}
+
+	public long getBytesCopied(){
+		return bytesCopied;
+	}
+
+	public long getBytesPerSecond(){
+		return bytesPerSecond;
+	}
+
+	public int getDestinationCount(){
+		return destinationBytesCopied.length;
+	}
+
+	public long getDestinationBytesCopied(int destination){
+		return destinationBytesCopied[destination];
+	}
+
+	public long getDestinationBytesPerSecond(int destination){
+		return destinationBytesPerSecond[destination];
 	}
-	
 }
@@ -0,0 +1,348 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes one JSON line per file as the run goes, then a summary line. Workers only hand records to a bounded queue;
+ * a single thread formats them, writes them through one buffer and keeps the totals, so memory stays the same
+ * however many files there are. Workers wait if the writer falls behind.
+ */
+public class RunReport implements AutoCloseable {
+
+    /**
+     * Start of the default report's name, which is dotted like the rest of a destination's own files so restore
+     * leaves it behind.
+     */
+    public static final String FILE_PREFIX = ".dosbackup-report-";
+    /**
+     * How many failed paths are kept in memory for {@link #getFailedPaths()}; the report has all of them.
+     */
+    public static final int MAX_LISTED_FAILURES = 100;
+    private static final int QUEUE_CAPACITY = 8192;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long FLUSH_INTERVAL_MILLIS = 1000;
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    public enum Outcome {
+        COPIED, UNCHANGED, RESUMED, DELETED, FAILED;
+
+        private String label() {
+            return name().toLowerCase();
+        }
+    }
+
+    private final Path reportFile;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final BlockingQueue<Record> queue;
+    private final Thread writer;
+    private final LongAdder failures;
+    private final List<String> failedPaths;
+    //only touched by the writer thread
+    private final Map<Outcome, Long> counts;
+    private final Map<Outcome, Long> bytes;
+    private final LogHistogram latencyMicros;
+    private final LogHistogram copyBytesPerSecond;
+    private IOException writeFailure;
+
+    private RunReport(Path reportFile, FileChannel channel) {
+        this.reportFile = reportFile;
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        this.failures = new LongAdder();
+        this.failedPaths = new ArrayList<>();
+        this.counts = new EnumMap<>(Outcome.class);
+        this.bytes = new EnumMap<>(Outcome.class);
+        this.latencyMicros = new LogHistogram();
+        this.copyBytesPerSecond = new LogHistogram();
+        this.writer = new Thread(this::writeRecords, "backup-report");
+        writer.setDaemon(true);
+    }
+
+    /**
+     * Starts the report with a line naming the sources and destination. An existing report is appended to, so
+     * every run of the day, and every batch of a continuous backup, ends up in the same file.
+     */
+    public static RunReport open(Path reportFile, Collection<Path> sources, Path destination) throws IOException {
+        FileChannel channel = FileChannel.open(reportFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+        RunReport report = new RunReport(reportFile, channel);
+        StringBuilder line = new StringBuilder("{\"type\":\"run\",\"started\":");
+        appendString(line, Instant.now().toString());
+        line.append(",\"destination\":");
+        appendString(line, destination.toString());
+        line.append(",\"sources\":[");
+        boolean first = true;
+        for (Path source : sources) {
+            if (!first) {
+                line.append(',');
+            }
+            appendString(line, source.toString());
+            first = false;
+        }
+        line.append("]}\n");
+        report.write(line);
+        report.writer.start();
+        return report;
+    }
+
+    public Path getReportFile() {
+        return reportFile;
+    }
+
+    public void copied(Path file, long size, long nanos) {
+        add(new Record(Outcome.COPIED, file, size, nanos, null));
+    }
+
+    public void unchanged(Path file, long size, long nanos) {
+        add(new Record(Outcome.UNCHANGED, file, size, nanos, null));
+    }
+
+    /**
+     * The checkpoint journal showed an interrupted run already copied this file.
+     */
+    public void resumed(Path file, long size) {
+        add(new Record(Outcome.RESUMED, file, size, 0, null));
+    }
+
+    public void deleted(Path file) {
+        add(new Record(Outcome.DELETED, file, 0, 0, null));
+    }
+
+    public void failed(Path file, String error) {
+        failures.increment();
+        synchronized (failedPaths) {
+            if (failedPaths.size() < MAX_LISTED_FAILURES) {
+                failedPaths.add(file.toString());
+            }
+        }
+        add(new Record(Outcome.FAILED, file, 0, 0, error));
+    }
+
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    /**
+     * @return the first {@link #MAX_LISTED_FAILURES} failed paths
+     */
+    public List<String> getFailedPaths() {
+        synchronized (failedPaths) {
+            return new ArrayList<>(failedPaths);
+        }
+    }
+
+    /**
+     * Waits for every queued record and the summary to be written.
+     *
+     * @throws IOException if anything couldn't be written; records after the first failure are dropped
+     */
+    @Override
+    public void close() throws IOException {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(Record.END);
+                writer.join();
+                break;
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        if (writeFailure != null) {
+            throw writeFailure;
+        }
+    }
+
+    private void add(Record record) {
+        try {
+            queue.put(record);
+        } catch (InterruptedException ex) {
+            //the run is being torn down; losing this line is better than blocking the shutdown
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeRecords() {
+        long started = System.nanoTime();
+        StringBuilder line = new StringBuilder(256);
+        try {
+            while (true) {
+                Record record = queue.poll(FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (record == null) {
+                    //nothing new for a while; let anyone tailing the report catch up
+                    flush();
+                    continue;
+                }
+                if (record == Record.END) {
+                    break;
+                }
+                tally(record);
+                line.setLength(0);
+                format(record, line);
+                write(line);
+            }
+            line.setLength(0);
+            summarize(System.nanoTime() - started, line);
+            write(line);
+            flush();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void tally(Record record) {
+        counts.merge(record.outcome, 1L, Long::sum);
+        bytes.merge(record.outcome, record.size, Long::sum);
+        if (record.outcome == Outcome.COPIED || record.outcome == Outcome.UNCHANGED) {
+            latencyMicros.record(TimeUnit.NANOSECONDS.toMicros(record.nanos));
+        }
+        if (record.outcome == Outcome.COPIED && record.nanos > 0) {
+            copyBytesPerSecond.record((long) (record.size * 1e9 / record.nanos));
+        }
+    }
+
+    private static void format(Record record, StringBuilder line) {
+        line.append("{\"type\":\"file\",\"outcome\":\"").append(record.outcome.label()).append("\",\"path\":");
+        appendString(line, record.path.toString());
+        line.append(",\"bytes\":").append(record.size);
+        line.append(",\"micros\":").append(TimeUnit.NANOSECONDS.toMicros(record.nanos));
+        if (record.error != null) {
+            line.append(",\"error\":");
+            appendString(line, record.error);
+        }
+        line.append("}\n");
+    }
+
+    private void summarize(long elapsedNanos, StringBuilder line) {
+        line.append("{\"type\":\"summary\",\"finished\":");
+        appendString(line, Instant.now().toString());
+        line.append(",\"elapsedMillis\":").append(TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        for (Outcome outcome : Outcome.values()) {
+            line.append(",\"").append(outcome.label()).append("\":{\"files\":").append(counts.getOrDefault(outcome, 0L))
+                .append(",\"bytes\":").append(bytes.getOrDefault(outcome, 0L)).append('}');
+        }
+        line.append(",\"latencyMicros\":");
+        appendPercentiles(line, latencyMicros);
+        line.append(",\"copyBytesPerSecond\":");
+        appendPercentiles(line, copyBytesPerSecond);
+        line.append("}\n");
+    }
+
+    private static void appendPercentiles(StringBuilder line, LogHistogram histogram) {
+        line.append("{\"count\":").append(histogram.getCount());
+        if (histogram.getCount() > 0) {
+            for (double p : PERCENTILES) {
+                line.append(",\"p").append(p == Math.rint(p) ? Long.toString((long) p) : Double.toString(p)).append("\":").append(histogram.percentile(p));
+            }
+        }
+        line.append(",\"max\":").append(histogram.getMax()).append('}');
+    }
+
+    private void write(CharSequence line) {
+        if (writeFailure != null) {
+            return;
+        }
+        byte[] encoded = line.toString().getBytes(StandardCharsets.UTF_8);
+        try {
+            if (encoded.length > buffer.remaining()) {
+                flush();
+            }
+            if (encoded.length > buffer.capacity()) {
+                writeFully(ByteBuffer.wrap(encoded));
+            } else {
+                buffer.put(encoded);
+            }
+        } catch (IOException ex) {
+            writeFailure = ex;
+        }
+    }
+
+    private void flush() {
+        if (writeFailure != null || buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        try {
+            writeFully(buffer);
+        } catch (IOException ex) {
+            writeFailure = ex;
+        }
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    private static void appendString(StringBuilder line, String value) {
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    line.append("\\\"");
+                    break;
+                case '\\':
+                    line.append("\\\\");
+                    break;
+                case '\n':
+                    line.append("\\n");
+                    break;
+                case '\r':
+                    line.append("\\r");
+                    break;
+                case '\t':
+                    line.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        line.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        line.append(c);
+                    }
+            }
+        }
+        line.append('"');
+    }
+
+    private static class Record {
+
+        private static final Record END = new Record(null, null, 0, 0, null);
+
+        private final Outcome outcome;
+        private final Path path;
+        private final long size;
+        private final long nanos;
+        private final String error;
+
+        private Record(Outcome outcome, Path path, long size, long nanos, String error) {
+            this.outcome = outcome;
+            this.path = path;
+            this.size = size;
+            this.nanos = nanos;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches every directory under the source roots and turns the change events into batches of directories to back up.
+ * Events are collected until the sources have been quiet for a while (or for at most {@link #MAX_BATCH_DELAY_MILLIS}),
+ * so a burst of writes to one file or one directory turns into a single listing of that directory.
+ */
+public class SourceWatcher implements AutoCloseable {
+
+    public static final long MAX_BATCH_DELAY_MILLIS = 60_000;
+
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories;
+    private final long settleMillis;
+    private final PathFilter filter;
+
+    /**
+     * @param settleMillis how long the sources have to be quiet before a batch is handed out
+     * @param filter excluded directories aren't watched, and changes to excluded files are ignored
+     */
+    public SourceWatcher(long settleMillis, PathFilter filter) throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.directories = new ConcurrentHashMap<>();
+        this.settleMillis = settleMillis;
+        this.filter = filter;
+    }
+
+    /**
+     * Starts watching root and every directory under it. Directories that can't be read are skipped and logged.
+     */
+    public void watchTree(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (!dir.equals(root) && filter.excludesDirectory(dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                WatchKey key;
+                try {
+                    key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                } catch (IOException ex) {
+                    //deleted since it was listed, or out of watches (Linux caps them per user); the rest of the tree is still watched
+                    System.err.println("Not watching " + dir + " for changes");
+                    ex.printStackTrace(System.err);
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                directories.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                System.err.println("Not watching " + file + " for changes");
+                exc.printStackTrace(System.err);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    public int getWatchedDirectoryCount() {
+        return directories.size();
+    }
+
+    /**
+     * Blocks until something changes, then waits for the changes to settle.
+     *
+     * @return null once the watcher is closed
+     */
+    public Batch nextBatch() throws InterruptedException {
+        Batch batch = new Batch();
+        try {
+            WatchKey key = watchService.take();
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_BATCH_DELAY_MILLIS);
+            while (key != null) {
+                collect(key, batch);
+                if (System.nanoTime() >= deadline) {
+                    break;
+                }
+                key = watchService.poll(settleMillis, TimeUnit.MILLISECONDS);
+            }
+        } catch (ClosedWatchServiceException ex) {
+            return null;
+        }
+        batch.prune();
+        return batch;
+    }
+
+    private void collect(WatchKey key, Batch batch) {
+        Path directory = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (directory == null) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                //events were dropped, so there's no telling what changed under here
+                batch.deep.add(directory);
+                continue;
+            }
+            Path child = directory.resolve((Path) event.context());
+            boolean isDirectory = Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS);
+            boolean excluded;
+            if (isDirectory) {
+                excluded = filter.excludesDirectory(child);
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                //whatever it was is gone, so it's only ignored if it would be excluded as either
+                excluded = filter.excludes(child);
+            } else {
+                excluded = filter.excludesFile(child);
+            }
+            if (excluded) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.ENTRY_MODIFY && isDirectory) {
+                //a subdirectory's own key reports what changed inside it
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && isDirectory) {
+                //anything written into it before it was registered raised no events of its own
+                try {
+                    watchTree(child);
+                } catch (IOException ex) {
+                    System.err.println("Not watching " + child + " for changes");
+                    ex.printStackTrace(System.err);
+                }
+                batch.deep.add(child);
+            }
+            //the listing of the parent picks up new, changed and (when mirroring) deleted entries alike
+            batch.shallow.add(directory);
+        }
+        if (!key.reset()) {
+            //the directory is gone; its parent got an event for that
+            directories.remove(key);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    public static class Batch {
+
+        private final Set<Path> deep;
+        private final Set<Path> shallow;
+
+        private Batch() {
+            this.deep = new LinkedHashSet<>();
+            this.shallow = new LinkedHashSet<>();
+        }
+
+        /**
+         * @return directories to back up with everything under them
+         */
+        public Set<Path> getDeep() {
+            return deep;
+        }
+
+        /**
+         * @return directories to back up without descending into their subdirectories
+         */
+        public Set<Path> getShallow() {
+            return shallow;
+        }
+
+        public boolean isEmpty() {
+            return deep.isEmpty() && shallow.isEmpty();
+        }
+
+        /**
+         * Drops directories a deep directory already covers.
+         */
+        private void prune() {
+            for (Iterator<Path> it = deep.iterator(); it.hasNext();) {
+                Path directory = it.next();
+                if (isUnderOtherDeep(directory)) {
+                    it.remove();
+                }
+            }
+            shallow.removeIf(directory -> deep.contains(directory) || isUnderOtherDeep(directory));
+            //a deleted directory can't be listed; its parent's listing takes care of it
+            shallow.removeIf(directory -> !Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS));
+            deep.removeIf(directory -> !Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS));
+        }
+
+        private boolean isUnderOtherDeep(Path directory) {
+            for (Path parent = directory.getParent(); parent != null; parent = parent.getParent()) {
+                if (deep.contains(parent)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
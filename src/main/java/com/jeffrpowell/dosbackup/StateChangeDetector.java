@@ -0,0 +1,63 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+
+/**
+ * Compares a file's size and modified time against what was recorded in the destination's {@link BackupState}.
+ * With hashing enabled, a file whose size matches but whose modified time moved is hashed before deciding,
+ * so touched-but-identical files are not copied again.
+ */
+public class StateChangeDetector implements ChangeDetector {
+
+    private final BackupState state;
+    private final boolean hashContent;
+
+    public StateChangeDetector(BackupState state, boolean hashContent) {
+        this.state = state;
+        this.hashContent = hashContent;
+    }
+
+    @Override
+    public Class<? extends BasicFileAttributes> getAttributeType() {
+        return BasicFileAttributes.class;
+    }
+
+    @Override
+    public boolean needsCopy(Path source, BasicFileAttributes attributes) throws IOException {
+        BackupState.FileState previous = state.getPrevious(source);
+        if (previous == null || previous.getSize() != attributes.size()) {
+            return true;
+        }
+        long modified = BackupState.modifiedTime(attributes);
+        if (previous.getModified() == modified) {
+            state.record(source, previous);
+            return false;
+        }
+        if (hashContent && previous.getHash() != null) {
+            byte[] hash = ContentHash.hash(source);
+            if (Arrays.equals(hash, previous.getHash())) {
+                state.record(source, new BackupState.FileState(attributes.size(), modified, hash));
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void copied(Path source, BasicFileAttributes attributes) throws IOException {
+        copied(source, attributes, null);
+    }
+
+    @Override
+    public void copied(Path source, BasicFileAttributes attributes, byte[] contentHash) throws IOException {
+        byte[] hash = null;
+        if (hashContent) {
+            //a hash taken during the copy saves reading the source a second time
+            hash = contentHash != null ? contentHash : ContentHash.hash(source);
+        }
+        state.record(source, new BackupState.FileState(attributes.size(), BackupState.modifiedTime(attributes), hash));
+    }
+}
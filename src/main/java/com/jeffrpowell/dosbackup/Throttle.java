@@ -0,0 +1,127 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token buckets for bytes and file operations per second, shared by every copy and delete. Callers take what they need
+ * up front and, if that puts the bucket in debt, wait on the bucket (giving up its lock) until the debt would have been
+ * earned back. A bucket holds at most one second of tokens, which caps the burst after an idle spell.
+ * Both limits can be changed while a run is going, which wakes every waiting caller; 0 means unlimited.
+ */
+public class Throttle {
+
+    /**
+     * Transfers are split into slices this big so a throttled large file trickles out instead of bursting and stalling.
+     */
+    public static final int SLICE_BYTES = 1024 * 1024;
+
+    private final Bucket bytes;
+    private final Bucket operations;
+
+    public Throttle(long bytesPerSecond, long operationsPerSecond) {
+        this.bytes = new Bucket(bytesPerSecond);
+        this.operations = new Bucket(operationsPerSecond);
+    }
+
+    public Throttle(BackupOptions options) {
+        this(options.getMaxBytesPerSecond(), options.getMaxOperationsPerSecond());
+    }
+
+    public long getBytesPerSecond() {
+        return bytes.getRate();
+    }
+
+    public void setBytesPerSecond(long bytesPerSecond) {
+        bytes.setRate(bytesPerSecond);
+    }
+
+    public long getOperationsPerSecond() {
+        return operations.getRate();
+    }
+
+    public void setOperationsPerSecond(long operationsPerSecond) {
+        operations.setRate(operationsPerSecond);
+    }
+
+    public boolean isLimitingBytes() {
+        return bytes.getRate() > 0;
+    }
+
+    public void acquireBytes(long count) throws IOException {
+        bytes.acquire(count);
+    }
+
+    /**
+     * One file copied or deleted.
+     */
+    public void acquireOperation() throws IOException {
+        operations.acquire(1);
+    }
+
+    private static class Bucket {
+
+        private long rate;
+        private double tokens;
+        private long refilled;
+        private long rateChanges;
+
+        private Bucket(long rate) {
+            if (rate < 0) {
+                throw new IllegalArgumentException("rate can't be negative");
+            }
+            this.rate = rate;
+            this.tokens = rate;
+            this.refilled = System.nanoTime();
+        }
+
+        private synchronized long getRate() {
+            return rate;
+        }
+
+        private synchronized void setRate(long rate) {
+            if (rate < 0) {
+                throw new IllegalArgumentException("rate can't be negative");
+            }
+            refill(System.nanoTime());
+            this.rate = rate;
+            //debt run up under the old rate is forgiven, so whoever is waiting on it goes now; the new rate applies from here on
+            tokens = Math.max(0, Math.min(tokens, rate));
+            rateChanges++;
+            notifyAll();
+        }
+
+        private synchronized void acquire(long count) throws IOException {
+            if (rate == 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            refill(now);
+            tokens -= count;
+            if (tokens >= 0) {
+                return;
+            }
+            long deadline = now + (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / rate);
+            long changes = rateChanges;
+            long waitNanos = deadline - now;
+            while (waitNanos > 0 && rateChanges == changes) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+                } catch (InterruptedException ex) {
+                    //cancelled; leave the flag set for whoever checks next
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while throttled");
+                }
+                waitNanos = deadline - System.nanoTime();
+            }
+        }
+
+        private void refill(long now) {
+            if (rate > 0) {
+                tokens = Math.min(rate, tokens + (double) (now - refilled) * rate / TimeUnit.SECONDS.toNanos(1));
+            }
+            refilled = now;
+        }
+    }
+}
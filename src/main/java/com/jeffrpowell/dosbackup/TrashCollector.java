@@ -0,0 +1,116 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The one place destination files are deleted. A stale directory is renamed into a trash folder in the destination
+ * root, which takes one metadata operation however big the tree is, and the trash is emptied by a single
+ * low-priority background thread so deleting never holds up the scan or the copies.
+ * Anything left in the trash by a run that was cancelled or killed is reclaimed when the next run starts.
+ */
+public class TrashCollector {
+
+    public static final String DIRECTORY_NAME = ".dosbackup-trash";
+
+    private final Path trash;
+    private final Throttle throttle;
+    private final ForkJoinPool reclaimer;
+    private final String runId;
+    private final AtomicLong sequence;
+    private final LongAdder discarded;
+    private final LongAdder deletedInPlace;
+
+    public TrashCollector(Path destinationRoot, Throttle throttle) {
+        this.trash = destinationRoot.resolve(DIRECTORY_NAME);
+        this.throttle = throttle;
+        this.reclaimer = new ForkJoinPool(1, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("backup-trash");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+        this.runId = Long.toString(System.currentTimeMillis(), 36);
+        this.sequence = new AtomicLong();
+        this.discarded = new LongAdder();
+        this.deletedInPlace = new LongAdder();
+    }
+
+    /**
+     * Queues whatever an earlier run left in the trash.
+     */
+    public void reclaimLeftovers() throws IOException {
+        if (!Files.isDirectory(trash)) {
+            return;
+        }
+        try ( DirectoryStream<Path> ds = Files.newDirectoryStream(trash)) {
+            for (Path leftover : ds) {
+                reclaimer.execute(new DeleteForkThread(leftover, throttle));
+            }
+        }
+    }
+
+    /**
+     * Moves a stale directory out of the way straight away and deletes it in the background.
+     * If it can't be renamed into the trash (say it's on another volume mounted inside the destination),
+     * it is deleted where it is before this returns, since a file may be about to be copied to the same path.
+     */
+    public void discardDirectory(Path directory) throws IOException {
+        Files.createDirectories(trash);
+        Path target = trash.resolve(runId + "-" + sequence.incrementAndGet() + "-" + directory.getFileName());
+        discarded.increment();
+        try {
+            Files.move(directory, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            deletedInPlace.increment();
+            new DeleteForkThread(directory, throttle).invoke();
+            return;
+        }
+        reclaimer.execute(new DeleteForkThread(target, throttle));
+    }
+
+    /**
+     * Single files are cheap enough to delete on the spot.
+     */
+    public void discardFile(Path file) throws IOException {
+        throttle.acquireOperation();
+        Files.delete(file);
+    }
+
+    public long getDiscarded() {
+        return discarded.sum();
+    }
+
+    public long getDeletedInPlace() {
+        return deletedInPlace.sum();
+    }
+
+    /**
+     * Waits for the trash to be emptied, then removes the trash folder itself if nothing else is in it.
+     */
+    public void awaitReclaimed() {
+        reclaimer.awaitQuiescence(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        reclaimer.shutdown();
+        try {
+            Files.deleteIfExists(trash);
+        } catch (IOException ex) {
+            //not empty, or in use; the next run tries again
+        }
+    }
+
+    /**
+     * Stops reclaiming; what's still in the trash is picked up by the next run.
+     */
+    public void shutdownNow() {
+        reclaimer.shutdownNow();
+    }
+}
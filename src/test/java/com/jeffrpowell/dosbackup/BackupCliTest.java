@@ -0,0 +1,152 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class BackupCliTest {
+
+    @TempDir
+    Path root;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+    @Test
+    public void backsUpTheSourcesGiven() throws IOException {
+        Path source = Files.createDirectory(root.resolve("source"));
+        Files.writeString(source.resolve("file.txt"), "file");
+        Path destination = root.resolve("destination");
+
+        assertEquals(0, run("-d", destination.toString(), source.toString()));
+
+        assertEquals("file", Files.readString(destination.resolve(source.subpath(0, source.getNameCount())).resolve("file.txt")));
+        assertTrue(out.toString().contains("1 of 1 files moved"));
+        assertTrue(out.toString().contains("4 of 4 bytes copied"));
+        assertTrue(out.toString().contains("stat calls"));
+        assertTrue(out.toString().contains("Report written to " + destination));
+    }
+
+    @Test
+    public void restoresWhatItCompressed() throws IOException {
+        Path source = Files.createDirectory(root.resolve("source"));
+        Files.writeString(source.resolve("file.txt"), "file");
+        Path destination = root.resolve("destination");
+        assertEquals(0, run("-d", destination.toString(), "--compress", source.toString()));
+        Path backup = destination.resolve(source.subpath(0, source.getNameCount()));
+        Path restored = root.resolve("restored");
+
+        assertEquals(0, run("--restore", restored.toString(), backup.toString()));
+
+        assertEquals("file", Files.readString(restored.resolve("source/file.txt")));
+        assertTrue(out.toString().contains("1 files restored"));
+    }
+
+    @Test
+    public void restoringAWholeDestinationLeavesTheReportBehind() throws IOException {
+        Path source = Files.createDirectory(root.resolve("source"));
+        Files.writeString(source.resolve("file.txt"), "file");
+        Path destination = root.resolve("destination");
+        assertEquals(0, run("-d", destination.toString(), source.toString()));
+        Path restored = root.resolve("restored");
+
+        assertEquals(0, run("--restore", restored.toString(), destination.toString()));
+
+        assertTrue(out.toString().contains("1 files restored"));
+        try ( Stream<Path> walk = Files.walk(restored)) {
+            assertTrue(walk.noneMatch(path -> path.getFileName().toString().startsWith(RunReport.FILE_PREFIX)));
+        }
+    }
+
+    @Test
+    public void aStoppedRunFinishesUpBeforeTheJvmExits() throws Exception {
+        Path source = Files.createDirectory(root.resolve("source"));
+        Files.write(source.resolve("big.bin"), new byte[1 << 20]);
+        Path destination = root.resolve("destination");
+        Path classes = Paths.get(BackupCli.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        Path java = Paths.get(System.getProperty("java.home"), "bin", "java");
+        Path stdout = root.resolve("stdout.txt");
+        //throttled to take minutes, so it's still copying when it's stopped
+        Process backup = new ProcessBuilder(java.toString(), "-cp", classes.toString(), BackupCli.class.getName(),
+            "-d", destination.toString(), "--max-rate", "1K", source.toString())
+            .redirectOutput(stdout.toFile())
+            .redirectError(ProcessBuilder.Redirect.DISCARD)
+            .start();
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+            while (!CheckpointJournal.exists(destination) && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            assertTrue(CheckpointJournal.exists(destination));
+            //elsewhere destroy() kills the process outright, as kill -9 would
+            assumeTrue(backup.supportsNormalTermination(), "processes can't be stopped gracefully here");
+
+            backup.destroy();
+
+            assertTrue(backup.waitFor(20, TimeUnit.SECONDS));
+        } finally {
+            backup.destroyForcibly();
+        }
+        //the run got to print its summary, and left its journal for --resume
+        assertTrue(Files.readString(stdout).contains("Report written to"));
+        assertTrue(CheckpointJournal.exists(destination));
+    }
+
+    @Test
+    public void needsADestinationAndASource() {
+        assertEquals(2, run(root.toString()));
+        assertEquals(2, run("-d", root.toString()));
+        assertTrue(err.toString().contains("A destination and at least one source are required"));
+    }
+
+    @Test
+    public void rejectsUnknownOptionsAndBadValues() {
+        assertEquals(2, run("--bogus"));
+        assertEquals(2, run("--detect", "nope"));
+        assertEquals(2, run("--chunk-size", "0"));
+        assertEquals(2, run("--queue-capacity", "0"));
+        assertEquals(2, run("-d"));
+        assertTrue(err.toString().contains("Usage:"));
+    }
+
+    @Test
+    public void printsUsageWhenAsked() {
+        assertEquals(0, run("--help"));
+        assertTrue(out.toString().startsWith("Usage:"));
+    }
+
+    @Test
+    public void parsesSizesWithASuffix() {
+        assertEquals(10, BackupCli.parseBytes("10"));
+        assertEquals(4096, BackupCli.parseBytes("4K"));
+        assertEquals(2L * 1024 * 1024, BackupCli.parseBytes(" 2m "));
+        assertEquals(1024L * 1024 * 1024, BackupCli.parseBytes("1G"));
+        assertThrows(NumberFormatException.class, () -> BackupCli.parseBytes("lots"));
+    }
+
+    @Test
+    public void rejectsSizesThatAreNegativeOrTooBig() {
+        assertEquals(0, BackupCli.parseBytes("0"));
+        assertEquals(Long.MAX_VALUE, BackupCli.parseBytes(String.valueOf(Long.MAX_VALUE)));
+        assertThrows(NumberFormatException.class, () -> BackupCli.parseBytes("-1"));
+        assertThrows(NumberFormatException.class, () -> BackupCli.parseBytes("-4K"));
+        assertThrows(NumberFormatException.class, () -> BackupCli.parseBytes("9000000000G"));
+        assertThrows(NumberFormatException.class, () -> BackupCli.parseBytes(Long.MAX_VALUE + "K"));
+        assertEquals(2, run("--max-rate", "-1M"));
+        assertEquals(2, run("--delta", "0"));
+    }
+
+    int run(String... args) {
+        return BackupCli.run(args, new PrintStream(out, true), new PrintStream(err, true));
+    }
+}
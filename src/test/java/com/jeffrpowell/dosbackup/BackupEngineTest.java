@@ -0,0 +1,419 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.management.ObjectName;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class BackupEngineTest {
+
+    @TempDir
+    Path root;
+    private Path source;
+    private Path destination;
+    private BackupOptions options;
+
+    @BeforeEach
+    public void createDirectories() throws IOException {
+        source = Files.createDirectory(root.resolve("source"));
+        destination = Files.createDirectory(root.resolve("destination"));
+        options = new BackupOptions();
+    }
+
+    @Test
+    public void copiesOnlyWhatChanged() throws IOException {
+        Files.createDirectories(source.resolve("a/b"));
+        Files.writeString(source.resolve("a/one.txt"), "one");
+        Files.writeString(source.resolve("a/b/two.txt"), "two");
+
+        assertEquals(6, run(destination).getFinalProgress().getBytesCopied());
+        assertEquals("two", Files.readString(backedUp(destination, "a/b/two.txt")));
+        assertEquals(0, run(destination).getFinalProgress().getBytesCopied());
+
+        Files.writeString(source.resolve("a/one.txt"), "uno!");
+        assertEquals(4, run(destination).getFinalProgress().getBytesCopied());
+        assertEquals("uno!", Files.readString(backedUp(destination, "a/one.txt")));
+    }
+
+    @Test
+    public void copiesEverythingWhenAskedTo() throws IOException {
+        Files.writeString(source.resolve("one.txt"), "one");
+        run(destination);
+
+        options.setBackupAllFiles(true);
+
+        assertEquals(3, run(destination).getFinalProgress().getBytesCopied());
+    }
+
+    @Test
+    public void mirrorDeletesWhatIsGoneFromTheSource() throws IOException {
+        Files.createDirectories(source.resolve("keep"));
+        Files.createDirectories(source.resolve("drop/deeper"));
+        Files.writeString(source.resolve("keep/file.txt"), "keep");
+        Files.writeString(source.resolve("drop/deeper/file.txt"), "drop");
+        Files.writeString(source.resolve("gone.txt"), "gone");
+        options.setDeleteDestinationFiles(true);
+        run(destination);
+
+        deleteTree(source.resolve("drop"));
+        Files.delete(source.resolve("gone.txt"));
+        BackupResult result = run(destination);
+
+        assertTrue(result.getFailedPaths().isEmpty());
+        assertTrue(Files.exists(backedUp(destination, "keep/file.txt")));
+        assertFalse(Files.exists(backedUp(destination, "drop")));
+        assertFalse(Files.exists(backedUp(destination, "gone.txt")));
+        assertFalse(Files.exists(destination.resolve(TrashCollector.DIRECTORY_NAME)));
+    }
+
+    @Test
+    public void withoutMirroringNothingIsDeleted() throws IOException {
+        Files.writeString(source.resolve("gone.txt"), "gone");
+        run(destination);
+
+        Files.delete(source.resolve("gone.txt"));
+        run(destination);
+
+        assertTrue(Files.exists(backedUp(destination, "gone.txt")));
+    }
+
+    @Test
+    public void backsUpLinkedFilesAsTheirTargets() throws IOException {
+        Path target = Files.writeString(root.resolve("target.txt"), "hello");
+        try {
+            Files.createSymbolicLink(source.resolve("link.txt"), target);
+            Files.createSymbolicLink(source.resolve("dangling.txt"), root.resolve("nothing"));
+        } catch (IOException | UnsupportedOperationException ex) {
+            assumeTrue(false, "symbolic links aren't supported here");
+        }
+
+        BackupResult result = run(destination);
+
+        assertEquals(0, result.getFailureCount());
+        Path copy = backedUp(destination, "link.txt");
+        assertFalse(Files.isSymbolicLink(copy));
+        assertEquals("hello", Files.readString(copy));
+        assertFalse(Files.exists(backedUp(destination, "dangling.txt")));
+        assertEquals(0, run(destination).getFinalProgress().getBytesCopied());
+    }
+
+    @Test
+    public void aFileThatFailsDoesNotStopTheRest() throws IOException {
+        Files.createDirectories(source.resolve("blocked"));
+        Files.writeString(source.resolve("blocked/file.txt"), "blocked");
+        Files.writeString(source.resolve("fine.txt"), "fine");
+        //a file where a destination directory has to go
+        Files.createDirectories(backedUp(destination, ""));
+        Files.writeString(backedUp(destination, "blocked"), "in the way");
+
+        BackupResult result = run(destination);
+
+        assertEquals(Collections.singletonList(source.resolve("blocked/file.txt").toString()), result.getFailedPaths());
+        assertEquals(1, result.getFailureCount());
+        assertEquals("fine", Files.readString(backedUp(destination, "fine.txt")));
+    }
+
+    @Test
+    public void aCancelledRunCopiesNothing() throws IOException {
+        Files.writeString(source.resolve("file.txt"), "file");
+        BackupEngine engine = new BackupEngine(Collections.singleton(source), destination, options);
+
+        engine.cancel();
+        BackupResult result = engine.run();
+
+        assertTrue(result.isCancelled());
+        assertFalse(Files.exists(backedUp(destination, "file.txt")));
+    }
+
+    @Test
+    public void aResumedRunSkipsWhatTheInterruptedRunFinished() throws IOException {
+        Path done = Files.writeString(source.resolve("done.txt"), "done");
+        Path partial = Files.writeString(source.resolve("partial.txt"), "partial");
+        Files.createDirectories(backedUp(destination, ""));
+        Files.writeString(backedUp(destination, "partial.txt"), "par");
+        CheckpointJournal journal = CheckpointJournal.open(destination, false);
+        journal.fileDone(done, Files.readAttributes(done, BasicFileAttributes.class));
+        journal.copyStarted(partial);
+        journal.close(false);
+        options.setDeleteDestinationFiles(true);
+        options.setResume(true);
+
+        BackupResult result = run(destination);
+
+        //the finished file is trusted without a look at the destination; the partial one is copied again
+        assertFalse(Files.exists(backedUp(destination, "done.txt")));
+        assertEquals("partial", Files.readString(backedUp(destination, "partial.txt")));
+        assertEquals(7, result.getFinalProgress().getBytesCopied());
+        assertNotNull(result.getResumeSummary());
+        assertFalse(CheckpointJournal.exists(destination));
+    }
+
+    @Test
+    public void aResumedRunKeepsTheStateOfWhatItSkipped() throws IOException {
+        Files.createDirectories(source.resolve("done"));
+        Files.createDirectories(source.resolve("todo"));
+        Path changed = Files.writeString(source.resolve("done/changed.txt"), "one");
+        Files.writeString(source.resolve("done/same.txt"), "same");
+        Files.writeString(source.resolve("todo/other.txt"), "other");
+        run(destination);
+        //an interrupted run that copied the changed file and finished its directory
+        Files.writeString(changed, "uno!");
+        Files.copy(changed, backedUp(destination, "done/changed.txt"), StandardCopyOption.REPLACE_EXISTING);
+        CheckpointJournal journal = CheckpointJournal.open(destination, false);
+        journal.fileDone(changed, Files.readAttributes(changed, BasicFileAttributes.class));
+        journal.directoryListed(source.resolve("done"));
+        journal.close(false);
+
+        options.setResume(true);
+        BackupResult resumed = run(destination);
+        assertNotNull(resumed.getResumeSummary());
+        assertEquals(0, resumed.getFinalProgress().getBytesCopied());
+
+        options.setResume(false);
+        assertEquals(0, run(destination).getFinalProgress().getBytesCopied());
+        assertEquals("uno!", Files.readString(backedUp(destination, "done/changed.txt")));
+    }
+
+    @Test
+    public void withoutResumingTheJournalIsDiscarded() throws IOException {
+        Path done = Files.writeString(source.resolve("done.txt"), "done");
+        CheckpointJournal journal = CheckpointJournal.open(destination, false);
+        journal.fileDone(done, Files.readAttributes(done, BasicFileAttributes.class));
+        journal.close(false);
+
+        BackupResult result = run(destination);
+
+        assertNull(result.getResumeSummary());
+        assertEquals("done", Files.readString(backedUp(destination, "done.txt")));
+        assertFalse(CheckpointJournal.exists(destination));
+    }
+
+    @Test
+    public void verifiesWhatItCopied() throws IOException {
+        Files.writeString(source.resolve("one.txt"), "one");
+        Files.writeString(source.resolve("two.txt"), "two");
+        options.setVerifyCopies(true);
+
+        BackupResult result = run(destination);
+
+        assertTrue(result.getFailedPaths().isEmpty());
+        assertTrue(result.getVerifySummary().startsWith("2 files verified"));
+        assertTrue(result.getVerifySummary().endsWith(" 0 mismatches"));
+        assertTrue(Files.exists(destination.resolve(ChecksumManifest.FILE_NAME)));
+    }
+
+    @Test
+    public void summarisesOnlyWhatTheRunDid() throws IOException {
+        Files.writeString(source.resolve("one.txt"), "one");
+
+        List<String> plain = run(destination).getSummaries();
+        options.setVerifyCopies(true);
+        List<String> verified = run(destination).getSummaries();
+
+        assertEquals(2, plain.size());
+        assertTrue(plain.get(0).startsWith("1 small-file fast path copies"));
+        assertEquals(3, verified.size());
+        assertTrue(verified.get(2).contains(" files verified"));
+    }
+
+    @Test
+    public void aDestinationThatChangedUnderTheCopyFailsVerification() throws IOException {
+        Files.writeString(source.resolve("a.txt"), "aaaa");
+        Files.writeString(source.resolve("b.txt"), "bbbb");
+        //two destination names for one file, so whichever copy lands second overwrites the first
+        Files.createDirectories(backedUp(destination, ""));
+        Path shared = Files.writeString(backedUp(destination, "a.txt"), "old");
+        try {
+            Files.createLink(backedUp(destination, "b.txt"), shared);
+        } catch (IOException | UnsupportedOperationException ex) {
+            assumeTrue(false, "hard links aren't supported here");
+        }
+        options.setVerifyCopies(true);
+
+        BackupResult result = run(destination);
+
+        assertEquals(1, result.getFailureCount());
+        assertTrue(result.getVerifySummary().endsWith(" 1 mismatches"));
+        List<String> failed = Files.readAllLines(result.getReportFile()).stream()
+            .filter(line -> line.contains("\"outcome\":\"failed\""))
+            .collect(Collectors.toList());
+        assertEquals(1, failed.size());
+        assertTrue(failed.get(0).contains("Verification failed"));
+    }
+
+    @Test
+    public void reportsEveryFileItLookedAt() throws IOException {
+        Files.writeString(source.resolve("new.txt"), "new");
+        Files.writeString(source.resolve("same.txt"), "same");
+        options.setDeleteDestinationFiles(true);
+        run(destination);
+        Files.writeString(source.resolve("new.txt"), "newer");
+        Files.writeString(backedUp(destination, "stale.txt"), "stale");
+        Path reportFile = root.resolve("report.ndjson");
+        options.setReportFile(reportFile);
+
+        BackupResult result = run(destination);
+
+        assertEquals(reportFile, result.getReportFile());
+        String report = Files.readString(reportFile);
+        assertTrue(report.contains("\"outcome\":\"copied\",\"path\":\"" + source.resolve("new.txt") + "\",\"bytes\":5"));
+        assertTrue(report.contains("\"outcome\":\"unchanged\",\"path\":\"" + source.resolve("same.txt") + "\""));
+        assertTrue(report.contains("\"outcome\":\"deleted\",\"path\":\"" + backedUp(destination, "stale.txt") + "\""));
+        assertTrue(report.contains("\"type\":\"summary\""));
+    }
+
+    @Test
+    public void timesEveryStage() throws IOException {
+        Files.createDirectories(source.resolve("sub"));
+        Files.writeString(source.resolve("sub/new.txt"), "new");
+        Files.writeString(source.resolve("same.txt"), "same");
+        run(destination);
+        Files.writeString(source.resolve("sub/new.txt"), "newer");
+        BackupEngine engine = new BackupEngine(Collections.singleton(source), destination, options);
+
+        engine.run();
+
+        BackupStats stats = engine.getStats();
+        assertEquals(2, stats.getStageTimes(BackupStats.Stage.LIST).getCount());
+        assertEquals(1, stats.getStageTimes(BackupStats.Stage.COPY).getCount());
+        assertEquals(1, stats.getStageTimes(BackupStats.Stage.COMPARE).getCount());
+    }
+
+    @Test
+    public void registersAMonitorOnlyWhileRunning() throws Exception {
+        Files.writeString(source.resolve("file.txt"), "file");
+        BackupEngine engine = new BackupEngine(Collections.singleton(source), destination, options);
+        BackupMonitor monitor = new BackupMonitor(engine);
+
+        engine.run();
+
+        assertEquals(1, monitor.getFilesMoved());
+        assertEquals(4, monitor.getBytesCopied());
+        assertEquals(0, monitor.getFailures());
+        assertEquals(1, monitor.getStageTimings().get("COPY").getCount());
+        assertTrue(ManagementFactory.getPlatformMBeanServer().queryNames(new ObjectName("com.jeffrpowell.dosbackup:type=Backup,*"), null).isEmpty());
+    }
+
+    @Test
+    public void anIncrementalRunLooksOnlyWhereItIsTold() throws IOException {
+        Files.createDirectories(source.resolve("shallow/below"));
+        Files.createDirectories(source.resolve("deep/below"));
+        Files.createDirectories(source.resolve("untouched"));
+        for (String file : new String[]{"shallow/file.txt", "shallow/below/file.txt", "deep/below/file.txt", "untouched/file.txt"}) {
+            Files.writeString(source.resolve(file), "old");
+        }
+        run(destination);
+        for (String file : new String[]{"shallow/file.txt", "shallow/below/file.txt", "deep/below/file.txt", "untouched/file.txt"}) {
+            Files.writeString(source.resolve(file), "new!");
+        }
+
+        BackupResult result = BackupEngine.incremental(Collections.singleton(source.resolve("deep")), Collections.singleton(source.resolve("shallow")),
+            destination, options, new Throttle(options)).run();
+
+        assertEquals(8, result.getFinalProgress().getBytesCopied());
+        assertEquals("new!", Files.readString(backedUp(destination, "shallow/file.txt")));
+        assertEquals("old", Files.readString(backedUp(destination, "shallow/below/file.txt")));
+        assertEquals("new!", Files.readString(backedUp(destination, "deep/below/file.txt")));
+        assertEquals("old", Files.readString(backedUp(destination, "untouched/file.txt")));
+    }
+
+    @Test
+    public void anExcludedTreeIsNeitherCopiedNorDeleted() throws IOException {
+        Files.createDirectories(source.resolve("rootIgnore/nest"));
+        Files.writeString(source.resolve("rootIgnore/nest/file.txt"), "ignored");
+        Files.writeString(source.resolve("kept.txt"), "kept");
+        Files.createDirectories(backedUp(destination, "rootIgnore"));
+        Files.writeString(backedUp(destination, "rootIgnore/old.txt"), "old");
+        options.setDeleteDestinationFiles(true);
+        options.setPathRules(Collections.emptyList(), Collections.singletonList("rootIgnore"));
+
+        BackupResult result = run(destination);
+
+        assertEquals(4, result.getFinalProgress().getBytesCopied());
+        assertEquals("kept", Files.readString(backedUp(destination, "kept.txt")));
+        assertFalse(Files.exists(backedUp(destination, "rootIgnore/nest")));
+        //mirroring leaves what the rules exclude alone
+        assertEquals("old", Files.readString(backedUp(destination, "rootIgnore/old.txt")));
+        assertNotNull(result.getExcludedSummary());
+    }
+
+    @Test
+    public void aDestinationThatFailsDoesNotStopTheOthers() throws IOException {
+        Files.createDirectories(source.resolve("a"));
+        Files.writeString(source.resolve("a/one.txt"), "one");
+        Files.writeString(source.resolve("two.txt"), "two");
+        Path blocked = Files.createDirectory(root.resolve("blocked"));
+        //a file where the backup's top directory has to go
+        Files.writeString(blocked.resolve(source.getName(0).toString()), "in the way");
+
+        BackupResult result = run(Arrays.asList(blocked, destination));
+
+        assertTrue(result.getFailureCount() > 0);
+        assertEquals("one", Files.readString(backedUp(destination, "a/one.txt")));
+        assertEquals("two", Files.readString(backedUp(destination, "two.txt")));
+    }
+
+    @Test
+    public void mirrorBringsEveryDestinationInLine() throws IOException {
+        Path second = Files.createDirectory(root.resolve("second"));
+        Files.writeString(source.resolve("one.txt"), "one");
+        Files.writeString(source.resolve("two.txt"), "two");
+        options.setDeleteDestinationFiles(true);
+        List<Path> destinations = Arrays.asList(destination, second);
+        run(destinations);
+
+        //the destinations drift apart between runs
+        Files.delete(backedUp(second, "two.txt"));
+        Files.writeString(backedUp(second, "extra.txt"), "extra");
+        Files.writeString(backedUp(destination, "other.txt"), "other");
+        BackupResult result = run(destinations);
+
+        assertEquals(0, result.getFailureCount());
+        for (Path to : destinations) {
+            assertEquals("one", Files.readString(backedUp(to, "one.txt")));
+            assertEquals("two", Files.readString(backedUp(to, "two.txt")));
+            assertFalse(Files.exists(backedUp(to, "extra.txt")));
+            assertFalse(Files.exists(backedUp(to, "other.txt")));
+        }
+        assertEquals(0, run(destinations).getFinalProgress().getBytesCopied());
+    }
+
+    BackupResult run(Path to) throws IOException {
+        return new BackupEngine(Collections.singleton(source), to, options).run();
+    }
+
+    BackupResult run(List<Path> to) throws IOException {
+        return new BackupEngine(Collections.singleton(source), to, options).run();
+    }
+
+    Path backedUp(Path to, String relative) {
+        return to.resolve(source.subpath(0, source.getNameCount())).resolve(relative);
+    }
+
+    static void deleteTree(Path tree) throws IOException {
+        List<Path> paths;
+        try ( Stream<Path> walk = Files.walk(tree)) {
+            paths = walk.sorted(Collections.reverseOrder()).collect(Collectors.toList());
+        }
+        for (Path path : paths) {
+            Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class BackupStateTest {
+
+    private static final Path FILE = Paths.get("/source/dir/file.txt");
+    private static final Path OTHER = Paths.get("/source/other.txt");
+
+    @TempDir
+    Path destination;
+
+    @Test
+    public void startsEmptyWithoutAStateFile() throws IOException {
+        BackupState state = BackupState.load(destination);
+        assertNull(state.getPrevious(FILE));
+    }
+
+    @Test
+    public void roundTripsEntriesWithAndWithoutHashes() throws IOException {
+        BackupState state = BackupState.load(destination);
+        byte[] hash = {1, 2, 3, 4};
+        state.record(FILE, new BackupState.FileState(10, 20, hash));
+        state.record(OTHER, new BackupState.FileState(30, 40, null));
+        state.save(true);
+
+        BackupState loaded = BackupState.load(destination);
+        BackupState.FileState file = loaded.getPrevious(FILE);
+        assertEquals(10, file.getSize());
+        assertEquals(20, file.getModified());
+        assertArrayEquals(hash, file.getHash());
+        BackupState.FileState other = loaded.getPrevious(OTHER);
+        assertEquals(30, other.getSize());
+        assertNull(other.getHash());
+    }
+
+    @Test
+    public void completeSaveDropsFilesNotSeenThisRun() throws IOException {
+        BackupState state = BackupState.load(destination);
+        state.record(FILE, new BackupState.FileState(10, 20, null));
+        state.record(OTHER, new BackupState.FileState(30, 40, null));
+        state.save(true);
+
+        BackupState second = BackupState.load(destination);
+        second.record(FILE, new BackupState.FileState(11, 21, null));
+        second.save(true);
+
+        BackupState loaded = BackupState.load(destination);
+        assertEquals(11, loaded.getPrevious(FILE).getSize());
+        assertNull(loaded.getPrevious(OTHER));
+    }
+
+    @Test
+    public void partialSaveKeepsFilesNotSeenThisRun() throws IOException {
+        BackupState state = BackupState.load(destination);
+        state.record(FILE, new BackupState.FileState(10, 20, null));
+        state.record(OTHER, new BackupState.FileState(30, 40, null));
+        state.save(true);
+
+        BackupState second = BackupState.load(destination);
+        second.record(FILE, new BackupState.FileState(11, 21, null));
+        second.save(false);
+
+        BackupState loaded = BackupState.load(destination);
+        assertEquals(11, loaded.getPrevious(FILE).getSize());
+        assertEquals(30, loaded.getPrevious(OTHER).getSize());
+    }
+
+    @Test
+    public void ignoresAStateFileInAnotherFormat() throws IOException {
+        Files.write(destination.resolve(BackupState.FILE_NAME), new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 8});
+        assertNull(BackupState.load(destination).getPrevious(FILE));
+    }
+
+    @Test
+    public void carryOverSkippedKeepsEntriesUnderSkippedDirectories() throws IOException {
+        byte[] hash = {9, 9};
+        BackupState state = BackupState.load(destination);
+        state.record(FILE, new BackupState.FileState(10, 20, hash));
+        state.record(OTHER, new BackupState.FileState(30, 40, null));
+        state.save(true);
+
+        BackupState resumed = BackupState.load(destination);
+        String skippedDirectory = BackupState.keyOf(FILE.getParent());
+        resumed.carryOverSkipped(key -> key.startsWith(skippedDirectory), Collections.emptyMap());
+        resumed.save(true);
+
+        BackupState loaded = BackupState.load(destination);
+        assertArrayEquals(hash, loaded.getPrevious(FILE).getHash());
+        assertNull(loaded.getPrevious(OTHER));
+    }
+
+    @Test
+    public void carryOverSkippedPrefersWhatTheInterruptedRunCopied() throws IOException {
+        byte[] hash = {9, 9};
+        BackupState state = BackupState.load(destination);
+        state.record(FILE, new BackupState.FileState(10, 20, hash));
+        state.save(true);
+
+        BackupState resumed = BackupState.load(destination);
+        Map<String, BackupState.FileState> journaled = Collections.singletonMap(BackupState.keyOf(FILE), new BackupState.FileState(12, 22, null));
+        resumed.carryOverSkipped(key -> true, journaled);
+        resumed.save(true);
+
+        BackupState.FileState file = BackupState.load(destination).getPrevious(FILE);
+        assertNotNull(file);
+        assertEquals(12, file.getSize());
+        assertEquals(22, file.getModified());
+        //the old hash describes the old contents
+        assertNull(file.getHash());
+    }
+}
@@ -0,0 +1,77 @@
+package com.jeffrpowell.dosbackup;
+
+import java.util.stream.IntStream;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public class BackupStatsTest {
+
+    @Test
+    public void countsWhatWorkersReport() {
+        BackupStats stats = new BackupStats();
+        stats.directoryListed(3, 2, 300);
+        stats.directoryListed(1, 0, 50);
+        stats.fileMoved();
+        stats.bytesCopied(100);
+        stats.statCalls(7);
+        stats.statCalls(2);
+
+        Progress progress = stats.snapshot(1, null);
+
+        assertEquals(9, stats.getStatCalls());
+
+        assertEquals(4, progress.getFilesFound());
+        assertEquals(1, progress.getFilesMoved());
+        assertEquals(350, progress.getBytesFound());
+        assertEquals(100, progress.getBytesCopied());
+        //the root and two subdirectories were found, two of them have been listed
+        assertEquals(1, progress.getDirectoriesLeft());
+        assertEquals(0, progress.getBytesPerSecond());
+    }
+
+    @Test
+    public void losesNoUpdatesFromConcurrentWorkers() {
+        BackupStats stats = new BackupStats();
+
+        IntStream.range(0, 10_000).parallel().forEach(i -> {
+            stats.directoryListed(1, 0, 2);
+            stats.fileMoved();
+            stats.bytesCopied(2);
+        });
+
+        Progress progress = stats.snapshot(0, null);
+        assertEquals(10_000, progress.getFilesFound());
+        assertEquals(10_000, progress.getFilesMoved());
+        assertEquals(20_000, progress.getBytesFound());
+        assertEquals(20_000, progress.getBytesCopied());
+    }
+
+    @Test
+    public void timesEachStageSeparately() {
+        BackupStats stats = new BackupStats();
+        stats.stageTime(BackupStats.Stage.COPY, 1_000);
+        stats.stageTime(BackupStats.Stage.COPY, 3_000);
+        stats.stageTime(BackupStats.Stage.DELETE, 500);
+
+        assertEquals(2, stats.getStageTimes(BackupStats.Stage.COPY).getCount());
+        assertEquals(4_000, stats.getStageTimes(BackupStats.Stage.COPY).getSum());
+        assertEquals(1, stats.getStageTimes(BackupStats.Stage.DELETE).getCount());
+        assertEquals(0, stats.getStageTimes(BackupStats.Stage.LIST).getCount());
+    }
+
+    @Test
+    public void measuresThroughputSinceTheLastSnapshot() throws InterruptedException {
+        BackupStats stats = new BackupStats();
+        Progress first = stats.snapshot(0, null);
+        Thread.sleep(20);
+        stats.bytesCopied(1_000_000);
+
+        Progress second = stats.snapshot(0, first);
+
+        assertTrue(second.getTimestamp() > first.getTimestamp());
+        //a million bytes in at least 20ms is at most 50MB/s
+        assertTrue(second.getBytesPerSecond() > 0);
+        assertTrue(second.getBytesPerSecond() <= 50_000_000L);
+    }
+}
@@ -0,0 +1,142 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class BlockCompressorTest {
+
+    private static final int BLOCK_SIZE = 1000;
+
+    @TempDir
+    Path root;
+    private BackupOptions options;
+    private BlockCompressor compressor;
+
+    @BeforeEach
+    public void createCompressor() {
+        options = new BackupOptions();
+        options.setCompressionBlockSize(BLOCK_SIZE);
+        compressor = new BlockCompressor(options, null, new Throttle(options));
+    }
+
+    @Test
+    public void roundTripsAFileSpanningSeveralBlocks() throws IOException {
+        //compressible text followed by random bytes, which are stored as they are
+        byte[] data = new byte[10 * BLOCK_SIZE + 123];
+        byte[] text = "the same line over and over\n".getBytes();
+        for (int i = 0; i < data.length / 2; i++) {
+            data[i] = text[i % text.length];
+        }
+        byte[] noise = new byte[data.length - data.length / 2];
+        new Random(42).nextBytes(noise);
+        System.arraycopy(noise, 0, data, data.length / 2, noise.length);
+
+        byte[] restored = roundTrip(data);
+
+        assertArrayEquals(data, restored);
+        assertEquals(1, compressor.getFiles());
+        assertEquals(data.length, compressor.getBytesIn());
+        assertTrue(compressor.getBytesOut() < data.length);
+    }
+
+    @Test
+    public void roundTripsAnEmptyFile() throws IOException {
+        assertArrayEquals(new byte[0], roundTrip(new byte[0]));
+    }
+
+    @Test
+    public void writesTheSameBlocksToEveryDestination() throws IOException {
+        byte[] data = new byte[3 * BLOCK_SIZE];
+        new Random(7).nextBytes(data);
+        Path source = Files.write(root.resolve("source"), data);
+        List<Path> destinations = Arrays.asList(root.resolve("one"), root.resolve("missing/two"), root.resolve("three"));
+        IOException[] failures = new IOException[destinations.size()];
+
+        compressor.compress(source, destinations, data.length, failures);
+
+        //a destination that can't be written doesn't stop the others
+        assertNull(failures[0]);
+        assertNotNull(failures[1]);
+        assertNull(failures[2]);
+        assertArrayEquals(Files.readAllBytes(destinations.get(0)), Files.readAllBytes(destinations.get(2)));
+        Path restored = root.resolve("restored");
+        BlockCompressor.decompress(destinations.get(2), restored, null);
+        assertArrayEquals(data, Files.readAllBytes(restored));
+    }
+
+    @Test
+    public void refusesADamagedBlock() throws IOException {
+        byte[] data = new byte[2 * BLOCK_SIZE];
+        new Random(1).nextBytes(data);
+        Path compressed = compress(data);
+        //past the file header and the first frame's header, into its stored bytes
+        byte[] bytes = Files.readAllBytes(compressed);
+        bytes[17 + 12 + 5] ^= 0x40;
+        Files.write(compressed, bytes);
+
+        assertThrows(IOException.class, () -> BlockCompressor.decompress(compressed, root.resolve("restored"), null));
+    }
+
+    @Test
+    public void refusesATruncatedFile() throws IOException {
+        Path compressed = compress(new byte[3 * BLOCK_SIZE]);
+        try ( FileChannel channel = FileChannel.open(compressed, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 4);
+        }
+
+        assertThrows(IOException.class, () -> BlockCompressor.decompress(compressed, root.resolve("restored"), null));
+    }
+
+    @Test
+    public void rejectsABlockSizeOutOfRange() {
+        assertThrows(IllegalArgumentException.class, () -> options.setCompressionBlockSize(0));
+        assertThrows(IllegalArgumentException.class, () -> options.setCompressionBlockSize(BackupOptions.MAX_COMPRESSION_BLOCK_SIZE + 1));
+    }
+
+    @Test
+    public void refusesAFileThatWasNeverCompressed() throws IOException {
+        Path plain = Files.writeString(root.resolve("plain"), "DBZ1 and then some plain text");
+
+        assertThrows(IOException.class, () -> BlockCompressor.decompress(plain, root.resolve("restored"), null));
+    }
+
+    @Test
+    public void cannotBeCombinedWithChecksums() {
+        BackupOptions compressed = new BackupOptions();
+        compressed.setCompressDestination(true);
+        assertThrows(IllegalArgumentException.class, () -> compressed.setVerifyCopies(true));
+        assertThrows(IllegalArgumentException.class, () -> compressed.setChecksumCopies(true));
+
+        BackupOptions verified = new BackupOptions();
+        verified.setVerifyCopies(true);
+        assertThrows(IllegalArgumentException.class, () -> verified.setCompressDestination(true));
+    }
+
+    Path compress(byte[] data) throws IOException {
+        Path source = Files.write(root.resolve("source"), data);
+        Path compressed = root.resolve("compressed");
+        compressor.compress(source, compressed, data.length);
+        return compressed;
+    }
+
+    byte[] roundTrip(byte[] data) throws IOException {
+        Path restored = root.resolve("restored");
+        BlockCompressor.decompress(compress(data), restored, null);
+        return Files.readAllBytes(restored);
+    }
+}
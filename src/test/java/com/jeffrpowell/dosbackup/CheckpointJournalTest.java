@@ -0,0 +1,188 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CheckpointJournalTest {
+
+    @TempDir
+    Path root;
+    private Path destination;
+    private Path directory;
+    private Path file;
+    private Path other;
+
+    @BeforeEach
+    public void createFiles() throws IOException {
+        destination = Files.createDirectory(root.resolve("destination"));
+        directory = Files.createDirectories(root.resolve("source/dir"));
+        file = Files.writeString(directory.resolve("file.txt"), "file");
+        other = Files.writeString(root.resolve("source/other.txt"), "other");
+    }
+
+    @Test
+    public void startsOverWithoutAJournal() throws IOException {
+        CheckpointJournal journal = CheckpointJournal.open(destination, true);
+        assertNull(journal.resumeSummary());
+        assertFalse(journal.isFileDone(file, attributes(file)));
+        assertFalse(journal.isCopyInterrupted(file));
+        journal.close(false);
+    }
+
+    @Test
+    public void resumesFinishedAndInterruptedCopies() throws IOException {
+        CheckpointJournal journal = CheckpointJournal.open(destination, false);
+        journal.copyStarted(file);
+        journal.fileDone(file, attributes(file));
+        journal.copyStarted(other);
+        journal.close(false);
+        assertTrue(CheckpointJournal.exists(destination));
+
+        CheckpointJournal resumed = CheckpointJournal.open(destination, true);
+        assertTrue(resumed.resumeSummary().contains("1 files already done"));
+        assertTrue(resumed.isFileDone(file, attributes(file)));
+        assertFalse(resumed.isCopyInterrupted(file));
+        assertTrue(resumed.isCopyInterrupted(other));
+        assertFalse(resumed.isFileDone(other, attributes(other)));
+        resumed.close(false);
+    }
+
+    @Test
+    public void aStartedCopySurvivesACrash() throws IOException {
+        CheckpointJournal abandoned = CheckpointJournal.open(destination, false);
+        abandoned.fileDone(other, attributes(other));
+        abandoned.copyStarted(file);
+
+        //never closed, as if the process died part way through the copy
+        CheckpointJournal resumed = CheckpointJournal.open(destination, true);
+        assertTrue(resumed.isCopyInterrupted(file));
+        resumed.close(false);
+        abandoned.close(false);
+    }
+
+    @Test
+    public void aFileChangedSinceItWasJournaledIsNotDone() throws IOException {
+        CheckpointJournal journal = CheckpointJournal.open(destination, false);
+        journal.fileDone(file, attributes(file));
+        journal.close(false);
+        Files.writeString(file, "changed");
+
+        CheckpointJournal resumed = CheckpointJournal.open(destination, true);
+        assertFalse(resumed.isFileDone(file, attributes(file)));
+        resumed.close(false);
+    }
+
+    @Test
+    public void aDirectoryIsDoneOnceItsListingAndChildrenAre() throws IOException {
+        CheckpointJournal journal = CheckpointJournal.open(destination, false);
+        journal.childrenFound(directory, 1);
+        journal.directoryListed(directory);
+        journal.close(false);
+        CheckpointJournal unfinished = CheckpointJournal.open(destination, true);
+        assertFalse(unfinished.isDirectoryDone(directory));
+        unfinished.close(false);
+
+        journal = CheckpointJournal.open(destination, false);
+        journal.childrenFound(directory, 1);
+        journal.directoryListed(directory);
+        journal.fileDone(file, attributes(file));
+        journal.close(false);
+        CheckpointJournal resumed = CheckpointJournal.open(destination, true);
+        assertTrue(resumed.isDirectoryDone(directory));
+        resumed.close(false);
+    }
+
+    @Test
+    public void aDirectoryStillBeingListedIsNotDone() throws IOException {
+        CheckpointJournal journal = CheckpointJournal.open(destination, false);
+        //the first chunk's children all finish before the listing does
+        journal.childrenFound(directory, 1);
+        journal.fileDone(file, attributes(file));
+        journal.close(false);
+        CheckpointJournal unfinished = CheckpointJournal.open(destination, true);
+        assertFalse(unfinished.isDirectoryDone(directory));
+        unfinished.close(false);
+
+        journal = CheckpointJournal.open(destination, false);
+        journal.childrenFound(directory, 1);
+        journal.fileDone(file, attributes(file));
+        journal.directoryListed(directory);
+        journal.close(false);
+        CheckpointJournal resumed = CheckpointJournal.open(destination, true);
+        assertTrue(resumed.isDirectoryDone(directory));
+        resumed.close(false);
+    }
+
+    @Test
+    public void keepsEverythingBeforeATornRecord() throws IOException {
+        CheckpointJournal journal = CheckpointJournal.open(destination, false);
+        journal.fileDone(file, attributes(file));
+        journal.close(false);
+        //a record cut off part way through its key
+        Files.write(destination.resolve(CheckpointJournal.FILE_NAME), new byte[]{'F', 0, 40, 'x'}, StandardOpenOption.APPEND);
+
+        CheckpointJournal resumed = CheckpointJournal.open(destination, true);
+        assertTrue(resumed.isFileDone(file, attributes(file)));
+        //compacting dropped the torn record, so what's appended now can be read back
+        resumed.fileDone(other, attributes(other));
+        resumed.close(false);
+        CheckpointJournal again = CheckpointJournal.open(destination, true);
+        assertTrue(again.isFileDone(file, attributes(file)));
+        assertTrue(again.isFileDone(other, attributes(other)));
+        again.close(false);
+    }
+
+    @Test
+    public void startsOverFromAJournalInAnotherFormat() throws IOException {
+        Files.write(destination.resolve(CheckpointJournal.FILE_NAME), new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+
+        CheckpointJournal journal = CheckpointJournal.open(destination, true);
+        assertFalse(journal.isDirectoryDone(directory));
+        journal.close(false);
+    }
+
+    @Test
+    public void aCompleteRunDeletesItsJournal() throws IOException {
+        CheckpointJournal journal = CheckpointJournal.open(destination, false);
+        journal.fileDone(file, attributes(file));
+        journal.close(true);
+        assertFalse(CheckpointJournal.exists(destination));
+    }
+
+    @Test
+    public void carriesStateOverForFinishedDirectories() throws IOException {
+        BackupState state = BackupState.load(destination);
+        state.record(file, new BackupState.FileState(1, 2, null));
+        state.record(other, new BackupState.FileState(3, 4, null));
+        state.save(true);
+        CheckpointJournal journal = CheckpointJournal.open(destination, false);
+        journal.fileDone(file, attributes(file));
+        journal.directoryListed(directory);
+        journal.close(false);
+
+        CheckpointJournal resumed = CheckpointJournal.open(destination, true);
+        BackupState resumedState = BackupState.load(destination);
+        resumed.carryOverSkipped(resumedState);
+        resumedState.save(true);
+        resumed.close(true);
+
+        BackupState saved = BackupState.load(destination);
+        //the file under the finished directory has what the interrupted run copied; the other wasn't seen at all
+        assertEquals(attributes(file).size(), saved.getPrevious(file).getSize());
+        assertNull(saved.getPrevious(other));
+    }
+
+    static BasicFileAttributes attributes(Path path) throws IOException {
+        return Files.readAttributes(path, BasicFileAttributes.class);
+    }
+}
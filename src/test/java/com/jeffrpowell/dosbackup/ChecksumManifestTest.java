@@ -0,0 +1,68 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ChecksumManifestTest {
+
+    @TempDir
+    Path root;
+
+    @Test
+    public void survivesASaveAndLoad() throws IOException {
+        Path whole = root.resolve("source/whole.txt");
+        Path chunked = root.resolve("source/chunked.bin");
+        ChecksumManifest manifest = ChecksumManifest.load(root);
+        manifest.record(whole, new CopyChecksum(0, new byte[]{1, 2, 3}));
+        manifest.record(chunked, new CopyChecksum(4096, new byte[]{4, 5}));
+        manifest.save();
+
+        ChecksumManifest loaded = ChecksumManifest.load(root);
+
+        assertTrue(loaded.getPrevious(whole).matches(new CopyChecksum(0, new byte[]{1, 2, 3})));
+        assertEquals(4096, loaded.getPrevious(chunked).getSegmentSize());
+        assertArrayEquals(new byte[]{4, 5}, loaded.getPrevious(chunked).getHash());
+        assertTrue(loaded.getRecorded().isEmpty());
+    }
+
+    @Test
+    public void keepsEarlierEntriesUntilTheFileIsCopiedAgain() throws IOException {
+        Path kept = root.resolve("source/kept.txt");
+        Path recopied = root.resolve("source/recopied.txt");
+        ChecksumManifest first = ChecksumManifest.load(root);
+        first.record(kept, new CopyChecksum(0, new byte[]{1}));
+        first.record(recopied, new CopyChecksum(0, new byte[]{2}));
+        first.save();
+
+        ChecksumManifest second = ChecksumManifest.load(root);
+        second.record(recopied, new CopyChecksum(0, new byte[]{3}));
+        second.save();
+
+        ChecksumManifest loaded = ChecksumManifest.load(root);
+        assertArrayEquals(new byte[]{1}, loaded.getPrevious(kept).getHash());
+        assertArrayEquals(new byte[]{3}, loaded.getPrevious(recopied).getHash());
+    }
+
+    @Test
+    public void writesNothingWhenNothingWasCopied() throws IOException {
+        ChecksumManifest.load(root).save();
+
+        assertFalse(Files.exists(root.resolve(ChecksumManifest.FILE_NAME)));
+    }
+
+    @Test
+    public void startsOverFromAManifestInAnotherFormat() throws IOException {
+        Path file = root.resolve("source/file.txt");
+        Files.write(root.resolve(ChecksumManifest.FILE_NAME), new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+
+        assertNull(ChecksumManifest.load(root).getPrevious(file));
+    }
+}
@@ -0,0 +1,66 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CompressionManifestTest {
+
+    private static final Path SOURCE = Paths.get("/source/dir/file.txt");
+    private static final Path OTHER = Paths.get("/source/other.txt");
+
+    @TempDir
+    Path destination;
+
+    @Test
+    public void findsWhatWasCompressedFromInsideTheBackup() throws IOException {
+        CompressionManifest manifest = CompressionManifest.load(destination);
+        manifest.copied(SOURCE, true);
+        manifest.copied(OTHER, false);
+        manifest.save();
+        Path backedUp = Files.createDirectories(destination.resolve("source/dir"));
+
+        CompressionManifest found = CompressionManifest.find(backedUp);
+        assertNotNull(found);
+        assertTrue(found.isCompressed(destination.resolve("source/dir/file.txt")));
+        assertFalse(found.isCompressed(destination.resolve("source/other.txt")));
+    }
+
+    @Test
+    public void aBackupWithoutAManifestHasNothingCompressed() throws IOException {
+        CompressionManifest.load(destination).save();
+
+        assertNull(CompressionManifest.find(destination));
+    }
+
+    @Test
+    public void aPlainCopyReplacesACompressedOne() throws IOException {
+        CompressionManifest manifest = CompressionManifest.load(destination);
+        manifest.copied(SOURCE, true);
+        manifest.copied(OTHER, true);
+        manifest.save();
+
+        CompressionManifest next = CompressionManifest.load(destination);
+        next.copied(SOURCE, false);
+        next.save();
+
+        CompressionManifest loaded = CompressionManifest.find(destination);
+        assertFalse(loaded.isCompressed(destination.resolve("source/dir/file.txt")));
+        assertTrue(loaded.isCompressed(destination.resolve("source/other.txt")));
+    }
+
+    @Test
+    public void refusesAManifestInAnotherFormat() throws IOException {
+        Files.write(destination.resolve(CompressionManifest.FILE_NAME), new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+
+        assertThrows(IOException.class, () -> CompressionManifest.load(destination));
+    }
+}
@@ -0,0 +1,70 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ContinuousBackupTest {
+
+    @TempDir
+    Path root;
+
+    @Test
+    public void backsUpChangesUntilCancelled() throws Exception {
+        Path source = Files.createDirectories(root.resolve("source/sub"));
+        Files.writeString(source.resolve("file.txt"), "first");
+        Path destination = root.resolve("destination");
+        Path backedUp = destination.resolve(source.subpath(0, source.getNameCount())).resolve("file.txt");
+        BackupOptions options = new BackupOptions();
+        options.setWatchSettleMillis(100);
+        ContinuousBackup continuous = new ContinuousBackup(Collections.singleton(root.resolve("source")), Collections.singletonList(destination), options);
+        BlockingQueue<BackupResult> results = new LinkedBlockingQueue<>();
+        Thread runner = new Thread(() -> {
+            try {
+                continuous.run(results::add);
+            } catch (IOException ex) {
+                throw new AssertionError(ex);
+            }
+        });
+        runner.start();
+
+        BackupResult first = results.poll(10, TimeUnit.SECONDS);
+        assertNotNull(first);
+        assertEquals("first", Files.readString(backedUp));
+        Files.writeString(source.resolve("file.txt"), "second");
+        BackupResult second = results.poll(10, TimeUnit.SECONDS);
+        assertNotNull(second);
+        assertEquals("second", Files.readString(backedUp));
+        //only the changed directory was listed
+        assertEquals(1, second.getFinalProgress().getFilesFound());
+
+        continuous.cancel();
+        runner.join(5_000);
+        assertFalse(runner.isAlive());
+        assertTrue(continuous.isCancelled());
+    }
+
+    @Test
+    public void cancellingBeforeItStartsRunsNothing() throws IOException {
+        Path source = Files.createDirectories(root.resolve("source"));
+        Files.writeString(source.resolve("file.txt"), "file");
+        Path destination = root.resolve("destination");
+        ContinuousBackup continuous = new ContinuousBackup(Collections.singleton(source), Collections.singletonList(destination), new BackupOptions());
+        BlockingQueue<BackupResult> results = new LinkedBlockingQueue<>();
+
+        continuous.cancel();
+        continuous.run(results::add);
+
+        assertTrue(results.isEmpty());
+    }
+}
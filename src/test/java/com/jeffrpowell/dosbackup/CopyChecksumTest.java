@@ -0,0 +1,99 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CopyChecksumTest {
+
+    private static final long CHUNK_SIZE = 1000;
+
+    @TempDir
+    Path root;
+    private BackupOptions options;
+    private Throttle throttle;
+
+    @BeforeEach
+    public void createOptions() {
+        options = new BackupOptions();
+        options.setLargeFileThreshold(4 * CHUNK_SIZE);
+        options.setLargeFileChunkSize(CHUNK_SIZE);
+        options.setSmallFileThreshold(100);
+        options.setChecksumCopies(true);
+        throttle = new Throttle(options);
+    }
+
+    @Test
+    public void aChunkedCopyIsHashedPerSegment() throws IOException {
+        byte[] data = random(10 * (int) CHUNK_SIZE + 7);
+        Path source = Files.write(root.resolve("source"), data);
+        Path destination = root.resolve("destination");
+
+        CopyChecksum copied = new FileCopier(options).copy(source, destination, data.length);
+
+        assertEquals(CHUNK_SIZE, copied.getSegmentSize());
+        assertTrue(copied.matches(CopyChecksum.compute(destination, CHUNK_SIZE, null, throttle)));
+        //a segmented checksum is not a hash of the whole file
+        assertFalse(copied.matches(CopyChecksum.compute(destination, 0, null, throttle)));
+    }
+
+    @Test
+    public void aWholeFileChecksumIsTheContentHash() throws IOException {
+        for (int size : new int[]{0, 50, 2 * (int) CHUNK_SIZE}) {
+            byte[] data = random(size);
+            Path source = Files.write(root.resolve("source"), data);
+            Path destination = root.resolve("destination");
+
+            CopyChecksum copied = new FileCopier(options).copy(source, destination, data.length);
+
+            assertTrue(copied.isWholeFile(), "size " + size);
+            assertArrayEquals(ContentHash.hash(source), copied.getHash(), "size " + size);
+            assertTrue(copied.matches(CopyChecksum.compute(destination, 0, null, throttle)), "size " + size);
+        }
+    }
+
+    @Test
+    public void aDestinationChangedAfterTheCopyIsAMismatch() throws IOException {
+        byte[] data = random(10 * (int) CHUNK_SIZE);
+        Path source = Files.write(root.resolve("source"), data);
+        Path good = root.resolve("good");
+        Path bad = root.resolve("bad");
+        FileCopier copier = new FileCopier(options);
+        CopyChecksum goodChecksum = copier.copy(source, good, data.length);
+        CopyChecksum badChecksum = copier.copy(source, bad, data.length);
+        data[5 * (int) CHUNK_SIZE] ^= 1;
+        Files.write(bad, data);
+        CopyVerifier verifier = new CopyVerifier(null, throttle);
+
+        verifier.start();
+        assertTrue(verifier.verify(good, goodChecksum));
+        assertFalse(verifier.verify(bad, badChecksum));
+        verifier.finish();
+
+        assertEquals(1, verifier.getMismatches());
+        assertTrue(verifier.summary().startsWith("2 files verified"));
+    }
+
+    @Test
+    public void noChecksumUnlessAskedFor() throws IOException {
+        options.setChecksumCopies(false);
+        Path source = Files.writeString(root.resolve("source"), "file");
+
+        assertNull(new FileCopier(options).copy(source, root.resolve("destination"), 4));
+    }
+
+    static byte[] random(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+}
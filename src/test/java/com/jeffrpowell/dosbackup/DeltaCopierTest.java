@@ -0,0 +1,145 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class DeltaCopierTest {
+
+    private static final int BLOCK_SIZE = 100;
+    private static final long CHUNK_SIZE = 1000;
+
+    @TempDir
+    Path root;
+    private BackupOptions options;
+    private Path source;
+    private byte[] data;
+
+    @BeforeEach
+    public void createSource() throws IOException {
+        options = new BackupOptions();
+        options.setDeltaBlockSize(BLOCK_SIZE);
+        options.setLargeFileChunkSize(CHUNK_SIZE);
+        data = new byte[5 * (int) CHUNK_SIZE + 17];
+        new Random(3).nextBytes(data);
+        source = Files.write(root.resolve("source"), data);
+    }
+
+    @Test
+    public void rewritesOnlyTheBlockThatChanged() throws IOException {
+        byte[] old = data.clone();
+        old[2345] ^= 1;
+        Path destination = Files.write(root.resolve("destination"), old);
+        DeltaCopier copier = copier(false);
+
+        copier.copy(source, destination, data.length);
+
+        assertArrayEquals(data, Files.readAllBytes(destination));
+        assertEquals(BLOCK_SIZE, copier.getBytesWritten());
+        assertEquals(1, copier.getFiles());
+    }
+
+    @Test
+    public void leavesAnIdenticalCopyAlone() throws IOException {
+        Path destination = Files.write(root.resolve("destination"), data);
+        DeltaCopier copier = copier(false);
+
+        copier.copy(source, destination, data.length);
+
+        assertArrayEquals(data, Files.readAllBytes(destination));
+        assertEquals(0, copier.getBytesWritten());
+    }
+
+    @Test
+    public void growsAShorterCopy() throws IOException {
+        Path destination = Files.write(root.resolve("destination"), Arrays.copyOf(data, 1234));
+        DeltaCopier copier = copier(false);
+
+        copier.copy(source, destination, data.length);
+
+        assertArrayEquals(data, Files.readAllBytes(destination));
+        assertTrue(copier.getBytesWritten() <= data.length - 1234 + BLOCK_SIZE);
+    }
+
+    @Test
+    public void truncatesALongerCopy() throws IOException {
+        byte[] longer = Arrays.copyOf(data, data.length + 4321);
+        Path destination = Files.write(root.resolve("destination"), longer);
+        DeltaCopier copier = copier(false);
+
+        copier.copy(source, destination, data.length);
+
+        assertArrayEquals(data, Files.readAllBytes(destination));
+        assertEquals(0, copier.getBytesWritten());
+    }
+
+    @Test
+    public void checksumsTheSourceLikeAFullCopy() throws IOException {
+        byte[] old = data.clone();
+        old[10] ^= 1;
+        Path destination = Files.write(root.resolve("destination"), old);
+
+        CopyChecksum checksum = copier(true).copy(source, destination, data.length);
+
+        assertNotNull(checksum);
+        assertTrue(checksum.matches(CopyChecksum.compute(source, CHUNK_SIZE, null, new Throttle(options))));
+    }
+
+    @Test
+    public void aDestinationThatFailsDoesNotStopTheOthers() throws IOException {
+        byte[] old = data.clone();
+        old[4000] ^= 1;
+        List<Path> destinations = Arrays.asList(Files.write(root.resolve("one"), old), root.resolve("missing"), Files.write(root.resolve("three"), data));
+        IOException[] failures = new IOException[destinations.size()];
+        DeltaCopier copier = copier(false);
+
+        copier.copy(source, destinations, data.length, failures);
+
+        assertNull(failures[0]);
+        assertNotNull(failures[1]);
+        assertNull(failures[2]);
+        assertArrayEquals(data, Files.readAllBytes(destinations.get(0)));
+        assertArrayEquals(data, Files.readAllBytes(destinations.get(2)));
+        assertEquals(BLOCK_SIZE, copier.getBytesWritten());
+    }
+
+    @Test
+    public void onlyLargeFilesAlreadyAtTheDestinationAreUpdatedInPlace() throws IOException {
+        options.setDeltaThreshold(data.length);
+        FileCopier copier = new FileCopier(options);
+        Path existing = Files.write(root.resolve("existing"), new byte[data.length]);
+        Path fresh = root.resolve("fresh");
+        Path small = Files.write(root.resolve("small"), new byte[10]);
+
+        copier.copy(source, existing, data.length);
+        copier.copy(source, fresh, data.length);
+        copier.copy(Files.write(root.resolve("smallSource"), new byte[]{1}), small, 1);
+
+        assertArrayEquals(data, Files.readAllBytes(existing));
+        assertArrayEquals(data, Files.readAllBytes(fresh));
+        assertArrayEquals(new byte[]{1}, Files.readAllBytes(small));
+        assertEquals(1, copier.getDeltaCopier().getFiles());
+    }
+
+    @Test
+    public void rejectsAThresholdThatIsNotPositive() {
+        assertThrows(IllegalArgumentException.class, () -> options.setDeltaThreshold(0));
+        assertThrows(IllegalArgumentException.class, () -> options.setDeltaThreshold(-1));
+    }
+
+    DeltaCopier copier(boolean checksums) {
+        return new DeltaCopier(options, null, new Throttle(options), checksums);
+    }
+}
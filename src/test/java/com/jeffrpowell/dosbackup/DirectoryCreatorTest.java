@@ -0,0 +1,88 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.IntStream;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class DirectoryCreatorTest {
+
+    @TempDir
+    Path root;
+
+    @Test
+    public void createsMissingAncestors() throws IOException {
+        DirectoryCreator creator = new DirectoryCreator();
+        Path deep = root.resolve("a/b/c");
+
+        creator.ensureCreated(deep);
+
+        assertTrue(Files.isDirectory(deep));
+    }
+
+    @Test
+    public void timesEachDirectoryItCreates() throws IOException {
+        BackupStats stats = new BackupStats();
+        DirectoryCreator creator = new DirectoryCreator(stats);
+
+        creator.ensureCreated(root.resolve("a/b/c"));
+        long created = stats.getStageTimes(BackupStats.Stage.CREATE_DIRECTORY).getCount();
+        creator.ensureCreated(root.resolve("a/b/c"));
+
+        assertTrue(created >= 3, "timed " + created);
+        assertEquals(created, stats.getStageTimes(BackupStats.Stage.CREATE_DIRECTORY).getCount());
+    }
+
+    @Test
+    public void acceptsDirectoriesThatAlreadyExist() throws IOException {
+        Path existing = Files.createDirectories(root.resolve("a/b"));
+
+        new DirectoryCreator().ensureCreated(existing.resolve("c"));
+
+        assertTrue(Files.isDirectory(existing.resolve("c")));
+    }
+
+    @Test
+    public void remembersWhatItCreated() throws IOException {
+        DirectoryCreator creator = new DirectoryCreator();
+        Path directory = root.resolve("a");
+        creator.ensureCreated(directory);
+        int known = creator.getKnownDirectoryCount();
+
+        //a known directory isn't looked at again, even if it went away
+        Files.delete(directory);
+        creator.ensureCreated(directory);
+
+        assertEquals(known, creator.getKnownDirectoryCount());
+    }
+
+    @Test
+    public void refusesAFileInTheWay() throws IOException {
+        Files.writeString(root.resolve("a"), "a file");
+
+        assertThrows(FileAlreadyExistsException.class, () -> new DirectoryCreator().ensureCreated(root.resolve("a/b")));
+    }
+
+    @Test
+    public void workersCanCreateTheSameDirectoriesAtOnce() {
+        DirectoryCreator creator = new DirectoryCreator();
+
+        IntStream.range(0, 1000).parallel().forEach(i -> {
+            try {
+                creator.ensureCreated(root.resolve("shared/dir" + i % 10));
+            } catch (IOException ex) {
+                throw new AssertionError(ex);
+            }
+        });
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(Files.isDirectory(root.resolve("shared/dir" + i)));
+        }
+    }
+}
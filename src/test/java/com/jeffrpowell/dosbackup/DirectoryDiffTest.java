@@ -0,0 +1,205 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class DirectoryDiffTest {
+
+    @TempDir
+    Path root;
+    private Path source;
+    private Path destination;
+
+    @BeforeEach
+    public void createDirectories() throws IOException {
+        source = Files.createDirectory(root.resolve("source"));
+        destination = Files.createDirectory(root.resolve("destination"));
+    }
+
+    @Test
+    public void comparesEveryFileWithoutADestination() throws IOException {
+        Files.writeString(source.resolve("a"), "a");
+        Files.createDirectory(source.resolve("sub"));
+
+        assertEquals(Arrays.asList("COMPARE a 0", "DESCEND sub 0"), diff(Collections.emptyList()));
+    }
+
+    @Test
+    public void reportsNewUnchangedAndStaleEntries() throws IOException {
+        Files.writeString(source.resolve("same"), "s");
+        Files.writeString(source.resolve("new"), "n");
+        Files.createDirectory(source.resolve("sub"));
+        Files.writeString(destination.resolve("same"), "s");
+        Files.writeString(destination.resolve("old"), "o");
+        Files.createDirectory(destination.resolve("oldDir"));
+
+        assertEquals(Arrays.asList("COMPARE same 0", "COPY new 1", "DESCEND sub 0", "STALE old 0", "STALE oldDir 0"), diff(Collections.singletonList(destination)));
+    }
+
+    @Test
+    public void copiesEverythingIntoADestinationThatDoesNotExistYet() throws IOException {
+        Files.writeString(source.resolve("a"), "a");
+
+        assertEquals(Collections.singletonList("COPY a 1"), diff(Collections.singletonList(destination.resolve("missing"))));
+    }
+
+    @Test
+    public void replacesEntriesThatChangedKind() throws IOException {
+        Files.writeString(source.resolve("nowFile"), "f");
+        Files.createDirectory(destination.resolve("nowFile"));
+        Files.createDirectory(source.resolve("nowDir"));
+        Files.writeString(destination.resolve("nowDir"), "d");
+
+        List<String> events = new ArrayList<>();
+        DirectoryDiff.diff(source, Collections.singletonList(destination), new Recorder(events));
+        assertEquals(Arrays.asList("COPY nowFile 1", "DESCEND nowDir 0", "STALE nowDir 0", "STALE nowFile 0"), sorted(events));
+        //the old entry has to be out of the way before its replacement arrives
+        assertTrue(events.indexOf("STALE nowFile 0") < events.indexOf("COPY nowFile 1"));
+        assertTrue(events.indexOf("STALE nowDir 0") < events.indexOf("DESCEND nowDir 0"));
+    }
+
+    @Test
+    public void followsLinksToFilesOnly() throws IOException {
+        Path target = Files.writeString(root.resolve("target.txt"), "hello");
+        Path targetDir = Files.createDirectory(root.resolve("targetDir"));
+        try {
+            Files.createSymbolicLink(source.resolve("fileLink"), target);
+            Files.createSymbolicLink(source.resolve("dirLink"), targetDir);
+            Files.createSymbolicLink(source.resolve("dangling"), root.resolve("nothing"));
+        } catch (IOException | UnsupportedOperationException ex) {
+            assumeTrue(false, "symbolic links aren't supported here");
+        }
+        List<BasicFileAttributes> attributes = new ArrayList<>();
+        List<String> events = new ArrayList<>();
+        DirectoryDiff.diff(source, Collections.singletonList(destination), new Recorder(events) {
+            @Override
+            public void accept(DirectoryDiff.Decision decision, Path entry, BasicFileAttributes entryAttributes, long missing) {
+                super.accept(decision, entry, entryAttributes, missing);
+                attributes.add(entryAttributes);
+            }
+        });
+
+        assertEquals(Collections.singletonList("COPY fileLink 1"), events);
+        //backed up as the file it points to
+        assertTrue(attributes.get(0).isRegularFile());
+        assertEquals(5, attributes.get(0).size());
+    }
+
+    @Test
+    public void passesOnTheAttributesItRead() throws IOException {
+        Files.writeString(source.resolve("file"), "12345");
+        Files.createDirectory(source.resolve("sub"));
+        List<String> sizes = new ArrayList<>();
+
+        DirectoryDiff.diff(source, Collections.singletonList(destination), new Recorder(sizes) {
+            @Override
+            public void accept(DirectoryDiff.Decision decision, Path entry, BasicFileAttributes attributes, long missing) {
+                sizes.add(decision + " " + attributes.isDirectory() + " " + (attributes.isDirectory() ? "" : attributes.size()));
+            }
+        });
+
+        assertEquals(Arrays.asList("COPY false 5", "DESCEND true "), sorted(sizes));
+    }
+
+    @Test
+    public void readsEachEntrysAttributesOnce() throws IOException {
+        Files.writeString(source.resolve("a"), "a");
+        Files.writeString(source.resolve("b"), "b");
+        Files.createDirectory(source.resolve("sub"));
+        Files.writeString(destination.resolve("a"), "a");
+
+        //each listed directory plus each of its children
+        assertEquals(4, DirectoryDiff.diff(source, Collections.emptyList(), new Recorder(new ArrayList<>())));
+        assertEquals(6, DirectoryDiff.diff(source, Collections.singletonList(destination), new Recorder(new ArrayList<>())));
+    }
+
+    @Test
+    public void marksWhichDestinationsAFileIsMissingFrom() throws IOException {
+        Path second = Files.createDirectory(root.resolve("second"));
+        Files.writeString(source.resolve("everywhere"), "e");
+        Files.writeString(source.resolve("firstOnly"), "f");
+        Files.writeString(source.resolve("nowhere"), "n");
+        for (Path to : Arrays.asList(destination, second)) {
+            Files.writeString(to.resolve("everywhere"), "e");
+        }
+        Files.writeString(destination.resolve("firstOnly"), "f");
+        Files.writeString(second.resolve("stale"), "s");
+
+        assertEquals(Arrays.asList("COMPARE everywhere 0", "COPY firstOnly 2", "COPY nowhere 3", "STALE stale 1"), diff(Arrays.asList(destination, second)));
+    }
+
+    @Test
+    public void aDestinationTooWideToMapGivesTheSameDiff() throws IOException {
+        Path second = Files.createDirectory(root.resolve("second"));
+        for (int i = 0; i < 20; i++) {
+            Files.writeString(source.resolve("file" + i), "f");
+            if (i % 2 == 0) {
+                Files.writeString(destination.resolve("file" + i), "f");
+            }
+            if (i % 3 == 0) {
+                Files.writeString(second.resolve("file" + i), "f");
+            }
+        }
+        Files.createDirectory(source.resolve("nowDir"));
+        Files.writeString(destination.resolve("nowDir"), "d");
+        Files.writeString(destination.resolve("stale"), "s");
+        Files.createDirectory(second.resolve("staleDir"));
+        List<Path> destinationDirs = Arrays.asList(destination, second);
+
+        List<String> mapped = new ArrayList<>();
+        int mappedStats = DirectoryDiff.diff(source, destinationDirs, new Recorder(mapped));
+        List<String> unmapped = new ArrayList<>();
+        int unmappedStats = DirectoryDiff.diff(source, destinationDirs, new Recorder(unmapped), 4);
+
+        assertEquals(sorted(mapped), sorted(unmapped));
+        assertTrue(mapped.contains("COPY file1 3"));
+        assertTrue(mapped.contains("COPY file3 1"));
+        assertTrue(mapped.contains("COMPARE file0 0"));
+        assertTrue(mapped.contains("STALE staleDir 1"));
+        //every entry was looked up on the other side instead
+        assertTrue(unmappedStats > mappedStats);
+    }
+
+    List<String> diff(List<Path> destinationDirs) throws IOException {
+        List<String> events = new ArrayList<>();
+        DirectoryDiff.diff(source, destinationDirs, new Recorder(events));
+        return sorted(events);
+    }
+
+    static List<String> sorted(List<String> events) {
+        List<String> sorted = new ArrayList<>(events);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    static class Recorder implements DirectoryDiff.Listener {
+
+        private final List<String> events;
+
+        Recorder(List<String> events) {
+            this.events = events;
+        }
+
+        @Override
+        public void accept(DirectoryDiff.Decision decision, Path entry, BasicFileAttributes attributes, long missing) {
+            events.add(decision + " " + entry.getFileName() + " " + missing);
+        }
+
+        @Override
+        public void stale(Path entry, int destinationIndex) {
+            events.add("STALE " + entry.getFileName() + " " + destinationIndex);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class FanOutTest {
+
+    private static final byte[] DATA = "written to every destination".getBytes();
+
+    @TempDir
+    Path root;
+
+    @Test
+    public void aDestinationThatCannotBeOpenedDoesNotStopTheOthers() throws IOException {
+        List<Path> files = Arrays.asList(root.resolve("one"), root.resolve("missing/two"), root.resolve("three"));
+        IOException[] failures = new IOException[files.size()];
+
+        try ( FanOut fanOut = open(files)) {
+            assertTrue(fanOut.isFailed(1));
+            fanOut.write(ByteBuffer.wrap(DATA), 0);
+            fanOut.getFailures(failures);
+        }
+
+        assertNull(failures[0]);
+        assertNotNull(failures[1]);
+        assertNull(failures[2]);
+        assertArrayEquals(DATA, Files.readAllBytes(files.get(0)));
+        assertArrayEquals(DATA, Files.readAllBytes(files.get(2)));
+    }
+
+    @Test
+    public void aDestinationThatFailsPartWayIsDropped() throws IOException {
+        List<Path> files = Arrays.asList(root.resolve("one"), root.resolve("two"));
+        IOException full = new IOException("disk full");
+
+        try ( FanOut fanOut = open(files)) {
+            fanOut.write(ByteBuffer.wrap(DATA, 0, 5), 0);
+            fanOut.each((destination, channel) -> {
+                if (destination == 0) {
+                    throw full;
+                }
+            });
+            fanOut.write(ByteBuffer.wrap(DATA, 5, DATA.length - 5), 5);
+            assertSame(full, fanOut.getFailure(0));
+            assertFalse(fanOut.isFailed(1));
+        }
+
+        assertEquals(5, Files.size(files.get(0)));
+        assertArrayEquals(DATA, Files.readAllBytes(files.get(1)));
+    }
+
+    @Test
+    public void stopsOnceEveryDestinationHasFailed() {
+        List<Path> files = Arrays.asList(root.resolve("missing/one"), root.resolve("missing/two"));
+
+        try ( FanOut fanOut = open(files)) {
+            assertThrows(IOException.class, () -> fanOut.write(ByteBuffer.wrap(DATA), 0));
+        }
+    }
+
+    @Test
+    public void movesWorkingCopiesIntoPlaceAndDeletesFailedOnes() throws IOException {
+        List<Path> temps = Arrays.asList(root.resolve("one.tmp"), root.resolve("two.tmp"));
+        List<Path> targets = Arrays.asList(root.resolve("one"), root.resolve("two"));
+
+        try ( FanOut fanOut = open(temps)) {
+            fanOut.write(ByteBuffer.wrap(DATA), 0);
+            fanOut.fail(1, new IOException("lost"));
+            fanOut.close();
+            fanOut.moveIntoPlace(targets);
+        }
+
+        assertArrayEquals(DATA, Files.readAllBytes(targets.get(0)));
+        assertFalse(Files.exists(temps.get(0)));
+        assertFalse(Files.exists(temps.get(1)));
+        assertFalse(Files.exists(targets.get(1)));
+    }
+
+    static FanOut open(List<Path> files) {
+        return FanOut.open(files, null, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+}
@@ -0,0 +1,169 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.IntStream;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class FileCopierTest {
+
+    private static final long CHUNK_SIZE = 1000;
+
+    @TempDir
+    Path root;
+    private BackupOptions options;
+
+    @BeforeEach
+    public void createOptions() {
+        options = new BackupOptions();
+        options.setLargeFileThreshold(4 * CHUNK_SIZE);
+        options.setLargeFileChunkSize(CHUNK_SIZE);
+        options.setSmallFileThreshold(100);
+    }
+
+    @Test
+    public void copiesASmallFileWhole() throws IOException {
+        byte[] data = random(123);
+        Path source = Files.write(root.resolve("source"), data);
+        Path destination = root.resolve("destination");
+
+        new FileCopier(options).copy(source, destination, data.length);
+
+        assertArrayEquals(data, Files.readAllBytes(destination));
+    }
+
+    @Test
+    public void copiesALargeFileInChunks() throws IOException {
+        byte[] data = random(10 * (int) CHUNK_SIZE + 7);
+        Path source = Files.write(root.resolve("source"), data);
+        Path destination = Files.writeString(root.resolve("destination"), "an older, shorter copy");
+        FileCopier copier = new FileCopier(options);
+
+        copier.copy(source, destination, data.length);
+
+        assertArrayEquals(data, Files.readAllBytes(destination));
+        assertFalse(Files.exists(root.resolve("destination" + FileCopier.TEMP_SUFFIX)));
+        assertEquals(1, copier.getChunkedCopies());
+    }
+
+    @Test
+    public void aFailedChunkedCopyLeavesTheOldCopyAlone() throws IOException {
+        byte[] data = random(5 * (int) CHUNK_SIZE);
+        Path source = Files.write(root.resolve("source"), data);
+        Path destination = Files.writeString(root.resolve("destination"), "old");
+
+        //the source shrank after it was listed
+        assertThrows(IOException.class, () -> new FileCopier(options).copy(source, destination, data.length + CHUNK_SIZE));
+
+        assertArrayEquals("old".getBytes(), Files.readAllBytes(destination));
+        assertFalse(Files.exists(root.resolve("destination" + FileCopier.TEMP_SUFFIX)));
+    }
+
+    @Test
+    public void takesTheFastPathForSmallFiles() throws IOException {
+        Path source = Files.writeString(root.resolve("source"), "small");
+        Path destination = Files.writeString(root.resolve("destination"), "an older, longer copy");
+        FileCopier copier = new FileCopier(options);
+
+        copier.copy(source, destination, 5);
+
+        assertEquals("small", Files.readString(destination));
+        assertEquals(1, copier.getSmallFileCopies());
+        assertEquals(0, copier.getStandardCopies());
+    }
+
+    @Test
+    public void concurrentSmallCopiesDoNotShareABuffer() throws IOException {
+        FileCopier copier = new FileCopier(options);
+        for (int i = 0; i < 200; i++) {
+            Files.write(root.resolve("source" + i), random(i % 100));
+        }
+
+        IntStream.range(0, 200).parallel().forEach(i -> {
+            try {
+                copier.copy(root.resolve("source" + i), root.resolve("destination" + i), i % 100);
+            } catch (IOException ex) {
+                throw new AssertionError(ex);
+            }
+        });
+
+        for (int i = 0; i < 200; i++) {
+            assertArrayEquals(random(i % 100), Files.readAllBytes(root.resolve("destination" + i)));
+        }
+        assertEquals(200, copier.getSmallFileCopies());
+    }
+
+    @Test
+    public void aSmallFileThatGrewIsCopiedTheNormalWay() throws IOException {
+        options.setSmallFileThreshold(10);
+        byte[] data = random(100);
+        Path source = Files.write(root.resolve("source"), data);
+        Path destination = root.resolve("destination");
+        FileCopier copier = new FileCopier(options);
+
+        //listed when it was still small
+        copier.copy(source, destination, 5);
+
+        assertArrayEquals(data, Files.readAllBytes(destination));
+        assertEquals(0, copier.getSmallFileCopies());
+        assertEquals(1, copier.getStandardCopies());
+    }
+
+    @Test
+    public void aZeroThresholdTurnsTheFastPathOff() throws IOException {
+        options.setSmallFileThreshold(0);
+        Path source = Files.writeString(root.resolve("source"), "small");
+        FileCopier copier = new FileCopier(options);
+
+        copier.copy(source, root.resolve("destination"), 5);
+
+        assertEquals("small", Files.readString(root.resolve("destination")));
+        assertEquals(0, copier.getSmallFileCopies());
+        assertEquals(1, copier.getStandardCopies());
+    }
+
+    @Test
+    public void aThrottledCopyStillCopiesEverything() throws IOException {
+        options.setMaxBytesPerSecond(100L * 1024 * 1024);
+        byte[] data = random(2 * (int) CHUNK_SIZE);
+        Path source = Files.write(root.resolve("source"), data);
+        Path destination = Files.writeString(root.resolve("destination"), "an older, longer copy of the file, which has to go");
+        FileCopier copier = new FileCopier(options);
+
+        copier.copy(source, destination, data.length);
+
+        assertArrayEquals(data, Files.readAllBytes(destination));
+        assertEquals(1, copier.getStandardCopies());
+    }
+
+    @Test
+    public void rejectsASmallFileThresholdOutOfRange() {
+        assertThrows(IllegalArgumentException.class, () -> options.setSmallFileThreshold(-1));
+        assertThrows(IllegalArgumentException.class, () -> options.setSmallFileThreshold(BackupOptions.MAX_SMALL_FILE_THRESHOLD + 1));
+    }
+
+    @Test
+    public void rejectsAChunkSizeThatIsNotPositive() {
+        assertThrows(IllegalArgumentException.class, () -> options.setLargeFileChunkSize(0));
+    }
+
+    @Test
+    public void rejectsALargeFileThresholdThatIsNotPositive() {
+        assertThrows(IllegalArgumentException.class, () -> options.setLargeFileThreshold(0));
+        assertThrows(IllegalArgumentException.class, () -> options.setLargeFileThreshold(-1));
+    }
+
+    static byte[] random(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+}
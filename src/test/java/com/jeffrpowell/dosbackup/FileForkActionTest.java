@@ -0,0 +1,186 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class FileForkActionTest {
+
+    private static final int FILES = 2 * FileForkAction.CHUNK_SIZE + 10;
+
+    @TempDir
+    Path root;
+    private Path source;
+    private Path destination;
+
+    @BeforeEach
+    public void createDirectories() throws IOException {
+        source = Files.createDirectory(root.resolve("source"));
+        destination = Files.createDirectory(root.resolve("destination"));
+    }
+
+    @Test
+    public void mirrorsEveryLevelOfTheTree() throws IOException {
+        Files.createDirectories(source.resolve("a/b"));
+        Files.writeString(source.resolve("a/b/new.txt"), "new");
+        Files.writeString(source.resolve("a/same.txt"), "same");
+        Files.createDirectories(destination.resolve("a/b/gone"));
+        Files.writeString(destination.resolve("a/same.txt"), "same");
+        Files.writeString(destination.resolve("a/b/old.txt"), "old");
+        Set<String> files = ConcurrentHashMap.newKeySet();
+        Set<Path> stale = ConcurrentHashMap.newKeySet();
+        BackupStats stats = new BackupStats();
+
+        new ForkJoinPool().invoke(new FileForkAction<Void>(source, Collections.singletonList(destination), true,
+            (file, attributes, target, missing, config) -> files.add((missing == 0 ? "COMPARE " : "COPY ") + destination.relativize(target)),
+            (entry, destinationIndex, config) -> stale.add(destination.relativize(entry)),
+            null, null, stats, null, null, null));
+
+        assertEquals(set("COPY a/b/new.txt", "COMPARE a/same.txt"), files);
+        assertEquals(set(Paths.get("a/b/gone"), Paths.get("a/b/old.txt")), stale);
+        Progress progress = stats.snapshot(1, null);
+        assertEquals(2, progress.getFilesFound());
+        assertEquals(7, progress.getBytesFound());
+        assertEquals(0, progress.getDirectoriesLeft());
+    }
+
+    @Test
+    public void withoutAMirrorNothingIsStale() throws IOException {
+        Files.writeString(source.resolve("file.txt"), "file");
+        Files.writeString(destination.resolve("old.txt"), "old");
+        Set<String> files = ConcurrentHashMap.newKeySet();
+        Set<Path> stale = ConcurrentHashMap.newKeySet();
+
+        new ForkJoinPool().invoke(new FileForkAction<Void>(source, Collections.singletonList(destination), false,
+            (file, attributes, target, missing, config) -> files.add((missing == 0 ? "COMPARE " : "COPY ") + destination.relativize(target)),
+            (entry, destinationIndex, config) -> stale.add(entry),
+            null, null, null, null, null, null));
+
+        assertEquals(Collections.singleton("COMPARE file.txt"), files);
+        assertEquals(Collections.emptySet(), stale);
+    }
+
+    @Test
+    public void skipsWhatTheCheckpointHasDoneAndReportsTheRest() throws IOException {
+        Files.createDirectories(source.resolve("done"));
+        Files.createDirectories(source.resolve("todo"));
+        Files.writeString(source.resolve("done/file.txt"), "done");
+        Files.writeString(source.resolve("todo/file.txt"), "todo");
+        Set<String> files = ConcurrentHashMap.newKeySet();
+        Map<Path, Integer> listed = new ConcurrentHashMap<>();
+        FileForkAction.Checkpoint checkpoint = new FileForkAction.Checkpoint() {
+            @Override
+            public boolean isDirectoryDone(Path directory) {
+                return directory.equals(source.resolve("done"));
+            }
+
+            @Override
+            public void childrenFound(Path directory, int children) {
+                listed.merge(source.relativize(directory), children, Integer::sum);
+            }
+
+            @Override
+            public void directoryListed(Path directory) {
+            }
+        };
+
+        new ForkJoinPool().invoke(new FileForkAction<Void>(source, Collections.singletonList(destination), false,
+            (file, attributes, target, missing, config) -> files.add(destination.relativize(target).toString()),
+            null, null, null, null, null, checkpoint, null));
+
+        assertEquals(Collections.singleton("todo/file.txt"), files);
+        //the finished directory isn't waited on, so the root has only one child left
+        assertEquals(1, listed.get(Paths.get("")));
+        assertEquals(1, listed.get(Paths.get("todo")));
+        assertEquals(2, listed.size());
+    }
+
+    @Test
+    public void handsEveryFileOfAWideDirectoryOffOnce() throws IOException {
+        for (int i = 0; i < FILES; i++) {
+            Files.createFile(source.resolve("file" + i));
+        }
+        Path sub = Files.createDirectory(source.resolve("sub"));
+        Files.createFile(sub.resolve("nested"));
+        Map<Path, AtomicInteger> handedOff = new ConcurrentHashMap<>();
+        Recorder checkpoint = new Recorder();
+
+        new ForkJoinPool().invoke(new FileForkAction<Void>(source, Collections.singletonList(destination), false,
+            (file, attributes, target, missing, config) -> handedOff.computeIfAbsent(file, f -> new AtomicInteger()).incrementAndGet(),
+            null, null, null, new BackupStats(), null, checkpoint, null));
+
+        assertEquals(FILES + 1, handedOff.size());
+        assertTrue(handedOff.values().stream().allMatch(count -> count.get() == 1));
+        //the listing went out in more than one chunk, and everything in it was waited on
+        assertTrue(checkpoint.chunks.get(source).get() > 2);
+        assertEquals(FILES + 1, checkpoint.children.get(source).get());
+        assertEquals(1, checkpoint.listed.get(source).get());
+        assertEquals(1, checkpoint.listed.get(sub).get());
+    }
+
+    @Test
+    public void mirrorsAWideDirectory() throws IOException {
+        for (int i = 0; i < FILES; i++) {
+            Files.createFile((i % 2 == 0 ? source : destination).resolve("file" + i));
+        }
+        Map<Path, AtomicInteger> copied = new ConcurrentHashMap<>();
+        Map<Path, AtomicInteger> stale = new ConcurrentHashMap<>();
+
+        new ForkJoinPool().invoke(new FileForkAction<Void>(source, Collections.singletonList(destination), true,
+            (file, attributes, target, missing, config) -> {
+                if (missing != 0) {
+                    copied.computeIfAbsent(target, f -> new AtomicInteger()).incrementAndGet();
+                }
+            },
+            (entry, destinationIndex, config) -> stale.computeIfAbsent(entry, f -> new AtomicInteger()).incrementAndGet(),
+            null, null, new BackupStats(), null, null, null));
+
+        assertEquals(FILES / 2, copied.size());
+        assertEquals(FILES / 2, stale.size());
+        assertTrue(copied.keySet().stream().allMatch(target -> Files.notExists(target)));
+        assertTrue(stale.keySet().stream().allMatch(entry -> Files.exists(entry)));
+        assertTrue(stale.values().stream().allMatch(count -> count.get() == 1));
+    }
+
+    @SafeVarargs
+    static <T> Set<T> set(T... values) {
+        return new HashSet<>(Arrays.asList(values));
+    }
+
+    static class Recorder implements FileForkAction.Checkpoint {
+
+        private final Map<Path, AtomicInteger> chunks = new ConcurrentHashMap<>();
+        private final Map<Path, AtomicInteger> children = new ConcurrentHashMap<>();
+        private final Map<Path, AtomicInteger> listed = new ConcurrentHashMap<>();
+
+        @Override
+        public boolean isDirectoryDone(Path directory) {
+            return false;
+        }
+
+        @Override
+        public void childrenFound(Path directory, int found) {
+            chunks.computeIfAbsent(directory, d -> new AtomicInteger()).incrementAndGet();
+            children.computeIfAbsent(directory, d -> new AtomicInteger()).addAndGet(found);
+        }
+
+        @Override
+        public void directoryListed(Path directory) {
+            listed.computeIfAbsent(directory, d -> new AtomicInteger()).incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class IoSchedulerTest {
+
+    @TempDir
+    Path root;
+    private BackupOptions options;
+    private IoScheduler scheduler;
+
+    @BeforeEach
+    public void createOptions() {
+        options = new BackupOptions();
+        options.setCopyParallelism(8);
+        options.setPerDeviceConcurrency(2);
+    }
+
+    @AfterEach
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void findsTheDeviceOfAPathThatDoesNotExistYet() throws IOException {
+        scheduler = new IoScheduler(options);
+
+        IoScheduler.Device existing = scheduler.deviceOf(root);
+        IoScheduler.Device missing = scheduler.deviceOf(root.resolve("not/there/yet"));
+
+        assertSame(existing, missing);
+    }
+
+    @Test
+    public void capsTheCopiesOnOneDevice() throws IOException {
+        scheduler = new IoScheduler(options);
+        IoScheduler.Device device = scheduler.deviceOf(root);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger mostRunning = new AtomicInteger();
+        AtomicInteger finished = new AtomicInteger();
+
+        for (int i = 0; i < 40; i++) {
+            scheduler.copy(device, device, () -> {
+                mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                finished.incrementAndGet();
+            });
+        }
+        scheduler.awaitCopies();
+
+        assertEquals(40, finished.get());
+        assertTrue(mostRunning.get() <= 2, "at most 2 at once, saw " + mostRunning.get());
+    }
+
+    @Test
+    public void holdsTheScanBackOnceTheQueueIsFull() throws Exception {
+        options.setCopyQueueCapacity(3);
+        scheduler = new IoScheduler(options);
+        IoScheduler.Device device = scheduler.deviceOf(root);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger finished = new AtomicInteger();
+        Runnable copy = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            finished.incrementAndGet();
+        };
+        for (int i = 0; i < 3; i++) {
+            scheduler.copy(device, device, copy);
+        }
+        Thread scan = new Thread(() -> scheduler.copy(device, device, copy));
+        scan.start();
+        scan.join(100);
+
+        assertTrue(scan.isAlive(), "the fourth copy should wait for a free slot");
+        assertEquals(3, scheduler.getQueuedCopies());
+        release.countDown();
+        scan.join();
+        scheduler.awaitCopies();
+        assertEquals(4, finished.get());
+        assertEquals(0, scheduler.getQueuedCopies());
+    }
+
+    @Test
+    public void runsScansOnTheirOwnPool() throws Exception {
+        scheduler = new IoScheduler(options);
+        String[] thread = new String[1];
+
+        Future<?> scan = scheduler.scan(ForkJoinTask.adapt(() -> {
+            thread[0] = Thread.currentThread().getName();
+        }));
+        scheduler.await(scan);
+
+        assertTrue(thread[0].startsWith("ForkJoinPool-"));
+    }
+
+    @Test
+    public void runsEveryTaskInEitherMode() {
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            options.setExecutionMode(mode);
+            scheduler = new IoScheduler(options);
+            AtomicInteger ran = new AtomicInteger();
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                tasks.add(ForkJoinTask.adapt(ran::incrementAndGet));
+            }
+
+            scheduler.runAll(tasks);
+
+            assertEquals(50, ran.get(), mode.name());
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void boundsIoInFlightOnVirtualThreads() throws IOException {
+        assumeTrue(ExecutionMode.isVirtualThreadSupported(), "virtual threads aren't available on this JVM");
+        options.setExecutionMode(ExecutionMode.VIRTUAL_THREADS);
+        options.setIoConcurrency(3);
+        scheduler = new IoScheduler(options);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger mostRunning = new AtomicInteger();
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            tasks.add(ForkJoinTask.adapt(() -> {
+                try {
+                    scheduler.io(() -> {
+                        mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                        try {
+                            Thread.sleep(5);
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                        }
+                        running.decrementAndGet();
+                        return null;
+                    });
+                } catch (IOException ex) {
+                    throw new AssertionError(ex);
+                }
+            }));
+        }
+
+        scheduler.runAll(tasks);
+
+        assertTrue(mostRunning.get() <= 3, "at most 3 at once, saw " + mostRunning.get());
+    }
+
+    @Test
+    public void fallsBackToForkJoinWithoutVirtualThreads() throws Exception {
+        assumeFalse(ExecutionMode.isVirtualThreadSupported(), "virtual threads are available on this JVM");
+        assertThrows(UnsupportedOperationException.class, ExecutionMode::newVirtualThreadExecutor);
+        options.setExecutionMode(ExecutionMode.VIRTUAL_THREADS);
+        scheduler = new IoScheduler(options);
+        String[] thread = new String[1];
+
+        Future<?> scan = scheduler.scan(ForkJoinTask.adapt(() -> {
+            thread[0] = Thread.currentThread().getName();
+        }));
+        scheduler.await(scan);
+
+        assertTrue(thread[0].startsWith("ForkJoinPool-"));
+    }
+
+    @Test
+    public void dropsCopiesOnceShutDown() throws IOException {
+        scheduler = new IoScheduler(options);
+        IoScheduler.Device device = scheduler.deviceOf(root);
+        AtomicInteger ran = new AtomicInteger();
+
+        scheduler.shutdownNow();
+        scheduler.copy(device, device, ran::incrementAndGet);
+
+        assertEquals(0, ran.get());
+    }
+
+    @Test
+    public void rejectsPoolSizesThatAreNotPositive() {
+        assertThrows(IllegalArgumentException.class, () -> options.setScanParallelism(0));
+        assertThrows(IllegalArgumentException.class, () -> options.setCopyParallelism(0));
+        assertThrows(IllegalArgumentException.class, () -> options.setPerDeviceConcurrency(-1));
+        assertThrows(IllegalArgumentException.class, () -> options.setIoConcurrency(0));
+        assertThrows(IllegalArgumentException.class, () -> options.setCopyQueueCapacity(0));
+    }
+}
@@ -0,0 +1,63 @@
+package com.jeffrpowell.dosbackup;
+
+import java.util.stream.IntStream;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public class LogHistogramTest {
+
+    @Test
+    public void percentilesAreCloseToTheTruth() {
+        LogHistogram histogram = new LogHistogram();
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(100_000, histogram.getCount());
+        assertEquals(100_000L * 100_001 / 2, histogram.getSum());
+        assertEquals(100_000, histogram.getMax());
+        for (double percentile : new double[]{1, 50, 90, 99, 99.9}) {
+            long exact = (long) (100_000 * percentile / 100);
+            long reported = histogram.percentile(percentile);
+            //a bucket is at most an eighth as wide as the values in it
+            assertTrue(reported >= exact && reported <= exact + exact / 8, percentile + "th was " + reported);
+        }
+        assertEquals(100_000, histogram.percentile(100));
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LogHistogram histogram = new LogHistogram();
+        histogram.record(0);
+        histogram.record(3);
+        histogram.record(-5);
+        histogram.record(7);
+
+        assertEquals(0, histogram.percentile(50));
+        assertEquals(3, histogram.percentile(75));
+        assertEquals(7, histogram.percentile(100));
+    }
+
+    @Test
+    public void handlesTheExtremes() {
+        LogHistogram histogram = new LogHistogram();
+        assertEquals(0, histogram.percentile(99));
+
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(Long.MAX_VALUE, histogram.percentile(50));
+        assertEquals(Long.MAX_VALUE, histogram.getMax());
+    }
+
+    @Test
+    public void losesNothingToConcurrentRecords() {
+        LogHistogram histogram = new LogHistogram();
+
+        IntStream.range(0, 100_000).parallel().forEach(i -> histogram.record(i % 1000));
+
+        assertEquals(100_000, histogram.getCount());
+        assertEquals(999, histogram.getMax());
+        assertEquals(100L * 999 * 1000 / 2, histogram.getSum());
+    }
+}
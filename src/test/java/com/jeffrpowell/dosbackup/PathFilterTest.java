@@ -0,0 +1,109 @@
+package com.jeffrpowell.dosbackup;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public class PathFilterTest {
+
+    @Test
+    public void aPlainNameMatchesAtAnyDepth() {
+        PathFilter filter = excluding("node_modules");
+
+        assertTrue(filter.excludesDirectory(Paths.get("/work/node_modules")));
+        assertTrue(filter.excludesDirectory(Paths.get("/work/app/lib/node_modules")));
+        assertTrue(filter.excludesFile(Paths.get("/work/node_modules")));
+        assertFalse(filter.excludesDirectory(Paths.get("/work/node_modules_old")));
+        assertFalse(filter.excludesFile(Paths.get("/work/node_modules/package.json")));
+    }
+
+    @Test
+    public void aGlobWithoutASlashMatchesTheName() {
+        PathFilter filter = excluding("*.tmp");
+
+        assertTrue(filter.excludesFile(Paths.get("/work/a.tmp")));
+        assertTrue(filter.excludesFile(Paths.get("/work/deep/down/b.tmp")));
+        assertFalse(filter.excludesFile(Paths.get("/work/a.tmp.txt")));
+        assertFalse(filter.excludesFile(Paths.get("/work.tmp/a.txt")));
+    }
+
+    @Test
+    public void aGlobWithASlashMatchesTheWholePath() {
+        PathFilter filter = excluding("/work/cache", "**/build/classes");
+
+        assertTrue(filter.excludesDirectory(Paths.get("/work/cache")));
+        assertFalse(filter.excludesDirectory(Paths.get("/other/work/cache")));
+        assertTrue(filter.excludesDirectory(Paths.get("/work/app/build/classes")));
+        assertFalse(filter.excludesDirectory(Paths.get("/work/app/build")));
+        assertFalse(filter.excludesDirectory(Paths.get("/work/classes")));
+    }
+
+    @Test
+    public void aTrailingSlashMeansDirectoriesOnly() {
+        PathFilter filter = excluding("build/");
+
+        assertTrue(filter.excludesDirectory(Paths.get("/work/build")));
+        assertFalse(filter.excludesFile(Paths.get("/work/build")));
+        //an entry of unknown type is treated as a directory
+        assertTrue(filter.excludes(Paths.get("/work/build")));
+    }
+
+    @Test
+    public void aRegexIsMatchedAgainstTheName() {
+        PathFilter filter = excluding("regex:~?\\$.*|.*~");
+
+        assertTrue(filter.excludesFile(Paths.get("/work/~$report.docx")));
+        assertTrue(filter.excludesFile(Paths.get("/work/notes.txt~")));
+        assertFalse(filter.excludesFile(Paths.get("/work/notes.txt")));
+    }
+
+    @Test
+    public void includesPickFilesButStillDescend() {
+        PathFilter filter = PathFilter.compile(Collections.singletonList("*.jpg"), Collections.emptyList());
+
+        assertFalse(filter.excludesFile(Paths.get("/photos/2020/beach.jpg")));
+        assertTrue(filter.excludesFile(Paths.get("/photos/2020/notes.txt")));
+        //a directory that matches nothing may still hold matching files
+        assertFalse(filter.excludesDirectory(Paths.get("/photos/2020")));
+    }
+
+    @Test
+    public void excludesWinOverIncludes() {
+        PathFilter filter = PathFilter.compile(Collections.singletonList("*.jpg"), Arrays.asList("thumbs", "*_small.jpg"));
+
+        assertTrue(filter.excludesFile(Paths.get("/photos/beach_small.jpg")));
+        assertTrue(filter.excludesDirectory(Paths.get("/photos/thumbs")));
+        assertFalse(filter.excludesFile(Paths.get("/photos/beach.jpg")));
+    }
+
+    @Test
+    public void noRulesExcludeNothing() {
+        PathFilter filter = PathFilter.compile(Collections.emptyList(), Collections.emptyList());
+
+        assertSame(PathFilter.NONE, filter);
+        assertTrue(filter.isEmpty());
+        assertFalse(filter.excludesFile(Paths.get("/anything")));
+        assertFalse(filter.excludesDirectory(Paths.get("/")));
+    }
+
+    @Test
+    public void rejectsPatternsThatDoNotCompile() {
+        assertThrows(IllegalArgumentException.class, () -> excluding("regex:("));
+        assertThrows(IllegalArgumentException.class, () -> excluding("[a-"));
+        assertThrows(IllegalArgumentException.class, () -> excluding("regex:"));
+        BackupOptions options = new BackupOptions();
+        List<String> bad = Collections.singletonList("regex:(");
+        assertThrows(IllegalArgumentException.class, () -> options.setPathRules(Collections.emptyList(), bad));
+        assertTrue(options.getPathFilter().isEmpty());
+    }
+
+    static PathFilter excluding(String... patterns) {
+        return PathFilter.compile(Collections.emptyList(), Arrays.asList(patterns));
+    }
+}
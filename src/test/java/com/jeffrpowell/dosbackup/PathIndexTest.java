@@ -0,0 +1,75 @@
+package com.jeffrpowell.dosbackup;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.IntStream;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public class PathIndexTest {
+
+    @Test
+    public void containsWhatWasAddedAndItsAncestors() {
+        PathIndex index = new PathIndex();
+        index.add(Paths.get("/a/b/c.txt"));
+
+        assertTrue(index.contains(Paths.get("/a/b/c.txt")));
+        assertTrue(index.contains(Paths.get("/a/b")));
+        assertTrue(index.contains(Paths.get("/a")));
+        assertFalse(index.contains(Paths.get("/a/b/d.txt")));
+        assertFalse(index.contains(Paths.get("/a/b/c.txt/e")));
+        assertFalse(index.contains(Paths.get("/b")));
+    }
+
+    @Test
+    public void findsWhatIsUnderAnAddedPath() {
+        PathIndex index = new PathIndex();
+        index.add(Paths.get("/a/b"));
+
+        assertTrue(index.isAddedOrUnder(Paths.get("/a/b")));
+        assertTrue(index.isAddedOrUnder(Paths.get("/a/b/c/d.txt")));
+        //an ancestor is only on the way to what was added
+        assertFalse(index.isAddedOrUnder(Paths.get("/a")));
+        assertFalse(index.isAddedOrUnder(Paths.get("/a/bc")));
+    }
+
+    @Test
+    public void sharesCommonPrefixes() {
+        PathIndex index = new PathIndex();
+        index.add(Paths.get("/a/b/one"));
+        index.add(Paths.get("/a/b/two"));
+        index.add(Paths.get("/a/b/one"));
+
+        assertEquals(3, index.getAddedCount());
+        assertEquals(4, index.getNodeCount());
+        assertTrue(index.estimateBytes() > 0);
+    }
+
+    @Test
+    public void holdsDirectoriesTooBigForAnArray() {
+        PathIndex index = new PathIndex();
+        for (int i = 0; i < 100; i++) {
+            index.add(Paths.get("/dir/file" + i));
+        }
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(index.contains(Paths.get("/dir/file" + i)));
+        }
+        assertFalse(index.contains(Paths.get("/dir/file100")));
+        assertEquals(101, index.getNodeCount());
+    }
+
+    @Test
+    public void losesNothingToConcurrentAdds() {
+        PathIndex index = new PathIndex();
+        IntStream.range(0, 10_000).parallel().forEach(i -> index.add(Paths.get("/root", "dir" + i % 7, "file" + i)));
+
+        for (int i = 0; i < 10_000; i++) {
+            Path path = Paths.get("/root", "dir" + i % 7, "file" + i);
+            assertTrue(index.contains(path), path.toString());
+        }
+        assertEquals(1 + 7 + 10_000, index.getNodeCount());
+    }
+}
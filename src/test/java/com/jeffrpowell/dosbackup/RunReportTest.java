@@ -0,0 +1,74 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class RunReportTest {
+
+    @TempDir
+    Path root;
+
+    @Test
+    public void writesALinePerFileBetweenTheRunAndTheSummary() throws IOException {
+        Path reportFile = root.resolve("report.ndjson");
+        RunReport report = RunReport.open(reportFile, Collections.singletonList(root.resolve("source")), root.resolve("destination"));
+        report.copied(root.resolve("source/copied.txt"), 10, 2_000_000);
+        report.unchanged(root.resolve("source/unchanged.txt"), 20, 1_000);
+        report.resumed(root.resolve("source/resumed.txt"), 30);
+        report.deleted(root.resolve("destination/deleted.txt"));
+        report.failed(root.resolve("source/failed.txt"), "no space left");
+        report.close();
+
+        List<String> lines = Files.readAllLines(reportFile);
+
+        assertEquals(7, lines.size());
+        assertTrue(lines.get(0).startsWith("{\"type\":\"run\""));
+        assertTrue(lines.get(0).contains("\"sources\":[\"" + root.resolve("source") + "\"]"));
+        assertTrue(lines.get(1).startsWith("{\"type\":\"file\",\"outcome\":\"copied\""));
+        assertTrue(lines.get(1).endsWith(",\"bytes\":10,\"micros\":2000}"));
+        assertTrue(lines.get(5).endsWith(",\"error\":\"no space left\"}"));
+        String summary = lines.get(6);
+        assertTrue(summary.startsWith("{\"type\":\"summary\""));
+        assertTrue(summary.contains("\"copied\":{\"files\":1,\"bytes\":10}"));
+        assertTrue(summary.contains("\"unchanged\":{\"files\":1,\"bytes\":20}"));
+        assertTrue(summary.contains("\"resumed\":{\"files\":1,\"bytes\":30}"));
+        assertTrue(summary.contains("\"failed\":{\"files\":1,\"bytes\":0}"));
+    }
+
+    @Test
+    public void escapesWhatJsonCannotHoldAsIs() throws IOException {
+        Path reportFile = root.resolve("report.ndjson");
+        RunReport report = RunReport.open(reportFile, Collections.emptyList(), root);
+        report.failed(root.resolve("a\"quote"), "line one\nline two\ttab\\");
+        report.close();
+
+        String line = Files.readAllLines(reportFile).get(1);
+
+        assertTrue(line.contains("a\\\"quote\""));
+        assertTrue(line.contains("\"error\":\"line one\\nline two\\ttab\\\\\""));
+    }
+
+    @Test
+    public void keepsOnlyTheFirstFailuresInMemory() throws IOException {
+        Path reportFile = root.resolve("report.ndjson");
+        RunReport report = RunReport.open(reportFile, Collections.emptyList(), root);
+        int failures = RunReport.MAX_LISTED_FAILURES + 50;
+        for (int i = 0; i < failures; i++) {
+            report.failed(root.resolve("file" + i), "failed");
+        }
+        report.close();
+
+        assertEquals(failures, report.getFailureCount());
+        assertEquals(RunReport.MAX_LISTED_FAILURES, report.getFailedPaths().size());
+        assertEquals(root.resolve("file0").toString(), report.getFailedPaths().get(0));
+        //every one of them is in the report, plus the run and summary lines
+        assertEquals(failures + 2, Files.readAllLines(reportFile).size());
+    }
+}
@@ -0,0 +1,96 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SourceWatcherTest {
+
+    @TempDir
+    Path root;
+    private SourceWatcher watcher;
+
+    @BeforeEach
+    public void createWatcher() throws IOException {
+        Files.createDirectories(root.resolve("a/b"));
+        watcher = new SourceWatcher(200, PathFilter.NONE);
+        watcher.watchTree(root);
+    }
+
+    @AfterEach
+    public void closeWatcher() throws IOException {
+        watcher.close();
+    }
+
+    @Test
+    public void watchesEveryDirectoryInTheTree() {
+        assertEquals(3, watcher.getWatchedDirectoryCount());
+    }
+
+    @Test
+    public void aChangedFileListsOnlyItsDirectory() throws Exception {
+        Files.writeString(root.resolve("a/b/file.txt"), "one");
+        Files.writeString(root.resolve("a/b/file.txt"), "two");
+
+        SourceWatcher.Batch batch = watcher.nextBatch();
+
+        assertEquals(Collections.singleton(root.resolve("a/b")), batch.getShallow());
+        assertEquals(Collections.emptySet(), batch.getDeep());
+    }
+
+    @Test
+    public void aNewDirectoryIsBackedUpWithEverythingInIt() throws Exception {
+        Path created = Files.createDirectories(root.resolve("a/new/deeper"));
+        Files.writeString(created.resolve("file.txt"), "file");
+
+        SourceWatcher.Batch batch = watcher.nextBatch();
+
+        assertEquals(Collections.singleton(root.resolve("a/new")), batch.getDeep());
+        //the new directory's parent is listed too, in case it replaced a file that has to go
+        assertEquals(Collections.singleton(root.resolve("a")), batch.getShallow());
+        assertEquals(5, watcher.getWatchedDirectoryCount());
+        assertFalse(batch.isEmpty());
+    }
+
+    @Test
+    public void ignoresWhatTheRulesExclude() throws Exception {
+        watcher.close();
+        Files.createDirectories(root.resolve("a/cache"));
+        watcher = new SourceWatcher(200, PathFilter.compile(Collections.emptyList(), Arrays.asList("cache", "*.tmp")));
+        watcher.watchTree(root);
+        assertEquals(3, watcher.getWatchedDirectoryCount());
+
+        Files.writeString(root.resolve("a/cache/file.txt"), "cached");
+        Files.writeString(root.resolve("a/b/file.tmp"), "scratch");
+        Files.writeString(root.resolve("a/file.txt"), "kept");
+        SourceWatcher.Batch batch = watcher.nextBatch();
+
+        assertEquals(Collections.singleton(root.resolve("a")), batch.getShallow());
+        assertEquals(Collections.emptySet(), batch.getDeep());
+    }
+
+    @Test
+    public void handsOutNothingOnceClosed() throws Exception {
+        Thread closer = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+                watcher.close();
+            } catch (InterruptedException | IOException ex) {
+                throw new AssertionError(ex);
+            }
+        });
+        closer.start();
+
+        assertNull(watcher.nextBatch());
+        closer.join();
+    }
+}
@@ -0,0 +1,89 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class StateChangeDetectorTest {
+
+    @TempDir
+    Path root;
+    private Path destination;
+    private Path file;
+
+    @BeforeEach
+    public void createFile() throws IOException {
+        destination = Files.createDirectory(root.resolve("destination"));
+        file = Files.writeString(root.resolve("file.txt"), "contents");
+    }
+
+    @Test
+    public void copiesAFileItHasNoRecordOf() throws IOException {
+        assertTrue(detector(false).needsCopy(file, attributes()));
+    }
+
+    @Test
+    public void skipsAFileRecordedAsCopied() throws IOException {
+        copied(false);
+
+        assertFalse(detector(false).needsCopy(file, attributes()));
+    }
+
+    @Test
+    public void copiesAFileThatChangedSize() throws IOException {
+        copied(false);
+        Files.writeString(file, "longer contents");
+
+        assertTrue(detector(false).needsCopy(file, attributes()));
+    }
+
+    @Test
+    public void aTouchedFileIsCopiedUnlessItsContentIsHashed() throws IOException {
+        copied(true);
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().plusSeconds(60)));
+
+        assertTrue(detector(false).needsCopy(file, attributes()));
+        assertFalse(detector(true).needsCopy(file, attributes()));
+    }
+
+    @Test
+    public void aTouchedFileWithNewContentIsCopied() throws IOException {
+        copied(true);
+        Files.writeString(file, "CONTENTS");
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().plusSeconds(60)));
+
+        assertTrue(detector(true).needsCopy(file, attributes()));
+    }
+
+    @Test
+    public void anUnchangedFileIsKeptByACompleteSave() throws IOException {
+        copied(false);
+        BackupState state = BackupState.load(destination);
+        new StateChangeDetector(state, false).needsCopy(file, attributes());
+        state.save(true);
+
+        assertFalse(detector(false).needsCopy(file, attributes()));
+    }
+
+    void copied(boolean hashContent) throws IOException {
+        BackupState state = BackupState.load(destination);
+        new StateChangeDetector(state, hashContent).copied(file, attributes());
+        state.save(true);
+    }
+
+    StateChangeDetector detector(boolean hashContent) throws IOException {
+        return new StateChangeDetector(BackupState.load(destination), hashContent);
+    }
+
+    BasicFileAttributes attributes() throws IOException {
+        return Files.readAttributes(file, BasicFileAttributes.class);
+    }
+}
@@ -0,0 +1,117 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public class ThrottleTest {
+
+    @Test
+    public void holdsTransfersToTheRate() throws IOException {
+        Throttle throttle = new Throttle(1_000_000, 0);
+        //a full bucket lets the first second's worth straight through
+        throttle.acquireBytes(1_000_000);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            throttle.acquireBytes(50_000);
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        //half a second's worth of bytes
+        assertTrue(elapsedMillis >= 400, "too fast: " + elapsedMillis + "ms");
+        assertTrue(elapsedMillis < 2_000, "too slow: " + elapsedMillis + "ms");
+    }
+
+    @Test
+    public void aZeroRateIsUnlimited() throws IOException {
+        Throttle throttle = new Throttle(0, 0);
+
+        long start = System.nanoTime();
+        throttle.acquireBytes(Long.MAX_VALUE / 2);
+        for (int i = 0; i < 10_000; i++) {
+            throttle.acquireOperation();
+        }
+
+        assertFalse(throttle.isLimitingBytes());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1_000);
+    }
+
+    @Test
+    public void raisingTheRateReleasesAWaitingTransfer() throws Exception {
+        Throttle throttle = new Throttle(1_000, 0);
+        Thread copier = parkedCopier(throttle);
+
+        throttle.setBytesPerSecond(1_000_000_000);
+        copier.join(2_000);
+
+        assertFalse(copier.isAlive());
+    }
+
+    @Test
+    public void clearingTheRateReleasesAWaitingTransfer() throws Exception {
+        Throttle throttle = new Throttle(1_000, 0);
+        Thread copier = parkedCopier(throttle);
+
+        throttle.setBytesPerSecond(0);
+        copier.join(2_000);
+
+        assertFalse(copier.isAlive());
+        assertFalse(throttle.isLimitingBytes());
+    }
+
+    @Test
+    public void anInterruptedTransferGivesUp() throws Exception {
+        Throttle throttle = new Throttle(1_000, 0);
+        throttle.acquireBytes(1_000);
+        IOException[] failure = new IOException[1];
+        Thread copier = new Thread(() -> {
+            try {
+                throttle.acquireBytes(100_000);
+            } catch (IOException ex) {
+                failure[0] = ex;
+            }
+        });
+        copier.start();
+        Thread.sleep(100);
+
+        copier.interrupt();
+        copier.join(2_000);
+
+        assertFalse(copier.isAlive());
+        assertTrue(failure[0] instanceof InterruptedIOException);
+    }
+
+    @Test
+    public void rejectsANegativeRate() {
+        Throttle throttle = new Throttle(10, 10);
+        assertThrows(IllegalArgumentException.class, () -> throttle.setBytesPerSecond(-1));
+        assertThrows(IllegalArgumentException.class, () -> new Throttle(-1, 0));
+        assertThrows(IllegalArgumentException.class, () -> new BackupOptions().setMaxOperationsPerSecond(-1));
+        assertEquals(10, throttle.getBytesPerSecond());
+    }
+
+    /**
+     * @return a thread stuck behind about a hundred seconds of debt
+     */
+    static Thread parkedCopier(Throttle throttle) throws Exception {
+        throttle.acquireBytes(1_000);
+        Thread copier = new Thread(() -> {
+            try {
+                throttle.acquireBytes(100_000);
+            } catch (IOException ex) {
+                throw new AssertionError(ex);
+            }
+        });
+        copier.setDaemon(true);
+        copier.start();
+        Thread.sleep(100);
+        assertTrue(copier.isAlive());
+        return copier;
+    }
+}
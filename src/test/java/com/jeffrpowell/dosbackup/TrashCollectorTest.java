@@ -0,0 +1,66 @@
+package com.jeffrpowell.dosbackup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class TrashCollectorTest {
+
+    @TempDir
+    Path root;
+    private TrashCollector trash;
+
+    @BeforeEach
+    public void createCollector() {
+        trash = new TrashCollector(root, new Throttle(0, 0));
+    }
+
+    @AfterEach
+    public void shutdown() {
+        trash.shutdownNow();
+    }
+
+    @Test
+    public void aDiscardedDirectoryIsGoneStraightAway() throws IOException {
+        Path stale = Files.createDirectories(root.resolve("backup/stale/deeper"));
+        Files.writeString(stale.resolve("file.txt"), "file");
+
+        trash.discardDirectory(root.resolve("backup/stale"));
+
+        //the path is free for a replacement even before the trash is emptied
+        assertFalse(Files.exists(root.resolve("backup/stale")));
+        trash.awaitReclaimed();
+        assertFalse(Files.exists(root.resolve(TrashCollector.DIRECTORY_NAME)));
+        assertEquals(1, trash.getDiscarded());
+        assertEquals(0, trash.getDeletedInPlace());
+    }
+
+    @Test
+    public void reclaimsWhatAnEarlierRunLeftBehind() throws IOException {
+        Path leftover = Files.createDirectories(root.resolve(TrashCollector.DIRECTORY_NAME).resolve("old-1-stale"));
+        Files.writeString(leftover.resolve("file.txt"), "file");
+
+        trash.reclaimLeftovers();
+        trash.awaitReclaimed();
+
+        assertFalse(Files.exists(root.resolve(TrashCollector.DIRECTORY_NAME)));
+    }
+
+    @Test
+    public void deletesASingleFileOnTheSpot() throws IOException {
+        Path file = Files.writeString(root.resolve("file.txt"), "file");
+
+        trash.discardFile(file);
+
+        assertFalse(Files.exists(file));
+        assertFalse(Files.exists(root.resolve(TrashCollector.DIRECTORY_NAME)));
+        assertThrows(IOException.class, () -> trash.discardFile(file));
+    }
+}